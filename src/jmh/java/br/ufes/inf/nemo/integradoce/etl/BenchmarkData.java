@@ -0,0 +1,73 @@
+package br.ufes.inf.nemo.integradoce.etl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+
+/**
+ * Input files for the benchmarks: the files in sample_input_data, and variants
+ * scaled up by repeating their data rows.
+ */
+final class BenchmarkData {
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * The first (in path order) CSV file in the subfolders of a folder
+     */
+    static File firstCsvFile(File folder) throws IOException {
+        File[] subfolders = folder.listFiles(File::isDirectory);
+        if (subfolders == null)
+            throw new IOException("Not a folder: " + folder.getAbsolutePath());
+        Arrays.sort(subfolders);
+        for (File subfolder : subfolders) {
+            File[] files = subfolder.listFiles((dir, name) -> name.endsWith(".csv"));
+            if (files != null && files.length > 0) {
+                Arrays.sort(files);
+                return files[0];
+            }
+        }
+        throw new IOException("No CSV files in " + folder.getAbsolutePath());
+    }
+
+    /**
+     * Writes a copy of a CSV file with its data rows repeated scale times. The
+     * bytes of the rows are kept as they are, whatever their encoding.
+     */
+    static File scaled(File file, int scale, File dir) throws IOException {
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.ISO_8859_1);
+        File result = new File(dir, scale + "x-" + file.getName());
+        try (Writer out = Files.newBufferedWriter(result.toPath(), StandardCharsets.ISO_8859_1)) {
+            out.write(lines.get(0));
+            out.write("\r\n");
+            for (int i = 0; i < scale; i++) {
+                for (String line : lines.subList(1, lines.size())) {
+                    if (line.isEmpty())
+                        continue;
+                    out.write(line);
+                    out.write("\r\n");
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Writes a file of the Renova automatic (telemetry) format of about the
+     * given size (see {@link InputGenerator}), as the sample data has none.
+     */
+    static File automatic(File inputFolder, long size, File dir) throws IOException {
+        File result = new File(dir, size + "-automatico.csv");
+        new InputGenerator(inputFolder, 1).writeAutomatic(result, size,
+                new GregorianCalendar(2017, Calendar.AUGUST, 1));
+        return result;
+    }
+
+}
@@ -0,0 +1,209 @@
+package br.ufes.inf.nemo.integradoce.etl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+import org.semanticweb.owlapi.model.OWLOntologyStorageException;
+
+/**
+ * Throughput of {@link Load#addMeasurement} into a buffer (which only records
+ * the measurements) and into an ontology (which creates and adds their
+ * axioms), of the axioms of a buffer created and added to an ontology, and
+ * time of {@link Load#save} in each output format.
+ */
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class LoadBenchmark {
+
+    private static final String[] POINTS = { ":RCA-01", ":RDO-01", ":RDO-03", ":RGN-07", ":UHE-AIM" };
+    private static final String[] QUALITY_KINDS = { "http://purl.org/nemo/doce#pH",
+            "http://purl.org/nemo/doce#Turbidity", "http://purl.org/nemo/doce#Conductivity",
+            "http://purl.org/nemo/doce#Temperature" };
+    private static final String UNIT = "http://qudt.org/vocab/unit/MilliGM-PER-L";
+    private static final String AGENT = "http://purl.org/nemo/integradoce#Renova";
+
+    private static final int BATCH = 1000;
+
+    /**
+     * Adds measurement i (at one of a few points, of one of a few quality kinds,
+     * every 30 minutes)
+     */
+    private static void addMeasurement(OWLOntology ontology, int i) {
+        Load.addMeasurement(ontology, POINTS[i % POINTS.length], QUALITY_KINDS[i % QUALITY_KINDS.length], UNIT,
+                i % 1000 / 10f, new Date(1500000000000L + 1800000L * i), AGENT, "TipoDeAmostra;column");
+    }
+
+    @State(Scope.Thread)
+    public static class Measurements {
+
+        private int next = 0;
+
+        @Param({ "true", "false" })
+        public boolean contentDerivedIRIs;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            Load.setContentDerivedIRIs(contentDerivedIRIs);
+        }
+    }
+
+    /**
+     * Measurements added to a buffer, as when files are transformed
+     * concurrently. They are only appended to a {@link MeasurementBuffer}: no
+     * axioms are created and nothing is added to an ontology (see
+     * {@link #addMeasurementToOntology(Measurements, Added)}).
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(BATCH)
+    public AxiomBuffer addMeasurement(Measurements state) {
+        AxiomBuffer buffer = new AxiomBuffer();
+        Load.collectInto(buffer);
+        try {
+            for (int i = 0; i < BATCH; i++)
+                addMeasurement(null, state.next++);
+        } finally {
+            Load.stopCollecting();
+        }
+        return buffer;
+    }
+
+    @State(Scope.Thread)
+    public static class Added {
+
+        /**
+         * Whether the axioms of each measurement are added to the ontology in
+         * one change (see {@link Load#setBatchInsertion(boolean)})
+         */
+        @Param({ "true", "false" })
+        public boolean batchInsertion;
+
+        OWLOntology ontology;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            Load.setBatchInsertion(batchInsertion);
+        }
+
+        /**
+         * Starts each iteration with an empty ontology, so that it does not grow
+         * throughout the trial
+         */
+        @Setup(Level.Iteration)
+        public void createOntology() throws OWLOntologyCreationException {
+            Load.setDeduplication(true);
+            ontology = Load.createDataOntology();
+        }
+
+        @TearDown(Level.Iteration)
+        public void removeOntology() {
+            ontology.getOWLOntologyManager().removeOntology(ontology);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            Load.setBatchInsertion(true);
+        }
+    }
+
+    /**
+     * Measurements added to an ontology one at a time, as when files are
+     * transformed in a single thread
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(BATCH)
+    public OWLOntology addMeasurementToOntology(Measurements state, Added added) {
+        for (int i = 0; i < BATCH; i++)
+            addMeasurement(added.ontology, state.next++);
+        return added.ontology;
+    }
+
+    /**
+     * Measurements added to a buffer, which is then added to an ontology with
+     * {@link Load#addAll(OWLOntology, AxiomBuffer)}, as {@link App} adds the
+     * buffer of each file transformed concurrently: the axioms are created
+     * from the {@link MeasurementBuffer} and added. The difference with
+     * {@link #addMeasurement(Measurements)} is the time to materialize them.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(BATCH)
+    public OWLOntology addBufferToOntology(Measurements state, Added added) {
+        Load.addAll(added.ontology, addMeasurement(state));
+        return added.ontology;
+    }
+
+    @State(Scope.Benchmark)
+    public static class Saved {
+
+        /**
+         * Output format (see {@link OutputFormat}), or "owlapi" for the OWLAPI
+         * renderer
+         */
+        @Param({ "owlapi", "turtle", "turtle-gz", "ntriples", "jsonld" })
+        public String format;
+
+        @Param({ "100000" })
+        public int measurements;
+
+        /**
+         * Local copy of the doce ontology (see
+         * {@link Load#loadDoce(File, boolean)}), or "" for the default
+         */
+        @Param("")
+        public String ontologyCache;
+
+        OWLOntology ontology;
+        File file;
+
+        @Setup(Level.Trial)
+        public void setUp() throws OWLOntologyCreationException, IOException {
+            Load.setContentDerivedIRIs(true);
+            ontology = Load.loadDoce(
+                    ontologyCache.isEmpty() ? Load.DEFAULT_ONTOLOGY_CACHE : new File(ontologyCache), false);
+            for (int i = 0; i < measurements; i++)
+                addMeasurement(ontology, i);
+            file = File.createTempFile("etl-benchmark", ".out");
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            file.delete();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    public File save(Saved state) throws OWLOntologyStorageException {
+        Load.save(state.ontology, state.file.getPath(),
+                state.format.equals("owlapi") ? null : OutputFormat.forLabel(state.format));
+        return state.file;
+    }
+
+}
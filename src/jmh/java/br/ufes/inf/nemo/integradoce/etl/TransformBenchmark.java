@@ -0,0 +1,111 @@
+package br.ufes.inf.nemo.integradoce.etl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.text.ParseException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+
+/**
+ * Time to extract and transform one input file of each format into an
+ * {@link AxiomBuffer} (as done by {@link App} with several threads), for the
+ * sample files and variants scaled up by repeating their rows. The
+ * measurements are held in {@link MeasurementBuffer}s, whose axioms are only
+ * created when the buffer is added to the output.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class TransformBenchmark {
+
+    /**
+     * Folder with the sample input data (relative to the working directory)
+     */
+    @Param("sample_input_data")
+    public String inputFolder;
+
+    /**
+     * Number of times the data rows of the sample files are repeated
+     */
+    @Param({ "1", "10" })
+    public int scale;
+
+    private File dir, manualFile, automaticFile, unespFile;
+    private OWLOntology ontology;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, OWLOntologyCreationException {
+        dir = Files.createTempDirectory("etl-benchmark").toFile();
+        manualFile = BenchmarkData.scaled(BenchmarkData.firstCsvFile(new File(inputFolder, "dados_renova")), scale,
+                dir);
+        automaticFile = BenchmarkData.automatic(new File(inputFolder), (1L << 20) * scale, dir);
+        unespFile = BenchmarkData.scaled(new File(inputFolder, "dados_unesp/agua/Dados_Rio_Doce_Campanha2.csv"),
+                scale, dir);
+        // the axioms go to the buffer, not to the ontology
+        ontology = OWLManager.createOWLOntologyManager().createOntology();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (File file : dir.listFiles())
+            file.delete();
+        dir.delete();
+    }
+
+    @Benchmark
+    public AxiomBuffer renovaManual() throws IOException, ParseException {
+        AxiomBuffer buffer = new AxiomBuffer();
+        Load.collectInto(buffer);
+        try {
+            RenovaExtractTransform.extractTransformRenovaDataFileManualSources(manualFile, ontology);
+        } finally {
+            Load.stopCollecting();
+        }
+        return buffer;
+    }
+
+    @Benchmark
+    public AxiomBuffer renovaAutomatic() throws IOException, ParseException {
+        AxiomBuffer buffer = new AxiomBuffer();
+        Load.collectInto(buffer);
+        try {
+            RenovaExtractTransform.extractTransformRenovaDataFileAutomaticSources(automaticFile, ontology);
+        } finally {
+            Load.stopCollecting();
+        }
+        return buffer;
+    }
+
+    @Benchmark
+    public AxiomBuffer unesp() throws IOException, ParseException {
+        AxiomBuffer buffer = new AxiomBuffer();
+        Load.collectInto(buffer);
+        try {
+            UnespExtractTransform.extractTransformUNESP(unespFile, ontology);
+        } finally {
+            Load.stopCollecting();
+        }
+        return buffer;
+    }
+
+}
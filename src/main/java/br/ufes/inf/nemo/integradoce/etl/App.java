@@ -2,7 +2,21 @@ package br.ufes.inf.nemo.integradoce.etl;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.ClosedWatchServiceException;
 import java.text.ParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.FileHandler;
 import java.util.logging.Logger;
 import java.util.logging.SimpleFormatter;
@@ -11,6 +25,9 @@ import org.semanticweb.owlapi.model.OWLOntology;
 import org.semanticweb.owlapi.model.OWLOntologyCreationException;
 import org.semanticweb.owlapi.model.OWLOntologyStorageException;
 
+import br.ufes.inf.nemo.integradoce.etl.InputDiscovery.Format;
+import br.ufes.inf.nemo.integradoce.etl.InputDiscovery.Input;
+
 /**
  * Extracts and transforms to triples conforming to http://purl.org/nemo/doce
  * ontology.
@@ -22,84 +39,568 @@ import org.semanticweb.owlapi.model.OWLOntologyStorageException;
 public class App {
 	private final static Logger LOGGER = Logger.getLogger("ETL");
 
+	/**
+	 * Tasks submitted to the pool and not yet added to the output, per thread
+	 */
+	static final int TASKS_PER_THREAD = 4;
+
+	/**
+	 * Measurements remembered with --watch to leave out duplicates, after which
+	 * the older ones are forgotten (see Load#setDeduplication(boolean, int)),
+	 * about 64 MB for each generation of keys
+	 */
+	static final int WATCH_MEASUREMENT_KEYS = 1 << 21;
+
 	public static void main(String[] args) throws OWLOntologyCreationException, OWLOntologyStorageException,
 			SecurityException, IOException, ParseException {
 
-		if (args.length!=2) 
+		Options options = Options.parse(args);
+		if (options == null)
 		{
-			System.err.println("Usage: App <data_input_folder> <outputfile.ttl>");
-			System.err.println("The <data_input_folder> should have two subfolders 'dados_renova' and 'dados_unesp' with respective CSV files.");
+			Options.printUsage(System.err);
 			return;
 		}
 
-		String baseDir = args[0];
-
 		// setup logger
 		FileHandler fh = new FileHandler("etl.log", true);
 		System.setProperty("java.util.logging.SimpleFormatter.format", "[%1$tr] %4$s: %5$s%n");
 		fh.setFormatter(new SimpleFormatter());
 		LOGGER.addHandler(fh);
 
-		// load ontology from web
-		LOGGER.info("Loading doce ontology...");
-		OWLOntology ontology = Load.loadDoce();
-		LOGGER.info("Loaded doce ontology.");
+		run(options);
+	}
+
+	/**
+	 * Extracts, transforms and saves the input files as given by the options.
+	 * 
+	 * @param options
+	 * @return the ontology the data was added to (the doce ontology, or the data
+	 *         ontology with --data-only)
+	 */
+	static OWLOntology run(Options options) throws OWLOntologyCreationException, OWLOntologyStorageException,
+			IOException, ParseException
+	{
+		String baseDir = options.inputFolder;
+
+		Load.setContentDerivedIRIs(!options.sequentialIRIs);
+		Load.setDeduplication(!options.keepDuplicates, options.watch ? WATCH_MEASUREMENT_KEYS : 0);
+		Load.setRollups(options.rollups, !options.rollupsOnly);
+		Load.setStationLinkRadius(options.stationLinkKm);
+		InputCache.setFolder(options.cacheFolder);
+		EtlMetrics.register();
+		// fail before reading any file if a mapping is not valid
+		MappingRegistry.get();
 
-		// extract geographic points from metadata file
-		RenovaExtractTransform.extractTransformGeographicPoints(
-				baseDir+
-				"/dados_renova/Detalhamento_pontos_PMQQS.csv",
-				ontology);
+		// load ontology (from local copy or web) while the input files are read
+		Future<OWLOntology> doce;
+		if (options.dataOnly)
+			doce = CompletableFuture.completedFuture(Load.createDataOntology());
+		else
+		{
+			LOGGER.info("Loading doce ontology...");
+			doce = Load.loadDoceInBackground(options.ontologyCache, options.refreshOntology);
+		}
+		Output output = new Output(doce, options);
 
-		Load.addWellKnownEntities(ontology);
+		// files changed from now on are transformed once the others are
+		InputWatcher watcher = options.watch ? new InputWatcher(new File(baseDir)) : null;
 
-		File folder;
+		// take the input files in the input folder and its subfolders, at any
+		// depth, by the format detected from their header
+		InputDiscovery discovery = new InputDiscovery(options.includes, options.excludes);
+		List<Input> inputs = discovery.discover(new File(baseDir));
+		LOGGER.info("Found " + inputs.size() + " input files in " + baseDir);
+		if (watcher != null)
+			for (Input input : inputs)
+				watcher.read(input.file);
+		List<Input> renovaFiles = select(inputs, Format.RENOVA_MANUAL, Format.RENOVA_AUTOMATIC);
+		List<Input> unespFiles = select(inputs, Format.UNESP);
 
-		// take all csv files in the given folder and their immediate subfolders
-		folder = new File(baseDir+"/dados_renova");
-		for (File f : folder.listFiles())
+		// extract geographic points from metadata files
+		for (Input input : select(inputs, Format.RENOVA_POINTS))
+			output.add(collect(input.file, (f, ontology) -> RenovaExtractTransform
+					.extractTransformGeographicPoints(f.getPath(), ontology)));
+		AxiomBuffer entities = new AxiomBuffer();
+		Load.collectInto(entities);
+		try
 		{
-			// if the file is a directory, list the files and extract and transform the csv
-			// ones
-			if (f.isDirectory())
+			Load.addWellKnownEntities(null);
+		} finally
+		{
+			Load.stopCollecting();
+		}
+		output.add(entities);
+
+		ExecutorService pool = null;
+		TaskWindow window = null;
+		int renovaTaskCount = 0, unespTaskCount = 0;
+		if (options.threads > 1)
+		{
+			// transform all files concurrently, each into its own buffer
+			LOGGER.info("Transforming " + (renovaFiles.size() + unespFiles.size()) + " files with "
+					+ options.threads + " threads...");
+			pool = Executors.newFixedThreadPool(options.threads);
+			// files are cached whole, so they are not split when cached
+			List<Task> renovaTasks = tasks(renovaFiles, RenovaExtractTransform::extractTransformRenova,
+					RenovaExtractTransform::extractTransformRenovaChunk,
+					options.cacheFolder == null ? options.chunkSize : 0);
+			List<Task> tasks = new ArrayList<>(renovaTasks);
+			tasks.addAll(tasks(unespFiles, UnespExtractTransform::extractTransformUNESP, null, 0));
+			window = new TaskWindow(pool, tasks, options.threads * TASKS_PER_THREAD);
+			renovaTaskCount = renovaTasks.size();
+			unespTaskCount = tasks.size() - renovaTaskCount;
+		}
+
+		try
+		{
+			if (pool == null)
+				for (Input input : renovaFiles)
+					transform(input.file, RenovaExtractTransform::extractTransformRenova, output);
+			else
+				merge(window, renovaTaskCount, output);
+
+			// extract geographic points from metadata files
+			for (Input input : select(inputs, Format.UNESP_POINTS))
+				transformUnespPoints(input.file, output);
+			Load.linkNearestStations(output.ontology(), UnespExtractTransform.POINT_PREFIX);
+
+			if (pool == null)
+				for (Input input : unespFiles)
+					transform(input.file, UnespExtractTransform::extractTransformUNESP, output);
+			else
+				merge(window, unespTaskCount, output);
+		} finally
+		{
+			if (pool != null)
+				pool.shutdownNow();
+		}
+
+		if (watcher != null)
+			watch(watcher, discovery, new File(baseDir), output);
+
+		OWLOntology ontology = output.ontology();
+		// the rollups of the last periods, once all measurements are added
+		Load.flushRollups(ontology);
+
+		LOGGER.info("Saving extracted and transformed data points...");
+		// serialize the ttl file again, for later loading into triple store
+		long start = System.nanoTime();
+		Load.save(ontology, options.outputFile, options.format);
+		EtlMetrics.addTime(EtlMetrics.Stage.SAVE, System.nanoTime() - start);
+
+		LOGGER.info("Saved extracted and transformed data points.");
+		EtlMetrics.logSummary();
+		return ontology;
+	}
+
+
+	/**
+	 * Transforms the input files as they are added to or changed in the input
+	 * folder, writing out the triples of each one as soon as it is transformed,
+	 * until the application is stopped (e.g. with Ctrl-C). The output is then
+	 * completed as at the end of a run, before the application exits.
+	 */
+	private static void watch(InputWatcher watcher, InputDiscovery discovery, File folder, Output output)
+			throws IOException, OWLOntologyCreationException, OWLOntologyStorageException
+	{
+		Thread main = Thread.currentThread();
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			try
+			{
+				watcher.close();
+				// wait for the main thread to complete the output
+				main.join();
+			} catch (IOException e)
+			{
+				LOGGER.warning("Could not stop watching " + folder + ": " + e.getMessage());
+			} catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}));
+		Load.flushSink();
+		LOGGER.info("Watching " + folder + " for new and changed input files...");
+		while (true)
+		{
+			List<File> files;
+			try
 			{
-				for (File f2 : f.listFiles())
+				files = watcher.take();
+			} catch (ClosedWatchServiceException e)
+			{
+				LOGGER.info("Stopped watching " + folder);
+				return;
+			} catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				return;
+			}
+			for (File file : files)
+			{
+				// a file that cannot be transformed does not stop the others
+				try
 				{
-					if (f2.getName().endsWith(".csv"))
-						RenovaExtractTransform.extractTransformRenova(f2, ontology);
+					Input input = discovery.input(folder, file);
+					if (input == null)
+						continue;
+					transform(input, output);
+					Load.flushSink();
+				} catch (IOException | ParseException | RuntimeException e)
+				{
+					LOGGER.warning("Could not transform " + file + ": " + e);
 				}
-			} else if (f.getName().endsWith(".csv"))
-			RenovaExtractTransform.extractTransformRenova(f, ontology);
+			}
+		}
+	}
+
+	/**
+	 * Transforms an input file in the current thread, by its format. Sampling
+	 * sites in a new points file are linked to the nearest stations.
+	 */
+	private static void transform(Input input, Output output)
+			throws IOException, ParseException, OWLOntologyCreationException, OWLOntologyStorageException
+	{
+		switch (input.format)
+		{
+		case RENOVA_POINTS:
+			output.add(collect(input.file, (f, ontology) -> RenovaExtractTransform
+					.extractTransformGeographicPoints(f.getPath(), ontology)));
+			Load.linkNearestStations(output.ontology(), UnespExtractTransform.POINT_PREFIX);
+			break;
+		case RENOVA_MANUAL:
+		case RENOVA_AUTOMATIC:
+			transform(input.file, RenovaExtractTransform::extractTransformRenova, output);
+			break;
+		case UNESP_POINTS:
+			transformUnespPoints(input.file, output);
+			Load.linkNearestStations(output.ontology(), UnespExtractTransform.POINT_PREFIX);
+			break;
+		case UNESP:
+			transform(input.file, UnespExtractTransform::extractTransformUNESP, output);
+			break;
 		}
+	}
 
-		// extract geographic points from metadata file
-		UnespExtractTransform.extractTransformGeographicPointsUNESP(
-			baseDir+"/dados_unesp/pontos.csv", ontology);
+	/**
+	 * Extract and transform operation for one input file
+	 */
+	private interface FileTransform
+	{
+		void apply(File file, OWLOntology ontology) throws IOException, ParseException;
+	}
 
-		// take all csv files in the given folder and their immediate subfolders
-		folder = new File(baseDir+"/dados_unesp/agua");
-		for (File f : folder.listFiles())
+	/**
+	 * Extract and transform operation for one chunk of a large input file
+	 */
+	private interface ChunkTransform
+	{
+		void apply(CsvChunks chunks, int chunk, OWLOntology ontology) throws IOException, ParseException;
+	}
+
+	/**
+	 * Extract and transform operation bound to its input
+	 */
+	private interface Transformation
+	{
+		void run() throws IOException, ParseException;
+	}
+
+	/**
+	 * The inputs of the given formats, in the order of their paths so that the
+	 * output does not depend on the order in which the file system lists them
+	 */
+	private static List<Input> select(List<Input> inputs, Format... formats)
+	{
+		List<Format> selected = Arrays.asList(formats);
+		List<Input> result = new ArrayList<>();
+		for (Input input : inputs)
+			if (selected.contains(input.format))
+				result.add(input);
+		return result;
+	}
+
+	/**
+	 * Transformation of a file, or of a chunk of a file, into its own buffer
+	 */
+	static class Task
+	{
+		final long size;
+		final Callable<AxiomBuffer> work;
+
+		Task(long size, Callable<AxiomBuffer> work)
 		{
-			// if the file is a directory, list the files and extract and transform the csv
-			// ones
-			if (f.isDirectory())
+			this.size = size;
+			this.work = work;
+		}
+	}
+
+	/**
+	 * Returns the tasks transforming the files. If chunkTransform is given, files
+	 * larger than chunkSize are split into chunks (see {@link CsvChunks}), and
+	 * each chunk is a task; the tasks are in the order of the files and of the
+	 * records in them.
+	 */
+	private static List<Task> tasks(List<Input> inputs, FileTransform transform, ChunkTransform chunkTransform,
+			long chunkSize) throws IOException
+	{
+		List<Task> tasks = new ArrayList<>();
+		for (Input input : inputs)
+		{
+			File f = input.file;
+			if (chunkTransform != null && chunkSize > 0 && input.size > chunkSize)
 			{
-				for (File f2 : f.listFiles())
+				CsvChunks chunks = CsvChunks.split(f, chunkSize);
+				LOGGER.info("Split " + f.getName() + " into " + chunks.size() + " chunks");
+				for (int i = 0; i < chunks.size(); i++)
 				{
-					if (f2.getName().endsWith(".csv"))
-					UnespExtractTransform.extractTransformUNESP(f2, ontology);
+					int chunk = i;
+					tasks.add(new Task(chunks.length(chunk),
+							() -> collect(f.getName() + " [" + (chunk + 1) + "/" + chunks.size() + "]",
+									chunks.length(chunk), () -> chunkTransform.apply(chunks, chunk, null))));
 				}
-			} else if (f.getName().endsWith(".csv"))
-			UnespExtractTransform.extractTransformUNESP(f, ontology);
+			} else
+				tasks.add(new Task(input.size, () -> collect(f, transform)));
 		}
+		return tasks;
+	}
 
-		LOGGER.info("Saving extracted and transformed data points...");
-		// serialize the ttl file again, for later loading into triple store
-		Load.save(ontology,args[1]);
+	/**
+	 * Runs tasks in a pool keeping at most a given number of them submitted but
+	 * not yet taken, so that the buffers of the tasks that finish before an
+	 * earlier one is taken do not grow with the input. The results are taken in
+	 * the order of the tasks, to be added to the output in that order.
+	 */
+	static class TaskWindow
+	{
+		private final ExecutorService pool;
+		private final List<Task> tasks;
+		private final Deque<Future<AxiomBuffer>> submitted = new ArrayDeque<>();
+		private int next;
 
-		LOGGER.info("Saved extracted and transformed data points.");
+		/**
+		 * Submits the first tasks (up to limit) from the largest to the smallest,
+		 * so that a large one started last does not leave the other threads idle
+		 */
+		TaskWindow(ExecutorService pool, List<Task> tasks, int limit)
+		{
+			this.pool = pool;
+			this.tasks = tasks;
+			next = Math.min(limit, tasks.size());
+			Integer[] order = new Integer[next];
+			for (int i = 0; i < order.length; i++)
+				order[i] = i;
+			Arrays.sort(order, Comparator.comparingLong((Integer i) -> tasks.get(i).size).reversed()
+					.thenComparing(i -> i));
+			@SuppressWarnings("unchecked")
+			Future<AxiomBuffer>[] futures = new Future[next];
+			for (int i : order)
+				futures[i] = pool.submit(tasks.get(i).work);
+			submitted.addAll(Arrays.asList(futures));
+		}
+
+		/**
+		 * Waits for the result of the next task and then submits another one.
+		 */
+		AxiomBuffer take() throws IOException, ParseException
+		{
+			Future<AxiomBuffer> head = submitted.remove();
+			AxiomBuffer buffer;
+			try
+			{
+				buffer = await(head);
+			} catch (ExecutionException e)
+			{
+				Throwable cause = e.getCause();
+				if (cause instanceof IOException)
+					throw (IOException) cause;
+				if (cause instanceof ParseException)
+					throw (ParseException) cause;
+				if (cause instanceof RuntimeException)
+					throw (RuntimeException) cause;
+				throw new IllegalStateException(cause);
+			}
+			if (next < tasks.size())
+				submitted.add(pool.submit(tasks.get(next++).work));
+			return buffer;
+		}
+	}
+
+	/**
+	 * Transforms the file in the current thread. Unless streaming, the axioms of
+	 * the whole file are collected and added to the output as a single change.
+	 */
+	private static void transform(File file, FileTransform transform, Output output)
+			throws IOException, ParseException, OWLOntologyCreationException, OWLOntologyStorageException
+	{
+		if (output.options.stream)
+		{
+			OWLOntology ontology = output.ontology();
+			run(file.getName(), file.length(), () -> transform.apply(file, ontology));
+		} else
+			output.add(collect(file, transform));
+	}
+
+	/**
+	 * Adds the sampling sites of an UNESP points file to the output. They are
+	 * needed by the UNESP data files, so they are not collected.
+	 */
+	private static void transformUnespPoints(File file, Output output)
+			throws IOException, ParseException, OWLOntologyCreationException, OWLOntologyStorageException
+	{
+		OWLOntology ontology = output.ontology();
+		run(file.getName(), file.length(),
+				() -> UnespExtractTransform.extractTransformGeographicPointsUNESP(file.getPath(), ontology));
+	}
+
+	/**
+	 * Transforms the file collecting its axioms in a new buffer. The ontology is
+	 * not needed while collecting, so this can run before it is loaded.
+	 */
+	private static AxiomBuffer collect(File file, FileTransform transform) throws IOException, ParseException
+	{
+		return collect(file.getName(), file.length(), () -> transform.apply(file, null));
+	}
+
+	/**
+	 * Runs the transformation of a file or chunk collecting its axioms in a new
+	 * buffer. The file is done, and its counters added to the totals, once the
+	 * buffer is added to the output and its measurements are created (see
+	 * {@link EtlMetrics}).
+	 */
+	private static AxiomBuffer collect(String name, long bytes, Transformation transformation)
+			throws IOException, ParseException
+	{
+		AxiomBuffer buffer = new AxiomBuffer();
+		EtlMetrics.FileMetrics metrics = EtlMetrics.startFile(name, bytes);
+		buffer.setMetrics(metrics);
+		Load.collectInto(buffer);
+		boolean transformed = false;
+		try
+		{
+			transformation.run();
+			transformed = true;
+		} finally
+		{
+			Load.stopCollecting();
+			if (transformed)
+				EtlMetrics.transformed(metrics);
+			else
+				EtlMetrics.endFile(metrics);
+		}
+		return buffer;
+	}
 
+	/**
+	 * Runs the transformation of a file or chunk counting its rows, cells and
+	 * measurements (see {@link EtlMetrics}).
+	 */
+	private static void run(String name, long bytes, Transformation transformation)
+			throws IOException, ParseException
+	{
+		EtlMetrics.FileMetrics metrics = EtlMetrics.startFile(name, bytes);
+		try
+		{
+			transformation.run();
+		} finally
+		{
+			EtlMetrics.endFile(metrics);
+		}
 	}
 
+	/**
+	 * Adds the results of the next count tasks of the window to the output, in
+	 * the order of the files, as soon as each one is ready.
+	 */
+	private static void merge(TaskWindow window, int count, Output output)
+			throws IOException, ParseException, OWLOntologyCreationException, OWLOntologyStorageException
+	{
+		for (int i = 0; i < count; i++)
+			output.add(window.take());
+	}
+
+	private static <T> T await(Future<T> future) throws InterruptedIOException, ExecutionException
+	{
+		try
+		{
+			return future.get();
+		} catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for " + future);
+		}
+	}
+
+	/**
+	 * Destination of the transformed data. The doce ontology is loaded in the
+	 * background: buffers produced until it is available are kept, and added
+	 * once it is needed or ready.
+	 */
+	private static class Output
+	{
+		private final Future<OWLOntology> doce;
+		private final Options options;
+		private final List<AxiomBuffer> pending = new ArrayList<>();
+		private OWLOntology ontology;
+
+		Output(Future<OWLOntology> doce, Options options)
+		{
+			this.doce = doce;
+			this.options = options;
+		}
+
+		/**
+		 * Returns the doce ontology, waiting for it to be loaded if needed.
+		 */
+		OWLOntology ontology() throws IOException, OWLOntologyCreationException, OWLOntologyStorageException
+		{
+			if (ontology != null)
+				return ontology;
+			try
+			{
+				ontology = await(doce);
+			} catch (ExecutionException e)
+			{
+				Throwable cause = e.getCause();
+				if (cause instanceof OWLOntologyCreationException)
+					throw (OWLOntologyCreationException) cause;
+				if (cause instanceof RuntimeException)
+					throw (RuntimeException) cause;
+				throw new IllegalStateException(cause);
+			}
+			if (!options.dataOnly)
+				LOGGER.info("Loaded doce ontology.");
+
+			if (options.sparqlEndpoint != null)
+				Load.openSparqlSink(ontology, options.sparqlEndpoint, options.sparqlGraph);
+			else if (options.incrementalState != null)
+				Load.openIncrementalSink(options.incrementalState, options.outputFile);
+			else if (options.stream)
+				Load.openSink(ontology, options.outputFile,
+						options.format != null ? options.format : OutputFormat.TURTLE);
+			for (AxiomBuffer buffer : pending)
+				addAll(buffer);
+			pending.clear();
+			return ontology;
+		}
+
+		void add(AxiomBuffer buffer) throws IOException, OWLOntologyCreationException, OWLOntologyStorageException
+		{
+			if (ontology == null && !doce.isDone())
+				pending.add(buffer);
+			else
+				addAll(buffer);
+		}
+
+		private void addAll(AxiomBuffer buffer)
+				throws IOException, OWLOntologyCreationException, OWLOntologyStorageException
+		{
+			OWLOntology ontology = ontology();
+			long start = System.nanoTime();
+			Load.addAll(ontology, buffer);
+			EtlMetrics.addTime(EtlMetrics.Stage.LOAD, System.nanoTime() - start);
+			if (buffer.getMetrics() != null)
+				EtlMetrics.endFile(buffer.getMetrics());
+		}
+	}
 
 }
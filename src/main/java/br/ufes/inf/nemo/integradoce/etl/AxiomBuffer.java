@@ -0,0 +1,123 @@
+package br.ufes.inf.nemo.integradoce.etl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.semanticweb.owlapi.model.OWLAxiom;
+
+/**
+ * Holds the axioms produced while transforming one input file, so that files
+ * can be transformed concurrently and their results added to the ontology (or
+ * written out) afterwards, in a fixed order.
+ *
+ * A buffer is meant to be filled by a single thread (see
+ * {@link Load#collectInto(AxiomBuffer)}).
+ */
+public class AxiomBuffer {
+
+    private final List<OWLAxiom> axioms = new ArrayList<>();
+
+    /**
+     * Index following the last axiom of each record (see
+     * {@link #addAll(Collection)})
+     */
+    private int[] recordEnds = new int[64];
+    private int records = 0;
+
+    /**
+     * Records that are buffers of measurements, by record index (see
+     * {@link #addMeasurements(MeasurementBuffer)})
+     */
+    private final Map<Integer, MeasurementBuffer> measurements = new HashMap<>();
+
+    /**
+     * Counters of the file the axioms come from, into which the measurements
+     * are counted when they are created (see {@link EtlMetrics}), or null
+     */
+    private EtlMetrics.FileMetrics metrics;
+
+    public void add(OWLAxiom axiom) {
+        addAll(Collections.singletonList(axiom));
+    }
+
+    /**
+     * Adds the axioms of one record (e.g. a measurement or a geographic point).
+     * 
+     * @param axioms
+     */
+    public void addAll(Collection<? extends OWLAxiom> axioms) {
+        this.axioms.addAll(axioms);
+        if (records == recordEnds.length)
+            recordEnds = Arrays.copyOf(recordEnds, records * 2);
+        recordEnds[records++] = this.axioms.size();
+    }
+
+    /**
+     * Adds a buffer of measurements as one record, whose axioms are created
+     * when the buffer is added to the output (see
+     * {@link Load#addAll(org.semanticweb.owlapi.model.OWLOntology, AxiomBuffer)}),
+     * so that they are not held in memory until then.
+     * 
+     * @param buffer
+     */
+    public void addMeasurements(MeasurementBuffer buffer) {
+        measurements.put(records, buffer);
+        addAll(Collections.<OWLAxiom>emptyList());
+    }
+
+    /**
+     * Returns the measurements of the record (in the order of
+     * {@link #getRecords()}, which has no axioms for it), or null if it is not a
+     * buffer of measurements
+     */
+    public MeasurementBuffer getMeasurements(int record) {
+        return measurements.get(record);
+    }
+
+    public EtlMetrics.FileMetrics getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(EtlMetrics.FileMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Number of records
+     */
+    public int records() {
+        return records;
+    }
+
+    public List<OWLAxiom> getAxioms() {
+        return Collections.unmodifiableList(axioms);
+    }
+
+    /**
+     * Returns the axioms of each record, in the order they were added.
+     * 
+     * @return
+     */
+    public List<List<OWLAxiom>> getRecords() {
+        List<List<OWLAxiom>> result = new ArrayList<>(records);
+        int start = 0;
+        for (int i = 0; i < records; i++) {
+            result.add(getAxioms().subList(start, recordEnds[i]));
+            start = recordEnds[i];
+        }
+        return result;
+    }
+
+    /**
+     * Number of axioms, without those of buffers of measurements
+     */
+    public int size() {
+        return axioms.size();
+    }
+
+}
@@ -0,0 +1,196 @@
+package br.ufes.inf.nemo.integradoce.etl;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.csv.CSVParser;
+
+/**
+ * A large CSV file split into chunks of whole records, so that the chunks can
+ * be transformed concurrently. Every chunk is parsed with the header of the
+ * file.
+ *
+ * The boundaries are found in one sequential pass over the bytes of the file,
+ * which keeps track of quoted fields, so that a line break or a ';' inside
+ * quotes (escaped quotes are doubled) is never taken as the end of a record.
+ * The quote, the delimiter and the line break are single bytes in the
+ * encodings of the input files, and never occur inside a multi-byte
+ * character.
+ */
+class CsvChunks {
+
+    private static final int SCAN_BUFFER_SIZE = 1 << 20;
+
+    private final File file;
+    private final String[] header;
+
+    /**
+     * Start of each chunk, followed by the end of the last one
+     */
+    private final long[] bounds;
+
+    private CsvChunks(File file, String[] header, long[] bounds) {
+        this.file = file;
+        this.header = header;
+        this.bounds = bounds;
+    }
+
+    /**
+     * Splits the records after the header of the file into chunks of about
+     * chunkSize bytes (a chunk ends at the first record end after chunkSize
+     * bytes).
+     *
+     * @param file
+     * @param chunkSize
+     * @return
+     * @throws IOException
+     */
+    static CsvChunks split(File file, long chunkSize) throws IOException {
+        List<Long> bounds = new ArrayList<>();
+        long headerEnd = -1;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+            boolean quoted = false;
+            long position = 0, next = 0;
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                byte[] bytes = buffer.array();
+                int limit = buffer.limit();
+                for (int i = 0; i < limit; i++) {
+                    byte b = bytes[i];
+                    if (b == '"')
+                        quoted = !quoted;
+                    else if (b == '\n' && !quoted && position + i >= next) {
+                        // the record ends after the line break
+                        long end = position + i + 1;
+                        if (headerEnd < 0)
+                            headerEnd = end;
+                        bounds.add(end);
+                        next = end + chunkSize;
+                    }
+                }
+                position += limit;
+                buffer.clear();
+            }
+            if (headerEnd < 0)
+                throw new IOException("No header in " + file);
+            if (bounds.get(bounds.size() - 1) < position)
+                bounds.add(position);
+        }
+        long[] result = new long[bounds.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = bounds.get(i);
+
+        try (Reader in = reader(file, 0, headerEnd);
+                CSVParser parser = CsvInput.FORMAT.withFirstRecordAsHeader().parse(in)) {
+            return new CsvChunks(file, parser.getHeaderNames().toArray(new String[0]), result);
+        }
+    }
+
+    /**
+     * Number of chunks
+     */
+    int size() {
+        return bounds.length - 1;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * Names of the columns in the header of the file
+     */
+    String[] getHeader() {
+        return header.clone();
+    }
+
+    /**
+     * Size of the chunk in bytes
+     */
+    long length(int chunk) {
+        return bounds[chunk + 1] - bounds[chunk];
+    }
+
+    /**
+     * Returns a parser of the records of the chunk, with the header of the file.
+     * The parser must be closed.
+     */
+    CSVParser parse(int chunk) throws IOException {
+        return CsvInput.FORMAT.withHeader(header).parse(reader(file, bounds[chunk], bounds[chunk + 1]));
+    }
+
+    /**
+     * Reader of the bytes of the file from start to end (see
+     * {@link CsvInput#reader(InputStream)})
+     */
+    private static Reader reader(File file, long start, long end) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            channel.position(start);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return CsvInput.reader(new Range(Channels.newInputStream(channel), end - start));
+    }
+
+    /**
+     * Stream of the next bytes of another stream, up to a limit
+     */
+    private static class Range extends FilterInputStream {
+
+        private long remaining;
+
+        Range(InputStream in, long length) {
+            super(in);
+            remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0)
+                return -1;
+            int b = super.read();
+            if (b >= 0)
+                remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0)
+                return -1;
+            int n = super.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0)
+                remaining -= n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), remaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package br.ufes.inf.nemo.integradoce.etl;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+
+/**
+ * How the input CSV files are read: ';'-delimited, decoded with the platform
+ * charset (as by {@link java.io.FileReader}), through one buffered stream.
+ */
+final class CsvInput {
+
+    static final CSVFormat FORMAT = CSVFormat.EXCEL.withDelimiter(';');
+
+    static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Opens the bytes of an input file
+     */
+    interface Source {
+        InputStream open(File file) throws IOException;
+    }
+
+    /**
+     * Where {@link #open(File)} reads the files from (replaced by tests that
+     * watch the files opened and closed)
+     */
+    static Source source = FileInputStream::new;
+
+    private CsvInput() {
+    }
+
+    /**
+     * Opens a file for a single sequential pass: the header is parsed from the
+     * first record, so the format of the file can be detected from
+     * {@link CSVParser#getHeaderMap()} before the records are read. The parser
+     * must be closed (which closes the file).
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    static CSVParser open(File file) throws IOException {
+        Reader in = reader(source.open(file));
+        try {
+            return FORMAT.withFirstRecordAsHeader().parse(in);
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Buffered reader of the bytes of an input file
+     */
+    static Reader reader(InputStream in) {
+        return new BufferedReader(new InputStreamReader(in, Charset.defaultCharset()), BUFFER_SIZE);
+    }
+}
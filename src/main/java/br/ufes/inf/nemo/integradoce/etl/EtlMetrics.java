@@ -0,0 +1,402 @@
+package br.ufes.inf.nemo.integradoce.etl;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters of the rows, cells, measurements and axioms of each input file and
+ * of the whole run, and the time spent in each stage.
+ *
+ * The extract and transform code counts into the {@link FileMetrics} of the
+ * file being transformed by the current thread (see {@link #current()}), which
+ * is added to the totals when the file is done. The measurements collected
+ * from a file (see {@link AxiomBuffer}) are counted when they are created, as
+ * the buffer is added to the output, so the file is done only then. Problems
+ * found in many cells
+ * (e.g. accepted cells without a value) are counted, and only a few examples
+ * are logged per file.
+ */
+public final class EtlMetrics {
+
+    public static final String OBJECT_NAME = "br.ufes.inf.nemo.integradoce.etl:type=EtlMetrics";
+
+    /**
+     * Number of examples of each problem logged per file
+     */
+    static final int EXAMPLES = 3;
+
+    /**
+     * Stages of a run whose time is measured
+     */
+    public enum Stage {
+        TRANSFORM, LOAD, SAVE
+    }
+
+    private static final LongAdder files = new LongAdder();
+    private static final LongAdder rows = new LongAdder();
+    private static final LongAdder cells = new LongAdder();
+    private static final LongAdder rejectedCells = new LongAdder();
+    private static final LongAdder emptyCells = new LongAdder();
+    private static final LongAdder measurements = new LongAdder();
+    private static final LongAdder axioms = new LongAdder();
+    private static final LongAdder duplicates = new LongAdder();
+    private static final LongAdder unknownPoints = new LongAdder();
+    private static final LongAdder bytes = new LongAdder();
+    private static final LongAdder[] stageNanos = new LongAdder[Stage.values().length];
+
+    private static final Set<FileMetrics> inProgress = ConcurrentHashMap.newKeySet();
+
+    private static final ThreadLocal<FileMetrics> currentFile = new ThreadLocal<>();
+
+    private static volatile long startNanos = System.nanoTime();
+
+    private final static Logger LOGGER = Logger.getLogger("ETL");
+
+    static {
+        for (int i = 0; i < stageNanos.length; i++)
+            stageNanos[i] = new LongAdder();
+    }
+
+    private EtlMetrics() {
+    }
+
+    /**
+     * Counters of one input file. Only the thread transforming the file updates
+     * them; other threads (the MXBean) may read slightly outdated values.
+     */
+    public static final class FileMetrics {
+
+        private final String name;
+        private final long startNanos = System.nanoTime();
+        /**
+         * Time spent transforming the file, if it ended before the file was done
+         * (see {@link EtlMetrics#transformed(FileMetrics)}), or -1
+         */
+        private long transformNanos = -1;
+        private long rows, cells, rejectedCells, emptyCells, measurements, axioms, bytes;
+        private final List<String> emptyExamples = new ArrayList<>(EXAMPLES);
+
+        FileMetrics(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Counts a row read from the file
+         */
+        public void row() {
+            rows++;
+        }
+
+        /**
+         * Counts a value cell examined
+         */
+        public void cell() {
+            cells++;
+        }
+
+        /**
+         * Counts a value cell rejected because of its status
+         */
+        public void rejected() {
+            rejectedCells++;
+        }
+
+        /**
+         * Counts a value cell without a value, keeping the first few examples
+         *
+         * @param example description of the cell (e.g. its quality kind and
+         *                status)
+         */
+        public void empty(String example) {
+            if (emptyCells++ < EXAMPLES)
+                emptyExamples.add(example);
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        public long getCells() {
+            return cells;
+        }
+
+        public long getRejectedCells() {
+            return rejectedCells;
+        }
+
+        public long getEmptyCells() {
+            return emptyCells;
+        }
+
+        public long getMeasurements() {
+            return measurements;
+        }
+
+        public long getAxioms() {
+            return axioms;
+        }
+    }
+
+    /**
+     * Registers the platform MXBean with the counters of the run (see
+     * {@link EtlMetricsMXBean}), and restarts the clock of the run.
+     */
+    public static void register() {
+        startNanos = System.nanoTime();
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name))
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new Bean(), name);
+        } catch (JMException e) {
+            LOGGER.warning("Could not register " + OBJECT_NAME + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Starts counting for a file transformed by the current thread.
+     *
+     * @param file
+     * @return the counters of the file
+     */
+    public static FileMetrics startFile(File file) {
+        return startFile(file.getName(), file.length());
+    }
+
+    /**
+     * Starts counting for a file, or a part of a file, transformed by the
+     * current thread.
+     *
+     * @param name  name of the file (or part) in the log
+     * @param bytes size of the file (or part)
+     * @return the counters of the file
+     */
+    public static FileMetrics startFile(String name, long bytes) {
+        FileMetrics metrics = new FileMetrics(name);
+        metrics.bytes = bytes;
+        currentFile.set(metrics);
+        inProgress.add(metrics);
+        return metrics;
+    }
+
+    /**
+     * Ends the transformation of a file whose measurements are collected, and
+     * created later (see {@link Load#addAll(org.semanticweb.owlapi.model.OWLOntology, AxiomBuffer)}).
+     * The current thread stops counting into the file, which is done once
+     * {@link #endFile(FileMetrics)} is called after its buffer is added.
+     *
+     * @param metrics as returned by {@link #startFile(String, long)}
+     */
+    public static void transformed(FileMetrics metrics) {
+        metrics.transformNanos = System.nanoTime() - metrics.startNanos;
+        if (currentFile.get() == metrics)
+            currentFile.remove();
+    }
+
+    /**
+     * Adds the counters of the file to the totals and logs them, with examples of
+     * the problems found in it.
+     *
+     * @param metrics as returned by {@link #startFile(String, long)}
+     */
+    public static void endFile(FileMetrics metrics) {
+        long nanos = metrics.transformNanos >= 0 ? metrics.transformNanos : System.nanoTime() - metrics.startNanos;
+        if (currentFile.get() == metrics)
+            currentFile.remove();
+        files.increment();
+        rows.add(metrics.rows);
+        cells.add(metrics.cells);
+        rejectedCells.add(metrics.rejectedCells);
+        emptyCells.add(metrics.emptyCells);
+        measurements.add(metrics.measurements);
+        axioms.add(metrics.axioms);
+        bytes.add(metrics.bytes);
+        stageNanos[Stage.TRANSFORM.ordinal()].add(nanos);
+        inProgress.remove(metrics);
+
+        LOGGER.info("Transformed " + metrics.name + " in " + TimeUnit.NANOSECONDS.toMillis(nanos) + " ms: "
+                + metrics.rows + " rows, " + metrics.cells + " cells (" + metrics.rejectedCells
+                + " rejected by status, " + metrics.emptyCells + " empty), " + metrics.measurements
+                + " measurements, " + metrics.axioms + " axioms, " + metrics.bytes / 1024 + " KB");
+        if (metrics.emptyCells > 0)
+            LOGGER.warning(metrics.emptyCells + " cells of " + metrics.name
+                    + " are accepted but have no value, e.g. " + String.join("; ", metrics.emptyExamples));
+    }
+
+    /**
+     * Returns the counters of the file being transformed by the current thread,
+     * or new counters that are not added to the totals if there is none (e.g.
+     * when a file is transformed outside {@link App}).
+     */
+    public static FileMetrics current() {
+        FileMetrics metrics = currentFile.get();
+        return metrics != null ? metrics : new FileMetrics("");
+    }
+
+    /**
+     * Counts a measurement of the file being transformed by the current thread
+     *
+     * @param axiomCount axioms of the measurement
+     */
+    static void measurementEmitted(int axiomCount) {
+        FileMetrics metrics = currentFile.get();
+        if (metrics != null) {
+            metrics.measurements++;
+            metrics.axioms += axiomCount;
+        }
+    }
+
+    /**
+     * Makes the current thread count into the counters of a file, e.g. while
+     * creating the measurements collected from it.
+     *
+     * @param metrics counters of the file, or null to stop counting
+     * @return the counters the thread was counting into, or null
+     */
+    static FileMetrics attach(FileMetrics metrics) {
+        FileMetrics previous = currentFile.get();
+        if (metrics != null)
+            currentFile.set(metrics);
+        else
+            currentFile.remove();
+        return previous;
+    }
+
+    /**
+     * Counts a measurement left out as a duplicate (see
+     * {@link Load#setDeduplication(boolean)})
+     */
+    static void duplicateRemoved() {
+        duplicates.increment();
+    }
+
+    /**
+     * Counts a measurement at a geographic point that was not added (see
+     * {@link GeoPointIndex})
+     */
+    static void unknownPointFound() {
+        unknownPoints.increment();
+    }
+
+    /**
+     * Adds time spent in a stage
+     */
+    public static void addTime(Stage stage, long nanos) {
+        stageNanos[stage.ordinal()].add(nanos);
+    }
+
+    /**
+     * Logs the totals of the run, with the time of each stage and the
+     * throughput.
+     */
+    public static void logSummary() {
+        Bean totals = new Bean();
+        double seconds = totals.getElapsedMillis() / 1000.0;
+        LOGGER.info(String.format(
+                "Run summary: %d files, %d rows, %d cells (%d rejected by status, %d empty), %d measurements"
+                        + " (%d duplicates left out, %d at unknown points), %d axioms, %.1f MB read in %.1f s (%.0f measurements/s, %.1f MB/s);"
+                        + " transform %d ms (all threads), load %d ms, save %d ms",
+                totals.getFilesProcessed(), totals.getRowsRead(), totals.getCellsExamined(),
+                totals.getCellsRejectedByStatus(), totals.getEmptyCells(), totals.getMeasurements(),
+                totals.getDuplicateMeasurements(), totals.getMeasurementsAtUnknownPoints(), totals.getAxioms(), totals.getBytesRead() / 1048576.0, seconds,
+                totals.getMeasurementsPerSecond(), seconds > 0 ? totals.getBytesRead() / 1048576.0 / seconds : 0,
+                totals.getTransformMillis(), totals.getLoadMillis(), totals.getSaveMillis()));
+    }
+
+    private static long millis(Stage stage) {
+        return TimeUnit.NANOSECONDS.toMillis(stageNanos[stage.ordinal()].sum());
+    }
+
+    private static class Bean implements EtlMetricsMXBean {
+
+        @Override
+        public long getFilesProcessed() {
+            return files.sum();
+        }
+
+        @Override
+        public String[] getFilesInProgress() {
+            return inProgress.stream().map(m -> m.name).sorted().toArray(String[]::new);
+        }
+
+        @Override
+        public long getRowsRead() {
+            return rows.sum() + inProgress.stream().mapToLong(m -> m.rows).sum();
+        }
+
+        @Override
+        public long getCellsExamined() {
+            return cells.sum() + inProgress.stream().mapToLong(m -> m.cells).sum();
+        }
+
+        @Override
+        public long getCellsRejectedByStatus() {
+            return rejectedCells.sum() + inProgress.stream().mapToLong(m -> m.rejectedCells).sum();
+        }
+
+        @Override
+        public long getEmptyCells() {
+            return emptyCells.sum() + inProgress.stream().mapToLong(m -> m.emptyCells).sum();
+        }
+
+        @Override
+        public long getMeasurements() {
+            return measurements.sum() + inProgress.stream().mapToLong(m -> m.measurements).sum();
+        }
+
+        @Override
+        public long getDuplicateMeasurements() {
+            return duplicates.sum();
+        }
+
+        @Override
+        public long getMeasurementsAtUnknownPoints() {
+            return unknownPoints.sum();
+        }
+
+        @Override
+        public long getAxioms() {
+            return axioms.sum() + inProgress.stream().mapToLong(m -> m.axioms).sum();
+        }
+
+        @Override
+        public long getBytesRead() {
+            return bytes.sum() + inProgress.stream().mapToLong(m -> m.bytes).sum();
+        }
+
+        @Override
+        public long getTransformMillis() {
+            return millis(Stage.TRANSFORM);
+        }
+
+        @Override
+        public long getLoadMillis() {
+            return millis(Stage.LOAD);
+        }
+
+        @Override
+        public long getSaveMillis() {
+            return millis(Stage.SAVE);
+        }
+
+        @Override
+        public long getElapsedMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        }
+
+        @Override
+        public double getMeasurementsPerSecond() {
+            long elapsed = getElapsedMillis();
+            return elapsed > 0 ? getMeasurements() * 1000.0 / elapsed : 0;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package br.ufes.inf.nemo.integradoce.etl;
+
+/**
+ * Counters of a run, exposed over JMX as
+ * {@value EtlMetrics#OBJECT_NAME} (see {@link EtlMetrics}). The counts include
+ * the files still being transformed.
+ */
+public interface EtlMetricsMXBean {
+
+    long getFilesProcessed();
+
+    /**
+     * Names of the files being transformed
+     */
+    String[] getFilesInProgress();
+
+    long getRowsRead();
+
+    long getCellsExamined();
+
+    /**
+     * Value cells whose status column has a status other than 1, 4 or 5
+     */
+    long getCellsRejectedByStatus();
+
+    /**
+     * Value cells that are accepted (or have no status) but have no value
+     */
+    long getEmptyCells();
+
+    long getMeasurements();
+
+    /**
+     * Measurements left out because they were added before (from another file,
+     * or earlier in the same file)
+     */
+    long getDuplicateMeasurements();
+
+    /**
+     * Measurements at a geographic point that is not in any geographic points
+     * file
+     */
+    long getMeasurementsAtUnknownPoints();
+
+    long getAxioms();
+
+    long getBytesRead();
+
+    /**
+     * Time spent extracting and transforming files, summed over the threads
+     */
+    long getTransformMillis();
+
+    /**
+     * Time spent adding transformed files to the ontology or output
+     */
+    long getLoadMillis();
+
+    long getSaveMillis();
+
+    long getElapsedMillis();
+
+    double getMeasurementsPerSecond();
+}
@@ -0,0 +1,226 @@
+package br.ufes.inf.nemo.integradoce.etl;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Index of the geographic points added (see
+ * {@link Load#addGeographicPoint(org.semanticweb.owlapi.model.OWLOntology, String, float, float, String, String)}),
+ * by code (e.g. ":RCA-01") and by location.
+ *
+ * Looking up a code takes a hash lookup, so the point of every measurement
+ * can be checked as it is added. The locations are kept in a grid of cells of
+ * {@link #CELL_DEGREES} degrees of latitude and longitude: the nearest point
+ * to a location is searched in rings of cells around it, stopping as soon as
+ * no cell further out can have a nearer point, and the points within a radius
+ * are searched in the cells the radius covers. Distances are great-circle
+ * distances in kilometres.
+ */
+final class GeoPointIndex {
+
+    static final double CELL_DEGREES = 0.1;
+
+    private static final double EARTH_RADIUS_KM = 6371.0088;
+
+    /**
+     * A geographic point and its location in degrees
+     */
+    static final class Point {
+
+        final String code;
+        final double lat, lon;
+
+        /**
+         * Whether the point has been linked to its nearest station (see
+         * {@link Load#linkNearestStations(org.semanticweb.owlapi.model.OWLOntology, String)});
+         * a point added again with the same code is a new point, not linked
+         */
+        volatile boolean linked = false;
+
+        private Point(String code, double lat, double lon) {
+            this.code = code;
+            this.lat = lat;
+            this.lon = lon;
+        }
+
+        @Override
+        public String toString() {
+            return code + " (" + lat + ", " + lon + ")";
+        }
+    }
+
+    private final Map<String, Point> points = new ConcurrentHashMap<>();
+
+    /**
+     * Points by cell (see {@link #cell(int, int)})
+     */
+    private final Map<Long, List<Point>> cells = new HashMap<>();
+
+    /**
+     * Rows and columns of the cells with points
+     */
+    private int minRow = Integer.MAX_VALUE, maxRow = Integer.MIN_VALUE, minColumn = Integer.MAX_VALUE,
+            maxColumn = Integer.MIN_VALUE;
+
+    /**
+     * Adds a point, replacing the location of a point with the same code
+     */
+    synchronized void add(String code, double lat, double lon) {
+        Point point = new Point(code, lat, lon);
+        Point old = points.put(code, point);
+        if (old != null)
+            cells.get(cell(row(old.lat), column(old.lon))).remove(old);
+        int row = row(lat), column = column(lon);
+        cells.computeIfAbsent(cell(row, column), c -> new ArrayList<>(4)).add(point);
+        minRow = Math.min(minRow, row);
+        maxRow = Math.max(maxRow, row);
+        minColumn = Math.min(minColumn, column);
+        maxColumn = Math.max(maxColumn, column);
+    }
+
+    boolean contains(String code) {
+        return points.containsKey(code);
+    }
+
+    /**
+     * The point with the given code, or null
+     */
+    Point get(String code) {
+        return points.get(code);
+    }
+
+    int size() {
+        return points.size();
+    }
+
+    /**
+     * Returns the points with a code matching the filter, in no particular
+     * order
+     */
+    List<Point> points(Predicate<String> filter) {
+        List<Point> result = new ArrayList<>();
+        for (Point point : points.values())
+            if (filter.test(point.code))
+                result.add(point);
+        return result;
+    }
+
+    /**
+     * Returns the point nearest to a location among those with a code matching
+     * the filter and within maxKm of it, or null if there is none (ties are
+     * broken by code).
+     */
+    synchronized Point nearest(double lat, double lon, double maxKm, Predicate<String> filter) {
+        if (cells.isEmpty())
+            return null;
+        int row = row(lat), column = column(lon);
+        // rings beyond the farthest cell with points are empty
+        int rings = Math.max(Math.max(row - minRow, maxRow - row), Math.max(column - minColumn, maxColumn - column));
+        Point best = null;
+        double bestKm = maxKm;
+        for (int ring = 0; ring <= rings; ring++) {
+            // any point in this ring or further out is at least this far
+            if (ring > 0 && minDistanceKm(lat, ring - 1) > bestKm)
+                break;
+            for (int r = row - ring; r <= row + ring; r++) {
+                // only the border of the ring
+                int step = r == row - ring || r == row + ring ? 1 : Math.max(1, 2 * ring);
+                for (int c = column - ring; c <= column + ring; c += step) {
+                    List<Point> cell = cells.get(cell(r, c));
+                    if (cell == null)
+                        continue;
+                    for (Point point : cell) {
+                        if (!filter.test(point.code))
+                            continue;
+                        double km = distanceKm(lat, lon, point.lat, point.lon);
+                        if (km < bestKm || km == bestKm && (best == null || point.code.compareTo(best.code) < 0)) {
+                            best = point;
+                            bestKm = km;
+                        }
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the points within radiusKm of a location, from the nearest to the
+     * farthest.
+     */
+    synchronized List<Point> within(double lat, double lon, double radiusKm) {
+        List<Point> result = new ArrayList<>();
+        double latDegrees = Math.toDegrees(radiusKm / EARTH_RADIUS_KM);
+        double maxLat = Math.min(90, Math.abs(lat) + latDegrees);
+        double cos = Math.cos(Math.toRadians(maxLat));
+        // near the poles, the radius may cover all longitudes
+        double lonDegrees = cos > 0 ? latDegrees / cos : 360;
+        int fromRow = Math.max(minRow, row(lat - latDegrees)), toRow = Math.min(maxRow, row(lat + latDegrees));
+        int fromColumn = Math.max(minColumn, lonDegrees >= 180 ? minColumn : column(lon - lonDegrees));
+        int toColumn = Math.min(maxColumn, lonDegrees >= 180 ? maxColumn : column(lon + lonDegrees));
+        if ((long) (toRow - fromRow + 1) * (toColumn - fromColumn + 1) > cells.size()) {
+            // fewer cells with points than cells covered
+            for (List<Point> cell : cells.values())
+                addWithin(cell, lat, lon, radiusKm, result);
+        } else {
+            for (int r = fromRow; r <= toRow; r++)
+                for (int c = fromColumn; c <= toColumn; c++) {
+                    List<Point> cell = cells.get(cell(r, c));
+                    if (cell != null)
+                        addWithin(cell, lat, lon, radiusKm, result);
+                }
+        }
+        result.sort(Comparator.comparingDouble((Point p) -> distanceKm(lat, lon, p.lat, p.lon))
+                .thenComparing(p -> p.code));
+        return result;
+    }
+
+    private static void addWithin(List<Point> cell, double lat, double lon, double radiusKm, List<Point> result) {
+        for (Point point : cell)
+            if (distanceKm(lat, lon, point.lat, point.lon) <= radiusKm)
+                result.add(point);
+    }
+
+    /**
+     * Great-circle (haversine) distance between two locations, in kilometres
+     */
+    static double distanceKm(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1), dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2) + Math.cos(Math.toRadians(lat1))
+                * Math.cos(Math.toRadians(lat2)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    /**
+     * Lower bound of the distance from a location at the given latitude to any
+     * point more than the given number of cells away from its cell, in rows or
+     * columns: such a point is more than cells * {@link #CELL_DEGREES} away in
+     * latitude or, within that latitude, in longitude.
+     */
+    private static double minDistanceKm(double lat, int cells) {
+        double degrees = cells * CELL_DEGREES;
+        double byLat = Math.toRadians(degrees) * EARTH_RADIUS_KM;
+        // such a point is less than (cells + 1) cells away in latitude
+        double cos = Math.cos(Math.toRadians(Math.min(90, Math.abs(lat) + degrees + CELL_DEGREES)));
+        double byLon = 2 * EARTH_RADIUS_KM
+                * Math.asin(Math.min(1, cos * Math.sin(Math.toRadians(Math.min(180, degrees)) / 2)));
+        return Math.min(byLat, byLon);
+    }
+
+    private static int row(double lat) {
+        return (int) Math.floor(lat / CELL_DEGREES);
+    }
+
+    private static int column(double lon) {
+        return (int) Math.floor(lon / CELL_DEGREES);
+    }
+
+    private static long cell(int row, int column) {
+        return ((long) row << 32) | (column & 0xffffffffL);
+    }
+}
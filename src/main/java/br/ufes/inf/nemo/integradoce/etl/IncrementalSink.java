@@ -0,0 +1,385 @@
+package br.ufes.inf.nemo.integradoce.etl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.logging.Logger;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLClassAssertionAxiom;
+import org.semanticweb.owlapi.model.OWLPropertyAssertionAxiom;
+
+/**
+ * Writes only the changes since the previous run: the triples of new and
+ * changed records to an insert file, and the triples of removed and changed
+ * records to a delete file (both in N-Triples). The delete file is to be
+ * applied before the insert file.
+ *
+ * A record is the set of axioms added together (see
+ * {@link TripleSink#addAll(Collection)}): a measurement or a geographic point,
+ * identified by the IRI of its individual. Records are compared by a hash of
+ * their triples, so measurement IRIs must be derived from their content (see
+ * {@link Load#setContentDerivedIRIs(boolean)}).
+ *
+ * The state of the previous run is kept in a directory, with the triples of
+ * each record ({@value #SNAPSHOT}, gzipped N-Triples, each record preceded by
+ * a comment with its key and hash) and an index of the records by key
+ * ({@value #INDEX}). The keys and hashes of the records are kept in primitive
+ * arrays (see {@link RecordHashes}), without an object per record.
+ */
+public class IncrementalSink extends NTriplesSink {
+
+    static final String SNAPSHOT = "snapshot.nt.gz";
+    static final String INDEX = "index.bin";
+
+    private static final int INDEX_MAGIC = 0x49444f43;
+
+    private final static Logger LOGGER = Logger.getLogger("ETL");
+
+    /**
+     * Keys of records and their hashes, in two primitive arrays. Once sorted
+     * (see {@link #sort()}), each key is in it once, with the xor of the hashes
+     * added with it, and can be looked up by binary search.
+     */
+    static final class RecordHashes {
+
+        private long[] keys = new long[1024], hashes = new long[1024];
+        private int size = 0;
+
+        void add(long key, long hash) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                hashes = Arrays.copyOf(hashes, size * 2);
+            }
+            keys[size] = key;
+            hashes[size] = hash;
+            size++;
+        }
+
+        int size() {
+            return size;
+        }
+
+        long key(int i) {
+            return keys[i];
+        }
+
+        long hash(int i) {
+            return hashes[i];
+        }
+
+        /**
+         * Index of a key, or a negative number if it is not in the (sorted)
+         * records
+         */
+        int indexOf(long key) {
+            return Arrays.binarySearch(keys, 0, size, key);
+        }
+
+        /**
+         * Sorts the records by key, merging those with the same key.
+         */
+        void sort() {
+            sort(keys, hashes, 0, size);
+            int merged = 0;
+            for (int i = 0; i < size; i++) {
+                if (merged > 0 && keys[merged - 1] == keys[i]) {
+                    hashes[merged - 1] ^= hashes[i];
+                } else {
+                    keys[merged] = keys[i];
+                    hashes[merged] = hashes[i];
+                    merged++;
+                }
+            }
+            size = merged;
+        }
+
+        /**
+         * Sorts keys[from, to) and the hashes with them (quicksort, with
+         * insertion sort for short ranges)
+         */
+        private static void sort(long[] keys, long[] hashes, int from, int to) {
+            while (to - from > 16) {
+                long pivot = keys[(from + to) >>> 1];
+                int i = from, j = to - 1;
+                while (i <= j) {
+                    while (keys[i] < pivot)
+                        i++;
+                    while (keys[j] > pivot)
+                        j--;
+                    if (i <= j)
+                        swap(keys, hashes, i++, j--);
+                }
+                // recurse into the smaller part only
+                if (j + 1 - from < to - i) {
+                    sort(keys, hashes, from, j + 1);
+                    from = i;
+                } else {
+                    sort(keys, hashes, i, to);
+                    to = j + 1;
+                }
+            }
+            for (int i = from + 1; i < to; i++) {
+                for (int j = i; j > from && keys[j - 1] > keys[j]; j--)
+                    swap(keys, hashes, j - 1, j);
+            }
+        }
+
+        private static void swap(long[] keys, long[] hashes, int i, int j) {
+            long key = keys[i], hash = hashes[i];
+            keys[i] = keys[j];
+            hashes[i] = hashes[j];
+            keys[j] = key;
+            hashes[j] = hash;
+        }
+    }
+
+    private final File stateDir, insertFile, deleteFile;
+
+    /**
+     * Records of the previous run, sorted
+     */
+    private final RecordHashes previous;
+
+    /**
+     * Records of this run, sorted on closing. The hash of a record is the xor
+     * of the hashes of its distinct occurrences, as the same measurement may
+     * come from several files; the occurrences are told apart by their key and
+     * hash.
+     */
+    private final RecordHashes records = new RecordHashes();
+    private final MeasurementKeySet occurrences = new MeasurementKeySet();
+
+    /**
+     * N-Triples of the current record
+     */
+    private final StringWriter lines;
+
+    private final File newSnapshot;
+    private final Writer snapshot;
+    private final MessageDigest digest;
+
+    public IncrementalSink(File stateDir, File insertFile, File deleteFile) throws IOException {
+        this(new StringWriter(1024), stateDir, insertFile, deleteFile);
+    }
+
+    private IncrementalSink(StringWriter lines, File stateDir, File insertFile, File deleteFile) throws IOException {
+        super(lines);
+        this.lines = lines;
+        this.stateDir = stateDir;
+        this.insertFile = insertFile;
+        this.deleteFile = deleteFile;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        stateDir.mkdirs();
+        previous = readIndex();
+
+        newSnapshot = new File(stateDir, SNAPSHOT + ".tmp");
+        snapshot = new BufferedWriter(new OutputStreamWriter(gzip(newSnapshot), StandardCharsets.UTF_8), 1 << 16);
+    }
+
+    @Override
+    public void add(OWLAxiom axiom) throws IOException {
+        addAll(Collections.singletonList(axiom));
+    }
+
+    /**
+     * Adds the axioms of one record.
+     */
+    @Override
+    public void addAll(Collection<? extends OWLAxiom> axioms) throws IOException {
+        if (axioms.isEmpty())
+            return;
+        lines.getBuffer().setLength(0);
+        for (OWLAxiom axiom : axioms)
+            super.add(axiom);
+        String triples = lines.toString();
+
+        long key = hash(key(axioms.iterator().next()));
+        long hash = hash(triples);
+        // the same record from another file (e.g. in overlapping time windows)
+        if (!occurrences.add(key, hash))
+            return;
+        records.add(key, hash);
+        snapshot.write("# " + Long.toHexString(key) + " " + Long.toHexString(hash) + "\n");
+        snapshot.write(triples);
+    }
+
+    /**
+     * Writes the insert and delete files and replaces the state with that of
+     * this run.
+     */
+    @Override
+    public void close() throws IOException {
+        snapshot.close();
+        records.sort();
+
+        File previousSnapshot = new File(stateDir, SNAPSHOT);
+        int deleted = 0, inserted = 0;
+        try (Writer out = writer(deleteFile)) {
+            if (previousSnapshot.isFile())
+                deleted = copyChanged(previousSnapshot, out);
+        }
+        try (Writer out = writer(insertFile)) {
+            inserted = copyChanged(newSnapshot, out);
+        }
+
+        int unchanged = 0;
+        for (int i = 0; i < records.size(); i++) {
+            int j = previous.indexOf(records.key(i));
+            if (j >= 0 && previous.hash(j) == records.hash(i))
+                unchanged++;
+        }
+
+        Files.move(newSnapshot.toPath(), previousSnapshot.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        writeIndex(previousSnapshot.length());
+        LOGGER.info("Incremental output: " + inserted + " records inserted, " + deleted + " records deleted, "
+                + unchanged + " unchanged");
+    }
+
+    /**
+     * Copies the records of a snapshot that changed between the previous run and
+     * this one, returning their number.
+     */
+    private int copyChanged(File snapshotFile, Writer out) throws IOException {
+        int changed = 0;
+        boolean copy = false;
+        try (BufferedReader in = reader(snapshotFile)) {
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                if (line.startsWith("# ")) {
+                    long key = Long.parseUnsignedLong(line.substring(2, line.indexOf(' ', 2)), 16);
+                    int i = previous.indexOf(key), j = records.indexOf(key);
+                    copy = i < 0 || j < 0 || records.hash(j) != previous.hash(i);
+                    if (copy)
+                        changed++;
+                } else if (copy) {
+                    out.write(line);
+                    out.write('\n');
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Reads the index of the previous run or, if it does not match the
+     * snapshot, rebuilds it from the snapshot.
+     */
+    private RecordHashes readIndex() throws IOException {
+        RecordHashes index = new RecordHashes();
+        File snapshotFile = new File(stateDir, SNAPSHOT), indexFile = new File(stateDir, INDEX);
+        if (!snapshotFile.isFile())
+            return index;
+
+        if (indexFile.isFile()) {
+            try (DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(indexFile), 1 << 16))) {
+                if (in.readInt() == INDEX_MAGIC && in.readLong() == snapshotFile.length()) {
+                    int n = in.readInt();
+                    for (int i = 0; i < n; i++)
+                        index.add(in.readLong(), in.readLong());
+                    index.sort();
+                    return index;
+                }
+            }
+        }
+
+        LOGGER.warning("Index of incremental state does not match " + snapshotFile + ", rebuilding it");
+        try (BufferedReader in = reader(snapshotFile)) {
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                if (line.startsWith("# ")) {
+                    int space = line.indexOf(' ', 2);
+                    index.add(Long.parseUnsignedLong(line.substring(2, space), 16),
+                            Long.parseUnsignedLong(line.substring(space + 1), 16));
+                }
+            }
+        }
+        index.sort();
+        return index;
+    }
+
+    private void writeIndex(long snapshotLength) throws IOException {
+        File tmp = new File(stateDir, INDEX + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeLong(snapshotLength);
+            out.writeInt(records.size());
+            for (int i = 0; i < records.size(); i++) {
+                out.writeLong(records.key(i));
+                out.writeLong(records.hash(i));
+            }
+        }
+        Files.move(tmp.toPath(), new File(stateDir, INDEX).toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * The individual a record is about
+     */
+    private static String key(OWLAxiom axiom) {
+        if (axiom instanceof OWLClassAssertionAxiom)
+            return ((OWLClassAssertionAxiom) axiom).getIndividual().toString();
+        if (axiom instanceof OWLPropertyAssertionAxiom)
+            return ((OWLPropertyAssertionAxiom<?, ?>) axiom).getSubject().toString();
+        return axiom.toString();
+    }
+
+    /**
+     * 64 bits of the SHA-256 hash of s
+     */
+    private long hash(String s) {
+        byte[] h = digest.digest(s.getBytes(StandardCharsets.UTF_8));
+        long value = 0;
+        for (int i = 0; i < 8; i++)
+            value = (value << 8) | (h[i] & 0xff);
+        return value;
+    }
+
+    private static OutputStream gzip(File file) throws IOException {
+        return new GZIPOutputStream(new FileOutputStream(file), 1 << 16) {
+            {
+                def.setLevel(Deflater.BEST_SPEED);
+            }
+        };
+    }
+
+    private static BufferedReader reader(File gzipFile) throws IOException {
+        return new BufferedReader(
+                new InputStreamReader(new GZIPInputStream(new FileInputStream(gzipFile), 1 << 16),
+                        StandardCharsets.UTF_8),
+                1 << 16);
+    }
+
+    private static Writer writer(File file) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8),
+                1 << 16);
+    }
+
+}
@@ -0,0 +1,574 @@
+package br.ufes.inf.nemo.integradoce.etl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Cache of the cells extracted from the input files, so that a file that has
+ * not changed is not parsed again in later runs (e.g. after a change in the
+ * mappings): its cells are read from the cache instead of with commons-csv.
+ *
+ * Each input file has a binary file in the cache folder, with the checksum of
+ * the input file it was extracted from (it is used only if the input file has
+ * the same checksum), the header of the input file and, for each row, the
+ * point code, the sample type, the matrix, the time and the usable numeric
+ * cells, as column index and value. The usable cells of all value columns are
+ * kept, mapped or not, so that the cache does not depend on the mappings.
+ *
+ * The rows are stored in groups of {@link #GROUP_ROWS}, column by column:
+ * point codes, sample types and matrices are ids in dictionaries that grow
+ * with the file (new entries are written in the group that first uses them),
+ * times are written as differences from the previous row, and each value is
+ * XORed with the previous value of the same column, leaving out the leading
+ * and trailing zero bytes (so a repeated value takes one byte). Numbers are
+ * written as variable-length integers.
+ */
+final class InputCache {
+
+    /**
+     * "IDCC"
+     */
+    private static final int MAGIC = 0x49444343;
+
+    /**
+     * Version of the format and of the extraction of the cells: cache files of
+     * other versions are ignored
+     */
+    private static final int VERSION = 2;
+
+    static final int GROUP_ROWS = 4096;
+
+    /**
+     * Time of a row whose date could not be parsed
+     */
+    static final long NO_TIME = Long.MIN_VALUE;
+
+    private final static Logger LOGGER = Logger.getLogger("ETL");
+
+    private static volatile File folder;
+
+    private InputCache() {
+    }
+
+    /**
+     * Sets the folder of the cache files, or null not to use the cache (the
+     * default).
+     */
+    static void setFolder(File cacheFolder) {
+        folder = cacheFolder;
+    }
+
+    static boolean isEnabled() {
+        return folder != null;
+    }
+
+    /**
+     * Checksum (CRC-32) of the contents of a file
+     */
+    static long checksum(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[CsvInput.BUFFER_SIZE];
+        try (InputStream in = new FileInputStream(file)) {
+            int n;
+            while ((n = in.read(buffer)) > 0)
+                crc.update(buffer, 0, n);
+        }
+        return crc.getValue();
+    }
+
+    private static File cacheFile(File source) throws IOException {
+        String path = source.getCanonicalPath();
+        return new File(folder, source.getName() + "." + Integer.toHexString(path.hashCode()) + ".cells");
+    }
+
+    /**
+     * Opens the cache file of an input file, returning null if there is none
+     * or if it was extracted from other contents (by checksum), by another
+     * version or in another time zone.
+     *
+     * @param source   input file
+     * @param checksum checksum of the input file (see {@link #checksum(File)})
+     * @return
+     */
+    static Reader open(File source, long checksum) {
+        File file;
+        try {
+            file = cacheFile(source);
+        } catch (IOException e) {
+            return null;
+        }
+        DataInputStream in;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), CsvInput.BUFFER_SIZE));
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(source.getCanonicalPath())
+                    || in.readLong() != source.length() || in.readLong() != checksum
+                    || !in.readUTF().equals(ValueCodec.SOURCE_TIME_ZONE.getID())) {
+                LOGGER.info("Cache of " + source.getName() + " is out of date");
+                in.close();
+                return null;
+            }
+            int columns = in.readInt();
+            List<String> header = new ArrayList<>(columns);
+            for (int i = 0; i < columns; i++)
+                header.add(in.readUTF());
+            LOGGER.info("Reading " + source.getName() + " from the cache");
+            return new Reader(in, header);
+        } catch (IOException e) {
+            LOGGER.warning("Ignoring cache of " + source.getName() + ": " + e.getMessage());
+            try {
+                in.close();
+            } catch (IOException e2) {
+                // nothing else to do
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Creates a writer of the cache file of an input file, or returns null
+     * (after logging why) if it cannot be created. The cache file replaces
+     * the previous one when the writer is committed.
+     *
+     * @param source   input file
+     * @param checksum checksum of the input file (see {@link #checksum(File)})
+     * @param header   names of the columns of the input file
+     * @return
+     */
+    static Writer create(File source, long checksum, List<String> header) {
+        try {
+            File file = cacheFile(source);
+            Files.createDirectories(folder.toPath());
+            File temp = new File(folder, file.getName() + ".tmp" + Thread.currentThread().getId());
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(temp), CsvInput.BUFFER_SIZE));
+            Writer writer = new Writer(source, file, temp, out, header.size());
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(source.getCanonicalPath());
+            out.writeLong(source.length());
+            out.writeLong(checksum);
+            out.writeUTF(ValueCodec.SOURCE_TIME_ZONE.getID());
+            out.writeInt(header.size());
+            for (String name : header)
+                out.writeUTF(name);
+            return writer;
+        } catch (IOException e) {
+            LOGGER.warning("Not caching " + source.getName() + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Writes the rows extracted from an input file to its cache file. Errors
+     * are logged and leave the cache file as it was, without failing the
+     * extraction.
+     */
+    static final class Writer implements Closeable {
+
+        private final File source, file, temp;
+        private DataOutputStream out;
+
+        private final Map<String, Integer> points = new HashMap<>(), types = new HashMap<>(),
+                matrices = new HashMap<>();
+        private final List<String> newPoints = new ArrayList<>(), newTypes = new ArrayList<>(),
+                newMatrices = new ArrayList<>();
+        private final Block pointIds = new Block(), typeIds = new Block(), matrixIds = new Block(),
+                times = new Block(), cellCounts = new Block(), cellColumns = new Block(), cellValues = new Block();
+        private final int[] previousValues;
+        private long previousTime;
+        private int rows = 0, cells = 0;
+
+        private Writer(File source, File file, File temp, DataOutputStream out, int columns) {
+            this.source = source;
+            this.file = file;
+            this.temp = temp;
+            this.out = out;
+            previousValues = new int[columns];
+        }
+
+        /**
+         * Starts a row, to be followed by its cells
+         *
+         * @param point  point code
+         * @param type   sample type
+         * @param matrix matrix of the sample (e.g. "Agua")
+         * @param time   time of the row, or {@link InputCache#NO_TIME}
+         */
+        void row(String point, String type, String matrix, long time) {
+            if (out == null)
+                return;
+            if (rows > 0)
+                cellCounts.writeVarint(cells);
+            if (rows == GROUP_ROWS)
+                flush();
+            pointIds.writeVarint(id(points, newPoints, point));
+            typeIds.writeVarint(id(types, newTypes, type));
+            matrixIds.writeVarint(id(matrices, newMatrices, matrix));
+            times.writeVarlong(zigzag(time - previousTime));
+            previousTime = time;
+            rows++;
+            cells = 0;
+        }
+
+        /**
+         * Adds a cell to the current row
+         *
+         * @param column index of the column in the header
+         * @param value
+         */
+        void cell(int column, float value) {
+            if (out == null)
+                return;
+            cellColumns.writeVarint(column);
+            int bits = Float.floatToRawIntBits(value);
+            cellValues.writeXor(bits ^ previousValues[column]);
+            previousValues[column] = bits;
+            cells++;
+        }
+
+        private static int id(Map<String, Integer> dictionary, List<String> newEntries, String s) {
+            Integer id = dictionary.get(s);
+            if (id == null) {
+                id = dictionary.size();
+                dictionary.put(s, id);
+                newEntries.add(s);
+            }
+            return id;
+        }
+
+        /**
+         * Writes the current group of rows
+         */
+        private void flush() {
+            try {
+                out.writeInt(rows);
+                for (List<String> entries : Arrays.asList(newPoints, newTypes, newMatrices)) {
+                    out.writeInt(entries.size());
+                    for (String s : entries)
+                        out.writeUTF(s);
+                    entries.clear();
+                }
+                for (Block block : Arrays.asList(pointIds, typeIds, matrixIds, times, cellCounts, cellColumns,
+                        cellValues)) {
+                    out.writeInt(block.size());
+                    block.writeTo(out);
+                    block.reset();
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+            rows = 0;
+            previousTime = 0;
+            Arrays.fill(previousValues, 0);
+        }
+
+        /**
+         * Writes the last rows and replaces the cache file of the input file.
+         */
+        void commit() {
+            if (out == null)
+                return;
+            if (rows > 0) {
+                cellCounts.writeVarint(cells);
+                flush();
+            }
+            if (out == null)
+                return;
+            try {
+                out.writeInt(0);
+                out.close();
+                out = null;
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        private void fail(IOException e) {
+            LOGGER.warning("Not caching " + source.getName() + ": " + e.getMessage());
+            close();
+        }
+
+        /**
+         * Discards the cache file being written, if it was not committed
+         */
+        @Override
+        public void close() {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // deleted anyway
+                }
+                out = null;
+            }
+            temp.delete();
+        }
+    }
+
+    /**
+     * Reads the rows of a cache file, one at a time. The reader must be
+     * closed.
+     */
+    static final class Reader implements Closeable {
+
+        private final DataInputStream in;
+        private final List<String> header;
+
+        private final List<String> points = new ArrayList<>(), types = new ArrayList<>(),
+                matrices = new ArrayList<>();
+        private int[] pointIds = new int[GROUP_ROWS], typeIds = new int[GROUP_ROWS],
+                matrixIds = new int[GROUP_ROWS], cellStarts = new int[GROUP_ROWS + 1], columns = new int[0];
+        private long[] times = new long[GROUP_ROWS];
+        private float[] values = new float[0];
+        private final int[] previousValues;
+
+        private int rows = 0, row = 0;
+        private boolean ended = false;
+
+        private Reader(DataInputStream in, List<String> header) {
+            this.in = in;
+            this.header = Collections.unmodifiableList(header);
+            previousValues = new int[header.size()];
+        }
+
+        /**
+         * Names of the columns of the input file
+         */
+        List<String> getHeader() {
+            return header;
+        }
+
+        /**
+         * Moves to the next row, returning false at the end of the file
+         */
+        boolean next() throws IOException {
+            if (++row < rows)
+                return true;
+            if (ended || !readGroup())
+                return false;
+            row = 0;
+            return true;
+        }
+
+        String point() {
+            return points.get(pointIds[row]);
+        }
+
+        String type() {
+            return types.get(typeIds[row]);
+        }
+
+        String matrix() {
+            return matrices.get(matrixIds[row]);
+        }
+
+        /**
+         * Time of the row, or {@link InputCache#NO_TIME} if its date could not
+         * be parsed
+         */
+        long time() {
+            return times[row];
+        }
+
+        /**
+         * Number of cells of the row
+         */
+        int cells() {
+            return cellStarts[row + 1] - cellStarts[row];
+        }
+
+        /**
+         * Column index of the i-th cell of the row
+         */
+        int column(int i) {
+            return columns[cellStarts[row] + i];
+        }
+
+        float value(int i) {
+            return values[cellStarts[row] + i];
+        }
+
+        private boolean readGroup() throws IOException {
+            rows = in.readInt();
+            if (rows == 0) {
+                ended = true;
+                return false;
+            }
+            if (rows > GROUP_ROWS)
+                throw new IOException("Invalid cache file");
+            for (List<String> dictionary : Arrays.asList(points, types, matrices)) {
+                int n = in.readInt();
+                for (int i = 0; i < n; i++)
+                    dictionary.add(in.readUTF());
+            }
+            Decoder decoder = new Decoder(in);
+            decoder.next();
+            for (int i = 0; i < rows; i++)
+                pointIds[i] = decoder.readVarint();
+            decoder.next();
+            for (int i = 0; i < rows; i++)
+                typeIds[i] = decoder.readVarint();
+            decoder.next();
+            for (int i = 0; i < rows; i++)
+                matrixIds[i] = decoder.readVarint();
+            decoder.next();
+            long time = 0;
+            for (int i = 0; i < rows; i++)
+                times[i] = time += unzigzag(decoder.readVarlong());
+            decoder.next();
+            for (int i = 0; i < rows; i++)
+                cellStarts[i + 1] = cellStarts[i] + decoder.readVarint();
+            int cells = cellStarts[rows];
+            if (columns.length < cells) {
+                columns = new int[cells];
+                values = new float[cells];
+            }
+            decoder.next();
+            for (int i = 0; i < cells; i++) {
+                columns[i] = decoder.readVarint();
+                if (columns[i] >= previousValues.length)
+                    throw new IOException("Invalid cache file");
+            }
+            decoder.next();
+            Arrays.fill(previousValues, 0);
+            for (int i = 0; i < cells; i++) {
+                int bits = previousValues[columns[i]] ^ decoder.readXor();
+                previousValues[columns[i]] = bits;
+                values[i] = Float.intBitsToFloat(bits);
+            }
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private static long zigzag(long n) {
+        return (n << 1) ^ (n >> 63);
+    }
+
+    private static long unzigzag(long n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    /**
+     * Bytes of a column of a group of rows
+     */
+    private static final class Block extends ByteArrayOutputStream {
+
+        void writeVarint(int n) {
+            writeVarlong(n & 0xFFFFFFFFL);
+        }
+
+        void writeVarlong(long n) {
+            while ((n & ~0x7FL) != 0) {
+                write((int) (n & 0x7F) | 0x80);
+                n >>>= 7;
+            }
+            write((int) n);
+        }
+
+        /**
+         * Writes the XOR of a value with the previous one: a byte with the
+         * number of trailing zero bytes (high half) and of remaining bytes (low
+         * half), followed by the remaining bytes, most significant first
+         */
+        void writeXor(int xor) {
+            if (xor == 0) {
+                write(0);
+                return;
+            }
+            int trailing = Integer.numberOfTrailingZeros(xor) / 8;
+            int length = 4 - trailing - Integer.numberOfLeadingZeros(xor) / 8;
+            write(trailing << 4 | length);
+            for (int i = length - 1; i >= 0; i--)
+                write(xor >>> 8 * (trailing + i));
+        }
+    }
+
+    /**
+     * Reads the blocks of a group of rows
+     */
+    private static final class Decoder {
+
+        private final DataInputStream in;
+        private byte[] bytes = new byte[0];
+        private int position, limit;
+
+        Decoder(DataInputStream in) {
+            this.in = in;
+        }
+
+        /**
+         * Reads the next block
+         */
+        void next() throws IOException {
+            limit = in.readInt();
+            if (limit < 0)
+                throw new IOException("Invalid cache file");
+            if (bytes.length < limit)
+                bytes = new byte[limit];
+            in.readFully(bytes, 0, limit);
+            position = 0;
+        }
+
+        private int readByte() throws IOException {
+            if (position >= limit)
+                throw new EOFException("Truncated cache file");
+            return bytes[position++] & 0xFF;
+        }
+
+        int readVarint() throws IOException {
+            return (int) readVarlong();
+        }
+
+        long readVarlong() throws IOException {
+            long n = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                n |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0)
+                    return n;
+            }
+            throw new IOException("Invalid cache file");
+        }
+
+        int readXor() throws IOException {
+            int header = readByte();
+            if (header == 0)
+                return 0;
+            int xor = 0;
+            for (int i = header & 0xF; i > 0; i--)
+                xor = xor << 8 | readByte();
+            return xor << 8 * (header >> 4);
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package br.ufes.inf.nemo.integradoce.etl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import org.apache.commons.csv.CSVParser;
+
+/**
+ * Finds the input files in the input folder and its subfolders, at any depth,
+ * and detects the format of each one from its header.
+ *
+ * Files are included if their path relative to the input folder matches one
+ * of the include globs (by default, all CSV files) and none of the exclude
+ * globs; a folder whose relative path matches an exclude glob is not visited.
+ * Files of an unknown format are skipped.
+ */
+class InputDiscovery {
+
+    static final String DEFAULT_INCLUDE = "**.csv";
+
+    /**
+     * Formats of input files
+     */
+    enum Format {
+        /**
+         * Renova geographic points (Detalhamento_pontos_PMQQS.csv)
+         */
+        RENOVA_POINTS,
+        RENOVA_MANUAL,
+        RENOVA_AUTOMATIC,
+        /**
+         * UNESP geographic points (pontos.csv)
+         */
+        UNESP_POINTS,
+        /**
+         * UNESP campaign measurements
+         */
+        UNESP
+    }
+
+    /**
+     * An input file with its format and size
+     */
+    static class Input {
+
+        final File file;
+        final Format format;
+        final long size;
+
+        Input(File file, Format format, long size) {
+            this.file = file;
+            this.format = format;
+            this.size = size;
+        }
+
+        @Override
+        public String toString() {
+            return file + " (" + format + ")";
+        }
+    }
+
+    private final static Logger LOGGER = Logger.getLogger("ETL");
+
+    private final List<PathMatcher> includes = new ArrayList<>(), excludes = new ArrayList<>();
+
+    /**
+     * @param includes globs of the files to include (relative to the input
+     *                 folder), or empty for {@link #DEFAULT_INCLUDE}
+     * @param excludes globs of the files and folders to exclude
+     */
+    InputDiscovery(List<String> includes, List<String> excludes) {
+        for (String glob : includes.isEmpty() ? Collections.singletonList(DEFAULT_INCLUDE) : includes)
+            this.includes.add(FileSystems.getDefault().getPathMatcher("glob:" + glob));
+        for (String glob : excludes)
+            this.excludes.add(FileSystems.getDefault().getPathMatcher("glob:" + glob));
+    }
+
+    /**
+     * Returns the input files in the folder and its subfolders, sorted by path.
+     *
+     * @param folder
+     * @return
+     * @throws IOException
+     */
+    List<Input> discover(File folder) throws IOException {
+        Path root = folder.toPath();
+        List<Input> inputs = new ArrayList<>();
+        // with links followed, a cycle is reported as a failure to visit a folder
+        Files.walkFileTree(root, Collections.singleton(FileVisitOption.FOLLOW_LINKS),
+                Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                        if (!dir.equals(root) && matches(excludes, root.relativize(dir)))
+                            return FileVisitResult.SKIP_SUBTREE;
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        Path relative = root.relativize(file);
+                        if (!attrs.isRegularFile() || !matches(includes, relative) || matches(excludes, relative))
+                            return FileVisitResult.CONTINUE;
+                        Format format;
+                        try {
+                            format = sniff(file.toFile());
+                        } catch (IOException e) {
+                            return visitFileFailed(file, e);
+                        }
+                        if (format == null)
+                            LOGGER.warning("Skipping " + file + ": unknown format");
+                        else
+                            inputs.add(new Input(file.toFile(), format, attrs.size()));
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException e) {
+                        LOGGER.warning("Skipping " + file + ": " + e.getMessage());
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+        inputs.sort(Comparator.comparing(input -> input.file));
+        return inputs;
+    }
+
+    /**
+     * Returns the input file at the given path in the folder (e.g. a file that
+     * was added to it), or null if it would not be found by
+     * {@link #discover(File)}: if it is not included, is in an excluded folder
+     * or is of an unknown format.
+     *
+     * @param folder
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    Input input(File folder, File file) throws IOException {
+        Path relative = folder.toPath().relativize(file.toPath());
+        if (!file.isFile() || !matches(includes, relative) || matches(excludes, relative))
+            return null;
+        for (Path dir = relative.getParent(); dir != null; dir = dir.getParent())
+            if (matches(excludes, dir))
+                return null;
+        Format format = sniff(file);
+        if (format == null) {
+            LOGGER.warning("Skipping " + file + ": unknown format");
+            return null;
+        }
+        return new Input(file, format, file.length());
+    }
+
+    private static boolean matches(List<PathMatcher> matchers, Path path) {
+        for (PathMatcher matcher : matchers)
+            if (matcher.matches(path))
+                return true;
+        return false;
+    }
+
+    /**
+     * Detects the format of a file from its header, returning null if it is not
+     * known. Only the first buffer of the file is read.
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    static Format sniff(File file) throws IOException {
+        Set<String> header = new HashSet<>();
+        try (CSVParser parser = CsvInput.open(file)) {
+            for (String name : parser.getHeaderNames())
+                header.add(header.isEmpty() ? withoutByteOrderMark(name) : name.trim());
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            // not a CSV file with a valid header
+            return null;
+        }
+        if (header.contains("Status_Condutividade"))
+            return Format.RENOVA_AUTOMATIC;
+        if (header.contains("Status_Alcalinidade total"))
+            return Format.RENOVA_MANUAL;
+        if (header.contains("CODIGO_PONTO") && header.contains("LATITUTE"))
+            return Format.RENOVA_POINTS;
+        if (header.contains("ID amostras"))
+            return Format.UNESP_POINTS;
+        if (header.contains("Data") && header.contains("Amostra"))
+            return Format.UNESP;
+        return null;
+    }
+
+    /**
+     * The first column name without the byte order mark, which is decoded to
+     * other characters (or to replacement characters) if the platform charset is
+     * not UTF-8
+     */
+    private static String withoutByteOrderMark(String name) {
+        int start = 0;
+        while (start < name.length() && !Character.isLetterOrDigit(name.charAt(start)))
+            start++;
+        return name.substring(start).trim();
+    }
+}
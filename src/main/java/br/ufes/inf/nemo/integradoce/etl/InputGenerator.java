@@ -0,0 +1,425 @@
+package br.ufes.inf.nemo.integradoce.etl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+
+/**
+ * Writes synthetic input files, for load tests at scales beyond the sample
+ * data: Renova manual and automatic (telemetry) files with the columns in
+ * header-manual.csv and header-automatico.csv, and UNESP campaign files, into
+ * a folder that can be given to {@link App}.
+ *
+ * The files mimic the sample data: point codes and coordinates from
+ * Detalhamento_pontos_PMQQS.csv (automatic files only at automatic stations),
+ * several samples (at different depths or of different matrices) per visit to
+ * a manual point, mostly empty value columns, and the status codes of the
+ * sample data in about the same proportions. Files are written in UTF-8 with a
+ * byte order mark, as exported by Renova. The same seed gives the same files.
+ */
+public class InputGenerator {
+
+    private final static Logger LOGGER = Logger.getLogger("ETL");
+
+    /**
+     * Status codes of filled and of empty value cells, with their frequencies
+     * (per thousand) in the sample manual files
+     */
+    private static final String[] FILLED_STATUS = { "1,4", "1", "1,3", "1,3,4", "2", "1,5" };
+    private static final int[] FILLED_STATUS_WEIGHTS = { 540, 412, 25, 18, 3, 2 };
+    private static final String[] EMPTY_STATUS = { "6", "0" };
+    private static final int[] EMPTY_STATUS_WEIGHTS = { 882, 118 };
+
+    /**
+     * Matrices of manual samples, and the sample types of water samples, with
+     * their frequencies in the sample manual files
+     */
+    private static final String[] MATRICES = { "Agua", "Zoobentos", "Fitoplancton", "Ecotoxi_Agua", "Sedimento",
+            "Descarga_liquida", "Água - BRANCO EQUIPAMENTO", "Água - DUPLICATA", "Sedimento - DUPLICATA" };
+    private static final int[] MATRIX_WEIGHTS = { 4555, 624, 427, 351, 274, 195, 191, 190, 112 };
+    private static final String[] WATER_SAMPLE_TYPES = { "Superficial", "P15", "P50", "Profundidade I",
+            "Profundidade II", "Profundidade III" };
+
+    /**
+     * Detection limits, which are a good part of the values in the sample files
+     */
+    private static final String[] DETECTION_LIMITS = { "0.01", "0.001", "0.0001", "0.005", "0.0005", "0.1" };
+
+    private static final String UNESP_HEADER = "Data;Amostra;As;Cd;Co;Cr;Mn;Ni;Pb;Fe-diss;Fe-tot;Al-diss;Al-tot";
+
+    private final Random random;
+
+    /**
+     * Renova points (code, latitude, longitude), all of them and those with
+     * automatic stations
+     */
+    private final List<String[]> manualPoints = new ArrayList<>(), automaticPoints = new ArrayList<>();
+    private final List<String> unespPoints = new ArrayList<>();
+
+    /**
+     * Folder with the geographic point files (Detalhamento_pontos_PMQQS.csv in
+     * dados_renova and pontos.csv in dados_unesp)
+     */
+    private final File pointsFolder;
+
+    InputGenerator(File pointsFolder, long seed) throws IOException {
+        this.pointsFolder = pointsFolder;
+        this.random = new Random(seed);
+
+        try (CSVParser records = CSVFormat.EXCEL.withDelimiter(';').withFirstRecordAsHeader()
+                .parse(reader(renovaPointsFile()))) {
+            for (CSVRecord record : records) {
+                String[] point = { record.get("CODIGO_PONTO"), record.get("LATITUTE").replace(',', '.'),
+                        record.get("LONGITUDE").replace(',', '.') };
+                manualPoints.add(point);
+                if (record.get("TIPO_ESTACAO").startsWith("Autom"))
+                    automaticPoints.add(point);
+            }
+        }
+        if (automaticPoints.isEmpty())
+            automaticPoints.addAll(manualPoints);
+
+        try (CSVParser records = CSVFormat.EXCEL.withDelimiter(';').withFirstRecordAsHeader()
+                .parse(reader(unespPointsFile()))) {
+            for (CSVRecord record : records)
+                unespPoints.add(record.get(0));
+        }
+    }
+
+    private File renovaPointsFile() {
+        return new File(pointsFolder, "dados_renova/Detalhamento_pontos_PMQQS.csv");
+    }
+
+    private File unespPointsFile() {
+        return new File(pointsFolder, "dados_unesp/pontos.csv");
+    }
+
+    public static void main(String[] args) throws IOException {
+        File pointsFolder = new File("sample_input_data");
+        long manualSize = 10L << 20, automaticSize = 10L << 20, unespSize = 100L << 10, fileSize = 256L << 20;
+        long seed = 1;
+        List<String> positional = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                boolean hasValue = i + 1 < args.length;
+                if (arg.equals("--points") && hasValue)
+                    pointsFolder = new File(args[++i]);
+                else if (arg.equals("--manual-size") && hasValue)
+                    manualSize = Options.parseSize(args[++i]);
+                else if (arg.equals("--automatic-size") && hasValue)
+                    automaticSize = Options.parseSize(args[++i]);
+                else if (arg.equals("--unesp-size") && hasValue)
+                    unespSize = Options.parseSize(args[++i]);
+                else if (arg.equals("--file-size") && hasValue)
+                    fileSize = Options.parseSize(args[++i]);
+                else if (arg.equals("--seed") && hasValue)
+                    seed = Long.parseLong(args[++i]);
+                else if (arg.startsWith("--"))
+                    positional.clear();
+                else
+                    positional.add(arg);
+            }
+        } catch (NumberFormatException e) {
+            positional.clear();
+        }
+        if (positional.size() != 1 || fileSize <= 0) {
+            printUsage(System.err);
+            return;
+        }
+
+        InputGenerator generator = new InputGenerator(pointsFolder, seed);
+        generator.generate(new File(positional.get(0)), manualSize, automaticSize, unespSize, fileSize);
+    }
+
+    static void printUsage(PrintStream out) {
+        out.println("Usage: InputGenerator [options] <output_folder>");
+        out.println("Writes synthetic input files for App into <output_folder>/dados_renova and <output_folder>/dados_unesp.");
+        out.println("Sizes are in bytes, optionally followed by K, M or G.");
+        out.println("Options:");
+        out.println("  --points <folder>        input folder with the geographic point files (default sample_input_data)");
+        out.println("  --manual-size <size>     total size of the Renova manual files (default 10M)");
+        out.println("  --automatic-size <size>  total size of the Renova automatic (telemetry) files (default 10M)");
+        out.println("  --unesp-size <size>      total size of the UNESP campaign files (default 100K)");
+        out.println("  --file-size <size>       maximum size of each file (default 256M)");
+        out.println("  --seed <n>               seed of the random values (default 1)");
+    }
+
+    /**
+     * Writes the point files and the data files of each format, split into files
+     * of up to fileSize bytes.
+     */
+    void generate(File outputFolder, long manualSize, long automaticSize, long unespSize, long fileSize)
+            throws IOException {
+        File renova = new File(outputFolder, "dados_renova"), unesp = new File(outputFolder, "dados_unesp");
+        new File(unesp, "agua").mkdirs();
+        renova.mkdirs();
+        Files.copy(renovaPointsFile().toPath(), new File(renova, "Detalhamento_pontos_PMQQS.csv").toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+        Files.copy(unespPointsFile().toPath(), new File(unesp, "pontos.csv").toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+
+        GregorianCalendar manualStart = new GregorianCalendar(2020, Calendar.AUGUST, 2);
+        GregorianCalendar automaticStart = new GregorianCalendar(2017, Calendar.AUGUST, 1);
+        GregorianCalendar unespStart = new GregorianCalendar(2015, Calendar.DECEMBER, 5);
+        int part = 1;
+        for (long remaining = manualSize; remaining > 0; remaining -= fileSize, part++)
+            writeManual(new File(renova, String.format("sintetico_manual/manual-%04d.csv", part)),
+                    Math.min(remaining, fileSize), manualStart);
+        part = 1;
+        for (long remaining = automaticSize; remaining > 0; remaining -= fileSize, part++)
+            writeAutomatic(new File(renova, String.format("sintetico_automatico/automatico-%04d.csv", part)),
+                    Math.min(remaining, fileSize), automaticStart);
+        part = 1;
+        for (long remaining = unespSize; remaining > 0; remaining -= fileSize, part++)
+            writeUnesp(new File(unesp, String.format("agua/Dados_Sinteticos_Campanha%04d.csv", part)),
+                    Math.min(remaining, fileSize), unespStart);
+        LOGGER.info("Generated input files in " + outputFolder);
+    }
+
+    /**
+     * Writes a Renova manual file of about the given size. Each visit to a point
+     * has one to three samples, of a matrix or (for water) at several depths;
+     * visits follow one another, 20 minutes apart, from the start day (which is
+     * advanced past the last visit).
+     */
+    void writeManual(File file, long size, GregorianCalendar start) throws IOException {
+        List<CSVRecord> mapping = resource("/header-manual.csv");
+        List<String> header = names(mapping.get(0));
+        CSVRecord marks = mapping.get(3);
+        int columns = header.size();
+
+        // sparse columns: most mapped columns are filled in water samples, most
+        // of the others are rarely filled
+        double[] fill = new double[columns];
+        double[] scale = new double[columns];
+        boolean[] hasStatus = new boolean[columns];
+        for (int column = 7; column < columns; column++) {
+            hasStatus[column] = column + 1 < columns && header.get(column + 1).startsWith("Status");
+            boolean mapped = column < marks.size() && marks.get(column).equals("x");
+            fill[column] = mapped ? (random.nextInt(10) < 4 ? 0.6 : 0.1) : (random.nextInt(10) < 1 ? 0.3 : 0.02);
+            scale[column] = Math.exp(random.nextGaussian() * 2.5);
+        }
+
+        int visitsPerDay = 30;
+        try (Writer out = writer(file)) {
+            long written = write(out, String.join(";", header));
+            StringBuilder row = new StringBuilder(4096);
+            for (int visit = 0; written < size; visit++) {
+                if (visit % visitsPerDay == 0 && visit > 0)
+                    start.add(Calendar.DAY_OF_MONTH, 1);
+                String[] point = manualPoints.get(random.nextInt(manualPoints.size()));
+                String date = date(start, true);
+                int minutes = 7 * 60 + (visit % visitsPerDay) * 20;
+                String time = String.format("%02d:%02d", minutes / 60, minutes % 60);
+
+                String matrix = pick(MATRICES, MATRIX_WEIGHTS);
+                int samples = random.nextInt(10) < 8 ? 1 : 2 + random.nextInt(2);
+                int firstType = random.nextInt(WATER_SAMPLE_TYPES.length);
+                for (int sample = 0; sample < samples; sample++) {
+                    boolean water = matrix.equals("Agua") || matrix.equals("Descarga_liquida");
+                    String type = water ? WATER_SAMPLE_TYPES[(firstType + sample) % WATER_SAMPLE_TYPES.length]
+                            : matrix + (sample == 0 ? "" : " " + (sample + 1));
+                    row.setLength(0);
+                    row.append(matrix).append(';').append(type).append(';').append(point[0]).append(';')
+                            .append(point[1]).append(';').append(point[2]).append(';').append(date).append(';')
+                            .append(time);
+                    for (int column = 7; column < columns; column++) {
+                        if (header.get(column).startsWith("Status") && hasStatus[column - 1])
+                            continue;
+                        boolean filled = random.nextDouble() < (water ? fill[column] : fill[column] / 4);
+                        row.append(';');
+                        if (filled)
+                            row.append(value(scale[column]));
+                        if (hasStatus[column])
+                            row.append(';').append(filled ? pick(FILLED_STATUS, FILLED_STATUS_WEIGHTS)
+                                    : pick(EMPTY_STATUS, EMPTY_STATUS_WEIGHTS));
+                    }
+                    written += write(out, row);
+                }
+            }
+        }
+        start.add(Calendar.DAY_OF_MONTH, 1);
+    }
+
+    /**
+     * Writes a Renova automatic (telemetry) file of about the given size, with
+     * the readings of every automatic station every 30 minutes from the start
+     * time (which is advanced past the last reading). Readings follow a random
+     * walk, and a few parameters are seldom measured.
+     */
+    void writeAutomatic(File file, long size, GregorianCalendar start) throws IOException {
+        List<String> header = names(resource("/header-automatico.csv").get(0));
+        int columns = header.size();
+        int stations = automaticPoints.size();
+
+        double[] fill = new double[columns];
+        double[][] level = new double[stations][columns];
+        for (int column = 7; column < columns; column += 2) {
+            String name = header.get(column);
+            fill[column] = name.startsWith("Cianobacteria") || name.startsWith("Clorofila")
+                    || name.startsWith("Solidos") ? 0.05 : 0.85;
+            double base = Math.exp(random.nextGaussian() * 1.5);
+            for (int station = 0; station < stations; station++)
+                level[station][column] = base * (0.5 + random.nextDouble());
+        }
+
+        try (Writer out = writer(file)) {
+            long written = write(out, String.join(";", header));
+            StringBuilder row = new StringBuilder(512);
+            while (written < size) {
+                start.add(Calendar.MINUTE, 30);
+                String date = date(start, true);
+                String time = String.format("%02d:%02d", start.get(Calendar.HOUR_OF_DAY), start.get(Calendar.MINUTE));
+                for (int station = 0; station < stations && written < size; station++) {
+                    String[] point = automaticPoints.get(station);
+                    row.setLength(0);
+                    row.append("Estacoes_automaticas;Telemetrico;").append(point[0]).append(';').append(point[1])
+                            .append(';').append(point[2]).append(';').append(date).append(';').append(time);
+                    for (int column = 7; column + 1 < columns; column += 2) {
+                        double value = level[station][column] * (1 + random.nextGaussian() * 0.02);
+                        level[station][column] = value;
+                        boolean filled = random.nextDouble() < fill[column];
+                        row.append(';');
+                        if (filled)
+                            row.append(round(value));
+                        row.append(';').append(filled ? (random.nextInt(100) < 97 ? "1" : "2") : "6");
+                    }
+                    written += write(out, row);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a UNESP campaign file of about the given size, with one sample per
+     * point per day from the start day (which is advanced past the last day).
+     * Values are in the pt-BR format, some below the detection limit.
+     */
+    void writeUnesp(File file, long size, GregorianCalendar start) throws IOException {
+        int columns = UNESP_HEADER.split(";").length;
+        double[] scale = new double[columns];
+        for (int column = 2; column < columns; column++)
+            scale[column] = Math.exp(random.nextGaussian() * 2);
+
+        try (Writer out = writer(file)) {
+            long written = write(out, UNESP_HEADER);
+            StringBuilder row = new StringBuilder(256);
+            while (written < size) {
+                String date = date(start, false);
+                for (int i = 0; i < unespPoints.size() && written < size; i++) {
+                    row.setLength(0);
+                    row.append(date).append(';').append(unespPoints.get(i));
+                    for (int column = 2; column < columns; column++) {
+                        row.append(';');
+                        int kind = random.nextInt(100);
+                        if (kind < 15)
+                            row.append("<LD");
+                        else if (kind < 20)
+                            row.append("<0.001");
+                        else if (kind < 22)
+                            row.append('-');
+                        else
+                            row.append(value(scale[column]).replace('.', ','));
+                    }
+                    written += write(out, row);
+                }
+                start.add(Calendar.DAY_OF_MONTH, 1);
+            }
+        }
+    }
+
+    /**
+     * A value of the given order of magnitude or, sometimes, a detection limit
+     */
+    private String value(double scale) {
+        if (random.nextInt(5) == 0)
+            return DETECTION_LIMITS[random.nextInt(DETECTION_LIMITS.length)];
+        return round(scale * Math.exp(random.nextGaussian()));
+    }
+
+    /**
+     * Rounds to 4 significant digits, in plain (not scientific) notation
+     */
+    private static String round(double value) {
+        return new BigDecimal(value).round(new MathContext(4)).stripTrailingZeros().toPlainString();
+    }
+
+    private String pick(String[] values, int[] weights) {
+        int total = 0;
+        for (int weight : weights)
+            total += weight;
+        int r = random.nextInt(total);
+        for (int i = 0; i < values.length; i++) {
+            r -= weights[i];
+            if (r < 0)
+                return values[i];
+        }
+        return values[values.length - 1];
+    }
+
+    private static String date(Calendar calendar, boolean longYear) {
+        return String.format(longYear ? "%02d/%02d/%04d" : "%02d/%02d/%02d", calendar.get(Calendar.DAY_OF_MONTH),
+                calendar.get(Calendar.MONTH) + 1,
+                longYear ? calendar.get(Calendar.YEAR) : calendar.get(Calendar.YEAR) % 100);
+    }
+
+    /**
+     * Writes a line, returning its size in bytes (approximately, as characters)
+     */
+    private static long write(Writer out, CharSequence line) throws IOException {
+        out.append(line).append("\r\n");
+        return line.length() + 2;
+    }
+
+    private static Writer writer(File file) throws IOException {
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        Writer out = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8);
+        out.write('\uFEFF');
+        return out;
+    }
+
+    private static Reader reader(File file) throws IOException {
+        Reader in = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8);
+        in.mark(1);
+        if (in.read() != '\uFEFF')
+            in.reset();
+        return in;
+    }
+
+    /**
+     * The column names in a header record, without the byte order mark
+     */
+    private static List<String> names(CSVRecord header) {
+        List<String> names = new ArrayList<>(header.size());
+        for (String name : header)
+            names.add(names.isEmpty() && name.startsWith("\uFEFF") ? name.substring(1) : name);
+        return names;
+    }
+
+    private static List<CSVRecord> resource(String name) throws IOException {
+        try (CSVParser records = CSVFormat.EXCEL.withDelimiter(';').parse(new InputStreamReader(
+                InputGenerator.class.getResourceAsStream(name), StandardCharsets.UTF_8))) {
+            return records.getRecords();
+        }
+    }
+
+}
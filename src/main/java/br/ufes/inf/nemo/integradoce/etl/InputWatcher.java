@@ -0,0 +1,252 @@
+package br.ufes.inf.nemo.integradoce.etl;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Watches the input folder and its subfolders, at any depth, for files that
+ * are added or changed, with a {@link WatchService} (see the --watch option of
+ * {@link App}).
+ *
+ * A file is ready once its size and modification time have not changed for
+ * {@link #QUIET_MILLIS} (by default), so that a file still being downloaded or copied is
+ * not read before it is complete. A file is reported again when it changes,
+ * but not if it has the same size and modification time as when it was last
+ * reported (or marked as read, see {@link #read(File)}). Folders added to the
+ * input folder are watched as well.
+ */
+final class InputWatcher implements Closeable {
+
+    static final long QUIET_MILLIS = 2000;
+
+    private final static Logger LOGGER = Logger.getLogger("ETL");
+
+    /**
+     * Size and modification time of a file
+     */
+    private static final class Stamp {
+
+        final long size, modified;
+
+        Stamp(long size, long modified) {
+            this.size = size;
+            this.modified = modified;
+        }
+
+        static Stamp of(File file) {
+            // read the time first: if the file changes in between, the stamp
+            // differs from the next one
+            long modified = file.lastModified();
+            return new Stamp(file.length(), modified);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Stamp))
+                return false;
+            Stamp other = (Stamp) o;
+            return size == other.size && modified == other.modified;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(size) * 31 + Long.hashCode(modified);
+        }
+    }
+
+    /**
+     * A file that changed, with its stamp when it was last checked and the
+     * time (by {@link System#nanoTime()}) from which it has had that stamp
+     */
+    private static final class Pending {
+
+        Stamp stamp;
+        long since;
+
+        Pending(Stamp stamp, long since) {
+            this.stamp = stamp;
+            this.since = since;
+        }
+    }
+
+    private final Path root;
+    private final long quietMillis;
+    private final WatchService service;
+    private final Map<WatchKey, Path> folders = new HashMap<>();
+    private final Map<Path, Pending> pending = new LinkedHashMap<>();
+
+    /**
+     * Stamps of the files when they were last reported or marked as read
+     */
+    private final Map<Path, Stamp> read = new HashMap<>();
+
+    /**
+     * Starts watching the folder and its subfolders. Files changed from then on
+     * are reported, also while the files already in the folder are read.
+     *
+     * @param folder
+     * @throws IOException
+     */
+    InputWatcher(File folder) throws IOException {
+        this(folder, QUIET_MILLIS);
+    }
+
+    /**
+     * @param folder
+     * @param quietMillis time for which a file must not change to be ready
+     * @throws IOException
+     */
+    InputWatcher(File folder, long quietMillis) throws IOException {
+        root = folder.toPath();
+        this.quietMillis = quietMillis;
+        service = root.getFileSystem().newWatchService();
+        register(root, false);
+    }
+
+    /**
+     * Marks a file as read as it is now (e.g. one of the files in the folder
+     * when the watch started), so that it is reported only if it changes.
+     *
+     * @param file
+     */
+    void read(File file) {
+        read.put(file.toPath(), Stamp.of(file));
+    }
+
+    /**
+     * Waits for files to be added or changed and returns them, sorted by path,
+     * once they are ready.
+     *
+     * @return the files, not necessarily included in the input or in a known
+     *         format
+     * @throws InterruptedException
+     * @throws java.nio.file.ClosedWatchServiceException if the watcher is closed
+     *                                                   (e.g. from another
+     *                                                   thread) while waiting
+     */
+    List<File> take() throws InterruptedException, IOException {
+        while (true) {
+            // with changed files, check them again before they can be ready
+            WatchKey key = pending.isEmpty() ? service.take()
+                    : service.poll(Math.max(quietMillis / 4, 1), TimeUnit.MILLISECONDS);
+            for (; key != null; key = service.poll())
+                events(key);
+            List<File> ready = ready();
+            if (!ready.isEmpty())
+                return ready;
+        }
+    }
+
+    private void events(WatchKey key) throws IOException {
+        Path folder = folders.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                // events were lost: check all files
+                LOGGER.warning("Too many changes in " + root + " at once, checking all files");
+                register(root, true);
+                continue;
+            }
+            if (folder == null)
+                continue;
+            Path path = folder.resolve((Path) event.context());
+            if (event.kind() == ENTRY_CREATE && Files.isDirectory(path))
+                register(path, true);
+            else
+                changed(path);
+        }
+        if (!key.reset())
+            folders.remove(key);
+    }
+
+    /**
+     * Watches the folder and its subfolders and, if the files in them may have
+     * changed, checks them.
+     */
+    private void register(Path folder, boolean changed) throws IOException {
+        Files.walkFileTree(folder, Collections.singleton(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+                new SimpleFileVisitor<Path>() {
+
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+                            throws IOException {
+                        if (!folders.containsValue(dir))
+                            folders.put(dir.register(service, ENTRY_CREATE, ENTRY_MODIFY), dir);
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        if (changed && attrs.isRegularFile())
+                            changed(file);
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException e) {
+                        LOGGER.warning("Not watching " + file + ": " + e.getMessage());
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+    }
+
+    private void changed(Path file) {
+        pending.put(file, new Pending(null, System.nanoTime()));
+    }
+
+    /**
+     * Returns the pending files that have not changed for the quiet time, and are not as when they were last read
+     */
+    private List<File> ready() {
+        long now = System.nanoTime();
+        List<File> ready = new ArrayList<>();
+        for (Iterator<Map.Entry<Path, Pending>> i = pending.entrySet().iterator(); i.hasNext();) {
+            Map.Entry<Path, Pending> entry = i.next();
+            File file = entry.getKey().toFile();
+            if (!file.isFile()) {
+                // deleted, or not a file
+                i.remove();
+                continue;
+            }
+            Pending changed = entry.getValue();
+            Stamp stamp = Stamp.of(file);
+            if (!stamp.equals(changed.stamp)) {
+                changed.stamp = stamp;
+                changed.since = now;
+            } else if (now - changed.since >= TimeUnit.MILLISECONDS.toNanos(quietMillis)) {
+                i.remove();
+                if (!stamp.equals(read.put(entry.getKey(), stamp)))
+                    ready.add(file);
+            }
+        }
+        Collections.sort(ready);
+        return ready;
+    }
+
+    @Override
+    public void close() throws IOException {
+        service.close();
+    }
+}
@@ -0,0 +1,35 @@
+package br.ufes.inf.nemo.integradoce.etl;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Bounded cache of values derived from keys (e.g. the OWL individual for a
+ * point code), so that values used over and over are created once. The cache
+ * is cleared when full, which only costs recreating the values still in use.
+ *
+ * @param <K> key
+ * @param <V> value
+ */
+final class InternCache<K, V> {
+
+    private final ConcurrentHashMap<K, V> values = new ConcurrentHashMap<>();
+    private final Function<? super K, ? extends V> factory;
+    private final int maxSize;
+
+    InternCache(int maxSize, Function<? super K, ? extends V> factory) {
+        this.maxSize = maxSize;
+        this.factory = factory;
+    }
+
+    V get(K key) {
+        V value = values.get(key);
+        if (value == null) {
+            if (values.size() >= maxSize)
+                values.clear();
+            value = values.computeIfAbsent(key, factory);
+        }
+        return value;
+    }
+
+}
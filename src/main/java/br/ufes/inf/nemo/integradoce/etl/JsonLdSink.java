@@ -0,0 +1,346 @@
+package br.ufes.inf.nemo.integradoce.etl;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLLiteral;
+import org.semanticweb.owlapi.vocab.OWL2Datatype;
+
+/**
+ * Writes triples in JSON-LD, as a "@graph" of node objects, one for each run of
+ * consecutive triples with the same subject. The given prefixes (except the
+ * default one) are declared in the "@context" and used to compact IRIs.
+ *
+ * Only the node object being written is kept in memory.
+ */
+public class JsonLdSink extends TripleSink {
+
+    private static final String TYPE = "@type";
+
+    private final Writer out;
+
+    private final StringBuilder sb = new StringBuilder(256);
+
+    private boolean firstNode = true;
+
+    /**
+     * Node object being written: its "@id" and its values for each key
+     */
+    private String currentSubject;
+    private final Map<String, List<String>> properties = new LinkedHashMap<>();
+
+    public JsonLdSink(Writer out, Map<String, String> prefixName2Namespace) throws IOException {
+        super(withoutDefaultPrefix(prefixName2Namespace));
+        this.out = out;
+
+        sb.setLength(0);
+        sb.append("{\n  \"@context\": {");
+        boolean first = true;
+        for (Map.Entry<String, String> prefix : withoutDefaultPrefix(prefixName2Namespace).entrySet()) {
+            sb.append(first ? "\n    " : ",\n    ");
+            appendString(sb, prefix.getKey().substring(0, prefix.getKey().length() - 1));
+            sb.append(": ");
+            appendString(sb, prefix.getValue());
+            first = false;
+        }
+        sb.append("\n  },\n  \"@graph\": [");
+        out.append(sb);
+    }
+
+    /**
+     * Terms in JSON-LD cannot be empty, so there is no default prefix
+     */
+    private static Map<String, String> withoutDefaultPrefix(Map<String, String> prefixName2Namespace) {
+        Map<String, String> prefixes = new HashMap<>(prefixName2Namespace);
+        prefixes.remove(":");
+        return prefixes;
+    }
+
+    @Override
+    protected void triple(IRI subject, IRI predicate, IRI object) throws IOException {
+        statement(id(subject), predicate.toString(), id(object), true);
+    }
+
+    @Override
+    protected void triple(IRI subject, IRI predicate, OWLLiteral object) throws IOException {
+        String datatype = null;
+        if (!object.hasLang() && !object.getDatatype().getIRI().equals(OWL2Datatype.XSD_STRING.getIRI()))
+            datatype = id(object.getDatatype().getIRI());
+        statement(id(subject), predicate.toString(),
+                literal(object.getLiteral(), object.hasLang() ? object.getLang() : null, datatype), false);
+    }
+
+    /**
+     * Adds a statement to the node object of the subject.
+     *
+     * @param subject   "@id" of the subject (compact IRI or blank node)
+     * @param predicate full IRI of the predicate
+     * @param object    "@id" of the object, if node, otherwise its JSON value
+     * @param node      whether the object is a node
+     */
+    private void statement(String subject, String predicate, String object, boolean node) throws IOException {
+        if (!subject.equals(currentSubject)) {
+            endNode();
+            currentSubject = subject;
+        }
+        String key;
+        String value;
+        sb.setLength(0);
+        if (node && predicate.equals(RDF_TYPE.toString()) && !object.startsWith("_:")) {
+            key = TYPE;
+            appendString(sb, object);
+        } else {
+            key = id(IRI.create(predicate));
+            if (node) {
+                sb.append("{\"@id\": ");
+                appendString(sb, object);
+                sb.append('}');
+            } else {
+                sb.append(object);
+            }
+        }
+        value = sb.toString();
+        properties.computeIfAbsent(key, k -> new ArrayList<>(1)).add(value);
+    }
+
+    private void endNode() throws IOException {
+        if (currentSubject == null)
+            return;
+        sb.setLength(0);
+        sb.append(firstNode ? "\n    {\n      \"@id\": " : ",\n    {\n      \"@id\": ");
+        appendString(sb, currentSubject);
+        for (Map.Entry<String, List<String>> property : properties.entrySet()) {
+            sb.append(",\n      ");
+            appendString(sb, property.getKey());
+            sb.append(": ");
+            List<String> values = property.getValue();
+            if (values.size() == 1) {
+                sb.append(values.get(0));
+            } else {
+                sb.append('[');
+                for (int i = 0; i < values.size(); i++)
+                    sb.append(i == 0 ? "" : ", ").append(values.get(i));
+                sb.append(']');
+            }
+        }
+        sb.append("\n    }");
+        out.append(sb);
+        firstNode = false;
+        currentSubject = null;
+        properties.clear();
+    }
+
+    /**
+     * Ends the current node and writes out the nodes so far (the document is
+     * only complete once closed).
+     */
+    @Override
+    public void flush() throws IOException {
+        endNode();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        endNode();
+        out.append("\n  ]\n}\n");
+        out.close();
+    }
+
+    /**
+     * Adds the triples in an N-Triples document (e.g. the ontology header, as
+     * rendered by the OWLAPI), which may include blank nodes.
+     *
+     * @param in
+     * @throws IOException
+     */
+    public void addNTriples(Reader in) throws IOException {
+        BufferedReader lines = new BufferedReader(in);
+        for (String line = lines.readLine(); line != null; line = lines.readLine()) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+            int[] position = { 0 };
+            String subject = term(line, position);
+            if (subject.startsWith("<"))
+                subject = id(IRI.create(subject.substring(1)));
+            String predicate = term(line, position);
+            skipSpaces(line, position);
+            if (line.charAt(position[0]) == '"') {
+                statement(subject, predicate.substring(1), literalTerm(line, position), false);
+            } else {
+                String object = term(line, position);
+                statement(subject, predicate.substring(1),
+                        object.startsWith("<") ? id(IRI.create(object.substring(1))) : object, true);
+            }
+        }
+    }
+
+    /**
+     * Reads an IRI (returned as "&lt;" followed by the IRI, with no closing
+     * bracket) or a blank node (returned as "_:id") at the position
+     */
+    private String term(String line, int[] position) {
+        skipSpaces(line, position);
+        int start = position[0];
+        if (line.charAt(start) == '<') {
+            int end = line.indexOf('>', start);
+            position[0] = end + 1;
+            String iri = line.substring(start + 1, end);
+            return "<" + unescape(iri);
+        }
+        int end = start;
+        while (end < line.length() && !Character.isWhitespace(line.charAt(end)))
+            end++;
+        position[0] = end;
+        return line.substring(start, end);
+    }
+
+    /**
+     * Reads a literal at the position, returning its JSON value
+     */
+    private String literalTerm(String line, int[] position) {
+        int i = position[0] + 1;
+        StringBuilder lexical = new StringBuilder();
+        while (line.charAt(i) != '"') {
+            if (line.charAt(i) == '\\') {
+                i = unescape(line, i, lexical);
+            } else {
+                lexical.append(line.charAt(i++));
+            }
+        }
+        i++;
+        String language = null, datatype = null;
+        if (i < line.length() && line.charAt(i) == '@') {
+            int end = i + 1;
+            while (end < line.length() && !Character.isWhitespace(line.charAt(end)) && line.charAt(end) != '.')
+                end++;
+            language = line.substring(i + 1, end);
+            i = end;
+        } else if (line.startsWith("^^<", i)) {
+            int end = line.indexOf('>', i);
+            String iri = unescape(line.substring(i + 3, end));
+            if (!iri.equals(OWL2Datatype.XSD_STRING.getIRI().toString()))
+                datatype = id(IRI.create(iri));
+            i = end + 1;
+        }
+        position[0] = i;
+        return literal(lexical.toString(), language, datatype);
+    }
+
+    private static String unescape(String s) {
+        if (s.indexOf('\\') < 0)
+            return s;
+        StringBuilder result = new StringBuilder(s.length());
+        for (int i = 0; i < s.length();) {
+            if (s.charAt(i) == '\\')
+                i = unescape(s, i, result);
+            else
+                result.append(s.charAt(i++));
+        }
+        return result.toString();
+    }
+
+    /**
+     * Appends the character escaped at i (a backslash), returning the position
+     * after the escape sequence
+     */
+    private static int unescape(String s, int i, StringBuilder result) {
+        char c = s.charAt(i + 1);
+        switch (c) {
+            case 't':
+                result.append('\t');
+                return i + 2;
+            case 'b':
+                result.append('\b');
+                return i + 2;
+            case 'n':
+                result.append('\n');
+                return i + 2;
+            case 'r':
+                result.append('\r');
+                return i + 2;
+            case 'f':
+                result.append('\f');
+                return i + 2;
+            case 'u':
+                result.append((char) Integer.parseInt(s.substring(i + 2, i + 6), 16));
+                return i + 6;
+            case 'U':
+                result.appendCodePoint(Integer.parseInt(s.substring(i + 2, i + 10), 16));
+                return i + 10;
+            default:
+                result.append(c);
+                return i + 2;
+        }
+    }
+
+    private static void skipSpaces(String line, int[] position) {
+        while (Character.isWhitespace(line.charAt(position[0])))
+            position[0]++;
+    }
+
+    /**
+     * The compact form of an IRI, if there is a prefix for it, or the full IRI
+     */
+    private String id(IRI iri) {
+        String abbreviated = abbreviate(iri);
+        return abbreviated != null ? abbreviated : iri.toString();
+    }
+
+    private static String literal(String lexical, String language, String datatype) {
+        StringBuilder value = new StringBuilder(lexical.length() + 32);
+        value.append("{\"@value\": ");
+        appendString(value, lexical);
+        if (language != null && !language.isEmpty()) {
+            value.append(", \"@language\": ");
+            appendString(value, language);
+        } else if (datatype != null) {
+            value.append(", \"@type\": ");
+            appendString(value, datatype);
+        }
+        return value.append('}').toString();
+    }
+
+    /**
+     * Appends a JSON string
+     */
+    private static void appendString(StringBuilder sb, String s) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20)
+                        sb.append(String.format("\\u%04x", (int) c));
+                    else
+                        sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+
+}
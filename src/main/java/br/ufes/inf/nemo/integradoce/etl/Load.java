@@ -1,25 +1,69 @@
 package br.ufes.inf.nemo.integradoce.etl;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.text.SimpleDateFormat;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import java.util.Comparator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
 
 import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.formats.NTriplesDocumentFormat;
+import org.semanticweb.owlapi.formats.PrefixDocumentFormat;
+import org.semanticweb.owlapi.formats.TurtleDocumentFormat;
+import org.semanticweb.owlapi.io.FileDocumentSource;
+import org.semanticweb.owlapi.io.OWLOntologyDocumentSource;
+import org.semanticweb.owlapi.io.StreamDocumentSource;
+import org.semanticweb.owlapi.model.AddImport;
+import org.semanticweb.owlapi.model.AddOntologyAnnotation;
 import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.MissingImportHandlingStrategy;
+import org.semanticweb.owlapi.model.OWLAxiom;
 import org.semanticweb.owlapi.model.OWLClass;
 import org.semanticweb.owlapi.model.OWLClassAssertionAxiom;
 import org.semanticweb.owlapi.model.OWLDataFactory;
 import org.semanticweb.owlapi.model.OWLDataProperty;
 import org.semanticweb.owlapi.model.OWLDataPropertyAssertionAxiom;
+import org.semanticweb.owlapi.model.OWLDatatype;
+import org.semanticweb.owlapi.model.OWLDocumentFormat;
+import org.semanticweb.owlapi.model.OWLEntity;
 import org.semanticweb.owlapi.model.OWLLiteral;
 import org.semanticweb.owlapi.model.OWLNamedIndividual;
 import org.semanticweb.owlapi.model.OWLObjectProperty;
 import org.semanticweb.owlapi.model.OWLObjectPropertyAssertionAxiom;
 import org.semanticweb.owlapi.model.OWLOntology;
 import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+import org.semanticweb.owlapi.model.OWLOntologyLoaderConfiguration;
 import org.semanticweb.owlapi.model.OWLOntologyManager;
 import org.semanticweb.owlapi.model.OWLOntologyStorageException;
+import org.semanticweb.owlapi.model.OWLRuntimeException;
 import org.semanticweb.owlapi.model.PrefixManager;
 import org.semanticweb.owlapi.util.DefaultPrefixManager;
 import org.semanticweb.owlapi.vocab.OWL2Datatype;
@@ -45,6 +89,136 @@ public class Load {
      */
     private static OWLNamedIndividual riodoce;
 
+    /**
+     * Classes and properties used in the assertions added by this class
+     */
+    private static final OWLClass agentClass, geopointClass, measurementClass;
+    private static final OWLObjectProperty locatedIn, measuredQualityKind, expressedIn, participatedIn,
+            nearestStation;
+    private static final OWLDataProperty hasQualityValue, hasBeginPointInXSDDateTimeStamp,
+            hasEndPointInXSDDateTimeStamp, wgsLat, wgsLong, commentProperty, labelProperty;
+
+    /**
+     * Class and properties of the rollups of measurements (see
+     * {@link #setRollups(Set, boolean)})
+     */
+    private static final OWLClass aggregateClass;
+    private static final OWLDataProperty aggregationPeriod, minimumValue, maximumValue, meanValue, measurementCount;
+    private static final OWLDatatype durationDatatype;
+
+    /**
+     * Geographic points (by code, e.g. ":RCA-01"), and quality kinds, units and
+     * agents (by IRI) referred to by measurements
+     */
+    private static final InternCache<String, OWLNamedIndividual> points, individuals;
+
+    /**
+     * IRI prefix of the measurements of each quality kind (by IRI), e.g.
+     * "http://purl.org/nemo/integradoce#pHMeasurement"
+     */
+    private static final InternCache<String, String> measurementPrefixes;
+
+    /**
+     * Codes and locations of the geographic points added so far
+     */
+    private static final GeoPointIndex geoPoints = new GeoPointIndex();
+
+    /**
+     * Codes of the points of measurements that are not among the geographic
+     * points, already logged
+     */
+    private static final Set<String> unknownPoints = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Number of unknown points logged after which they are forgotten (and
+     * logged again if found again), so that the set does not grow without
+     * bound in a long run (e.g. with --watch)
+     */
+    private static final int LOGGED_UNKNOWN_POINTS = 10000;
+
+    /**
+     * Maximum distance from a sampling site to the station it is linked to, or
+     * 0 if sites are not linked (see {@link #setStationLinkRadius(double)})
+     */
+    private static volatile double stationLinkKm = 0;
+
+    public static final IRI DOCE_IRI = IRI.create("http://purl.org/nemo/doce");
+
+    /**
+     * Resource of the copy of "doce" bundled with the application, if any (see
+     * {@link #loadDoce(File, boolean)})
+     */
+    static final String BUNDLED_ONTOLOGY = "/doce.ttl";
+
+    /**
+     * IRI of the ontology of the data alone (see {@link #createDataOntology()})
+     */
+    public static final IRI DATA_ONTOLOGY_IRI = IRI.create("http://purl.org/nemo/integradoce/data");
+
+    /**
+     * Default location of the local copy of "doce" (see
+     * {@link #loadDoce(File, boolean)})
+     */
+    public static final File DEFAULT_ONTOLOGY_CACHE = new File(System.getProperty("user.home"),
+            ".integradoce/doce.ttl");
+
+    /**
+     * Output for axioms when streaming (see {@link #openSink(OWLOntology, String)})
+     */
+    private static TripleSink sink;
+
+    /**
+     * Buffer collecting the axioms added by the current thread, if any (see
+     * {@link #collectInto(AxiomBuffer)})
+     */
+    private static final ThreadLocal<AxiomBuffer> collector = new ThreadLocal<>();
+
+    /**
+     * Whether axioms are added to the ontology in bulk (see
+     * {@link #setBatchInsertion(boolean)})
+     */
+    private static volatile boolean batchInsertion = true;
+
+    /**
+     * Whether measurement IRIs are derived from the measurement content (see
+     * {@link #setContentDerivedIRIs(boolean)})
+     */
+    private static volatile boolean contentDerivedIRIs = true;
+
+    /**
+     * Keys of the measurements added so far, or null if duplicates are not left
+     * out (see {@link #setDeduplication(boolean)})
+     */
+    private static volatile MeasurementKeySet measurementKeys = new MeasurementKeySet();
+
+    /**
+     * Keys of the measurements added before {@link #measurementKeys} reached
+     * the limit, or null (see {@link #setDeduplication(boolean, int)})
+     */
+    private static volatile MeasurementKeySet previousMeasurementKeys;
+
+    /**
+     * Number of keys after which the oldest are forgotten, or 0 if they are
+     * all kept
+     */
+    private static volatile int measurementKeyLimit = 0;
+
+    /**
+     * Rollups of the telemetry measurements, or null if they are not rolled up
+     * (see {@link #setRollups(Set, boolean)})
+     */
+    private static volatile Rollups rollups;
+
+    private static final ThreadLocal<MessageDigest> measurementDigest = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
     private final static Logger LOGGER = Logger.getLogger("ETL");
 
     static {
@@ -56,6 +230,35 @@ public class Load {
         integradocepm = new DefaultPrefixManager(null, null, "http://purl.org/nemo/integradoce#");
         wgspm = new DefaultPrefixManager(null, null, "http://www.w3.org/2003/01/geo/wgs84_pos#");
         riodoce = dataFactory.getOWLNamedIndividual(":RioDoce", docepm);
+
+        agentClass = dataFactory.getOWLClass(":Agent", docepm);
+        geopointClass = dataFactory.getOWLClass(":GeographicPoint", docepm);
+        measurementClass = dataFactory.getOWLClass(":Measurement", docepm);
+        locatedIn = dataFactory.getOWLObjectProperty(":locatedIn", docepm);
+        measuredQualityKind = dataFactory.getOWLObjectProperty(":measuredQualityKind", docepm);
+        expressedIn = dataFactory.getOWLObjectProperty(":expressedIn", docepm);
+        participatedIn = dataFactory.getOWLObjectProperty(":participatedIn", gufopm);
+        nearestStation = dataFactory.getOWLObjectProperty(":nearestStation", integradocepm);
+        hasQualityValue = dataFactory.getOWLDataProperty(":hasQualityValue", gufopm);
+        hasBeginPointInXSDDateTimeStamp = dataFactory.getOWLDataProperty(":hasBeginPointInXSDDateTimeStamp", gufopm);
+        hasEndPointInXSDDateTimeStamp = dataFactory.getOWLDataProperty(":hasEndPointInXSDDateTimeStamp", gufopm);
+        wgsLat = dataFactory.getOWLDataProperty(":lat", wgspm);
+        wgsLong = dataFactory.getOWLDataProperty(":long", wgspm);
+        commentProperty = dataFactory.getOWLDataProperty(":comment", rdfspm);
+        labelProperty = dataFactory.getOWLDataProperty(":label", rdfspm);
+
+        aggregateClass = dataFactory.getOWLClass(":MeasurementAggregate", integradocepm);
+        aggregationPeriod = dataFactory.getOWLDataProperty(":aggregationPeriod", integradocepm);
+        minimumValue = dataFactory.getOWLDataProperty(":minimumValue", integradocepm);
+        maximumValue = dataFactory.getOWLDataProperty(":maximumValue", integradocepm);
+        meanValue = dataFactory.getOWLDataProperty(":meanValue", integradocepm);
+        measurementCount = dataFactory.getOWLDataProperty(":measurementCount", integradocepm);
+        durationDatatype = dataFactory.getOWLDatatype(IRI.create("http://www.w3.org/2001/XMLSchema#duration"));
+
+        points = new InternCache<>(10000, code -> dataFactory.getOWLNamedIndividual(code, integradocepm));
+        individuals = new InternCache<>(10000, iri -> dataFactory.getOWLNamedIndividual(IRI.create(iri)));
+        measurementPrefixes = new InternCache<>(10000,
+                iri -> integradocepm.getDefaultPrefix() + IRI.create(iri).getShortForm() + "Measurement");
     }
 
     /**
@@ -72,21 +275,148 @@ public class Load {
 
 
     /**
-     * Loads "doce" from <http://purl.org/nemo/doce>.
+     * Loads "doce" from <http://purl.org/nemo/doce>, or from the local copy in
+     * {@link #DEFAULT_ONTOLOGY_CACHE} if there is one.
      * 
      * @return
      * @throws OWLOntologyCreationException
      * @throws OWLOntologyStorageException
      */
 	public static OWLOntology loadDoce() throws OWLOntologyCreationException, OWLOntologyStorageException {
+		return loadDoce(DEFAULT_ONTOLOGY_CACHE, false);
+	}
+
+    /**
+     * Loads "doce" from the local copy in cacheFile, if there is one.
+     * 
+     * Otherwise, or if refresh is set, loads it from <http://purl.org/nemo/doce>
+     * and saves it to cacheFile. If it cannot be loaded from the web, falls back
+     * to the local copy or, if there is none, to the copy bundled with the
+     * application (doce.ttl in the classpath).
+     * 
+     * @param cacheFile
+     * @param refresh
+     * @return
+     * @throws OWLOntologyCreationException
+     */
+    public static OWLOntology loadDoce(File cacheFile, boolean refresh) throws OWLOntologyCreationException {
+        if (cacheFile.isFile() && !refresh) {
+            LOGGER.info("Loading doce ontology from local copy " + cacheFile);
+            return loadLocalCopy(new FileDocumentSource(cacheFile));
+        }
+
     	// based on
     	// https://github.com/owlcs/owlapi/blob/version4/contract/src/test/java/org/semanticweb/owlapi/examples/Examples.java
 
-		IRI ontologyIRI = IRI.create("http://purl.org/nemo/doce");
-		OWLOntology ontology = manager.loadOntology(ontologyIRI);
+		IRI ontologyIRI = DOCE_IRI;
+		OWLOntology ontology;
+		try {
+			ontology = manager.loadOntology(ontologyIRI);
+		} catch (OWLOntologyCreationException | OWLRuntimeException e) {
+			if (cacheFile.isFile()) {
+				LOGGER.warning("Could not load doce ontology from " + ontologyIRI + " (" + e.getMessage()
+						+ "), using local copy " + cacheFile);
+				return loadLocalCopy(new FileDocumentSource(cacheFile));
+			}
+			LOGGER.warning("Could not load doce ontology from " + ontologyIRI + " (" + e.getMessage()
+					+ "), using the copy bundled with the application");
+			try {
+				return loadBundledCopy(BUNDLED_ONTOLOGY);
+			} catch (OWLOntologyCreationException bundledFailure) {
+				bundledFailure.addSuppressed(e);
+				throw bundledFailure;
+			}
+		}
+
+		// keep the ontology in the format it was served, so that the output does
+		// not depend on where it was loaded from
+		try {
+			cacheFile.getAbsoluteFile().getParentFile().mkdirs();
+			manager.saveOntology(ontology, manager.getOntologyFormat(ontology), IRI.create(cacheFile.toURI()));
+			LOGGER.info("Saved local copy of doce ontology to " + cacheFile);
+		} catch (OWLOntologyStorageException e) {
+			LOGGER.warning("Could not save local copy of doce ontology to " + cacheFile + ": " + e.getMessage());
+		}
 		return ontology;
 	}
 
+    /**
+     * Starts loading "doce" (see {@link #loadDoce(File, boolean)}) in a
+     * background thread, so that input files can be read in the meantime.
+     * 
+     * @param cacheFile
+     * @param refresh
+     * @return the ontology, once loaded
+     */
+    public static Future<OWLOntology> loadDoceInBackground(File cacheFile, boolean refresh) {
+        FutureTask<OWLOntology> task = new FutureTask<>(() -> loadDoce(cacheFile, refresh));
+        Thread thread = new Thread(task, "doce-loader");
+        thread.setDaemon(true);
+        thread.start();
+        return task;
+    }
+
+    /**
+     * Loads the copy of "doce" bundled with the application, from the given
+     * resource in the classpath (e.g. {@link #BUNDLED_ONTOLOGY}).
+     * 
+     * @param resource
+     * @return
+     * @throws OWLOntologyCreationException if there is no such resource (e.g.
+     *                                      the build could not bundle the
+     *                                      ontology, see {@link OntologyBundle})
+     */
+    static OWLOntology loadBundledCopy(String resource) throws OWLOntologyCreationException {
+        InputStream bundled = Load.class.getResourceAsStream(resource);
+        if (bundled == null)
+            throw new OWLOntologyCreationException("There is no copy of the doce ontology bundled with the application ("
+                    + resource + " is not in the classpath): build with a local copy in ~/.integradoce/doce.ttl or with network access, or "
+                    + "give a local copy with --ontology-cache");
+        try (InputStream in = bundled) {
+            return loadLocalCopy(new StreamDocumentSource(in));
+        } catch (IOException closeFailure) {
+            throw new OWLOntologyCreationException(closeFailure);
+        }
+    }
+
+    /**
+     * Creates an empty ontology for the data alone, instead of loading "doce"
+     * to add the data to it: it only imports doce (owl:imports
+     * &lt;http://purl.org/nemo/doce&gt;), so the data can be loaded into a
+     * triple store that has doce already, and is written with the prefixes of
+     * doce and with integradoce: for the individuals.
+     * 
+     * @return
+     * @throws OWLOntologyCreationException
+     */
+    public static OWLOntology createDataOntology() throws OWLOntologyCreationException {
+        OWLOntology ontology = manager.createOntology(DATA_ONTOLOGY_IRI);
+        manager.applyChange(new AddImport(ontology, dataFactory.getOWLImportsDeclaration(DOCE_IRI)));
+        TurtleDocumentFormat format = new TurtleDocumentFormat();
+        format.setDefaultPrefix(docepm.getDefaultPrefix());
+        format.setPrefix("owl:", "http://www.w3.org/2002/07/owl#");
+        format.setPrefix("rdf:", "http://www.w3.org/1999/02/22-rdf-syntax-ns#");
+        format.setPrefix("xml:", "http://www.w3.org/XML/1998/namespace");
+        format.setPrefix("xsd:", "http://www.w3.org/2001/XMLSchema#");
+        format.setPrefix("rdfs:", rdfspm.getDefaultPrefix());
+        format.setPrefix("gufo:", gufopm.getDefaultPrefix());
+        format.setPrefix("wgs:", wgspm.getDefaultPrefix());
+        format.setPrefix("unit:", "http://qudt.org/vocab/unit/");
+        format.setPrefix("integradoce:", integradocepm.getDefaultPrefix());
+        manager.setOntologyFormat(ontology, format);
+        return ontology;
+    }
+
+    /**
+     * Loads a local copy of "doce". Its imports are not required to be
+     * available, as there may be no network access.
+     */
+    private static OWLOntology loadLocalCopy(OWLOntologyDocumentSource source) throws OWLOntologyCreationException {
+        OWLOntologyLoaderConfiguration config = new OWLOntologyLoaderConfiguration()
+                .setMissingImportHandlingStrategy(MissingImportHandlingStrategy.SILENT);
+        return manager.loadOntologyFromOntologyDocument(source, config);
+    }
+
     /**
      * Add well-known entities that will be required in the extract and transform processes.
      * 
@@ -96,15 +426,14 @@ public class Load {
      */
 	public static void addWellKnownEntities(OWLOntology ontology) {
                 // add agent for Renova
-		OWLClass agentClass = dataFactory.getOWLClass(":Agent", docepm);
 		OWLClassAssertionAxiom classAssertion = dataFactory.getOWLClassAssertionAxiom(agentClass,
 				dataFactory.getOWLNamedIndividual("Renova", integradocepm));
-		manager.addAxiom(ontology, classAssertion);
+		addAxiom(ontology, classAssertion);
 
                 // add agent for UNESP team
 		classAssertion = dataFactory.getOWLClassAssertionAxiom(agentClass,
 				dataFactory.getOWLNamedIndividual("IntegradoceUNESP", integradocepm));
-                manager.addAxiom(ontology, classAssertion);
+                addAxiom(ontology, classAssertion);
         }
 
     /**
@@ -122,32 +451,30 @@ public class Load {
 	public static void addGeographicPoint(OWLOntology ontology, String pointIRI, float lat, float lon, String commentValue,
 			String labelValue) {
 
-		OWLClass geopointClass = dataFactory.getOWLClass(":GeographicPoint", docepm);
-		OWLNamedIndividual geopoint = dataFactory.getOWLNamedIndividual(pointIRI, integradocepm);
+		List<OWLAxiom> axioms = new ArrayList<>(5);
+
+		geoPoints.add(pointIRI, lat, lon);
+		OWLNamedIndividual geopoint = points.get(pointIRI);
 		OWLClassAssertionAxiom classAssertion = dataFactory.getOWLClassAssertionAxiom(geopointClass, geopoint);
-		manager.addAxiom(ontology, classAssertion);
+		axioms.add(classAssertion);
 
 		// OWLDataProperty hasLatitude = dataFactory.getOWLDataProperty(":hasLatitude", docepm);
 		// OWLDataProperty hasLongitude = dataFactory.getOWLDataProperty(":hasLongitude", docepm);
-		
-                OWLDataProperty wgsLat = dataFactory.getOWLDataProperty(":lat", wgspm);
-                OWLDataProperty wgsLong = dataFactory.getOWLDataProperty(":long", wgspm);
-
-		OWLDataProperty commentProperty = dataFactory.getOWLDataProperty(":comment", rdfspm);
-		OWLDataProperty labelProperty = dataFactory.getOWLDataProperty(":label", rdfspm);
 
 		OWLDataPropertyAssertionAxiom dataPropertyAssertion = dataFactory.getOWLDataPropertyAssertionAxiom(wgsLat,
 				geopoint, lat);
-		manager.addAxiom(ontology, dataPropertyAssertion);
+		axioms.add(dataPropertyAssertion);
 
 		dataPropertyAssertion = dataFactory.getOWLDataPropertyAssertionAxiom(wgsLong, geopoint, lon);
-		manager.addAxiom(ontology, dataPropertyAssertion);
+		axioms.add(dataPropertyAssertion);
 
 		dataPropertyAssertion = dataFactory.getOWLDataPropertyAssertionAxiom(commentProperty, geopoint, commentValue);
-		manager.addAxiom(ontology, dataPropertyAssertion);
+		axioms.add(dataPropertyAssertion);
 
 		dataPropertyAssertion = dataFactory.getOWLDataPropertyAssertionAxiom(labelProperty, geopoint, labelValue);
-		manager.addAxiom(ontology, dataPropertyAssertion);
+		axioms.add(dataPropertyAssertion);
+
+		addAxioms(ontology, axioms);
 
 //        OWLDatatype integerDatatype = factory.getOWLDatatype(OWL2Datatype.XSD_INTEGER.getIRI());
 //        // Create a typed literal. We type the literal "51" with the datatype
@@ -159,6 +486,147 @@ public class Load {
 
     public static void addMeasurement(OWLOntology ontology, String geopointCode, String qualityKindIRI, String unitIRI,
             float value, Date date, String agentIRI) {
+        addMeasurement(ontology, geopointCode, qualityKindIRI, unitIRI, value, date, agentIRI, null);
+    }
+
+    /**
+     * Adds a measurement (instance of doce:Measurement) of a quality kind at a
+     * geographic point.
+     * 
+     * @param ontology
+     * @param geopointCode   code of the geographic point (e.g. ":RCA-01")
+     * @param qualityKindIRI
+     * @param unitIRI
+     * @param value
+     * @param date           time of the measurement, or null if unknown
+     * @param agentIRI       source of the measurement
+     * @param sourceKey      identifies the measurement among those of the same
+     *                       quality kind at the same point and time in the source
+     *                       (e.g. the column and the sample type), or null
+     */
+    public static void addMeasurement(OWLOntology ontology, String geopointCode, String qualityKindIRI, String unitIRI,
+            float value, Date date, String agentIRI, String sourceKey) {
+        long time = date == null ? MeasurementBuffer.NO_TIME : date.getTime();
+        AxiomBuffer buffer = collector.get();
+        if (buffer != null) {
+            // appended to the last buffer of measurements of the records, if any
+            int last = buffer.records() - 1;
+            MeasurementBuffer measurements = last < 0 ? null : buffer.getMeasurements(last);
+            if (measurements == null || measurements.isFull()) {
+                measurements = new MeasurementBuffer();
+                buffer.addMeasurements(measurements);
+            }
+            measurements.add(geopointCode, qualityKindIRI, unitIRI, value, time, agentIRI, sourceKey);
+            return;
+        }
+        if (isNew(geopointCode, qualityKindIRI, unitIRI, value, time, agentIRI, sourceKey)) {
+            checkPoint(geopointCode);
+            addAxioms(ontology, measurementAxioms(geopointCode, qualityKindIRI, unitIRI, value, time, agentIRI,
+                    sourceKey));
+        }
+    }
+
+    /**
+     * Adds the measurements in the buffer, as
+     * {@link #addMeasurement(OWLOntology, String, String, String, float, Date, String, String)}
+     * adds each one. If the current thread is collecting into an
+     * {@link AxiomBuffer}, the buffer is added to it, and the axioms of the
+     * measurements are created when that is added (see
+     * {@link #addAll(OWLOntology, AxiomBuffer)}).
+     * 
+     * @param ontology
+     * @param measurements
+     */
+    public static void addMeasurements(OWLOntology ontology, MeasurementBuffer measurements) {
+        AxiomBuffer buffer = collector.get();
+        if (buffer != null) {
+            buffer.addMeasurements(measurements);
+            return;
+        }
+        Rollups rolledUp = measurements.isTelemetry() ? rollups : null;
+        List<Rollups.Aggregate> closed = new ArrayList<>();
+        // in one change, if they go to the ontology; the sink may compare
+        // measurements (see IncrementalSink)
+        List<OWLAxiom> kept = sink == null ? new ArrayList<>(measurements.size() * 8) : null;
+        for (int i = 0; i < measurements.size(); i++) {
+            String point = measurements.point(i), qualityKind = measurements.qualityKind(i),
+                    unit = measurements.unit(i), agent = measurements.agent(i),
+                    sourceKey = measurements.sourceKey(i);
+            float value = measurements.value(i);
+            long time = measurements.time(i);
+            if (!isNew(point, qualityKind, unit, value, time, agent, sourceKey))
+                continue;
+            checkPoint(point);
+            if (rolledUp != null && time != MeasurementBuffer.NO_TIME) {
+                boolean rolledUpInAll = rolledUp.add(point, qualityKind, unit, agent, time, value, closed);
+                for (Rollups.Aggregate aggregate : closed) {
+                    if (kept != null)
+                        kept.addAll(aggregateAxioms(aggregate));
+                    else
+                        addAxioms(ontology, aggregateAxioms(aggregate));
+                }
+                closed.clear();
+                // a late measurement is kept, as it is not in all of its rollups
+                if (rolledUpInAll && !rolledUp.keepsMeasurements()) {
+                    EtlMetrics.measurementEmitted(0);
+                    continue;
+                }
+            }
+            List<OWLAxiom> axioms = measurementAxioms(point, qualityKind, unit, value, time, agent, sourceKey);
+            if (kept != null)
+                kept.addAll(axioms);
+            else
+                addAxioms(ontology, axioms);
+        }
+        if (kept != null)
+            addAxioms(ontology, kept);
+    }
+
+    /**
+     * Returns false if a measurement is left out as a duplicate of one added
+     * before (see {@link #setDeduplication(boolean)}).
+     */
+    private static boolean isNew(String geopointCode, String qualityKindIRI, String unitIRI, float value, long time,
+            String agentIRI, String sourceKey) {
+        MeasurementKeySet keys = measurementKeys;
+        if (keys == null)
+            return true;
+        byte[] key = measurementKey(geopointCode, qualityKindIRI, unitIRI, value, time, agentIRI, sourceKey);
+        long high = keyHigh(key), low = keyLow(key);
+        MeasurementKeySet previous = previousMeasurementKeys;
+        if ((previous == null || !previous.contains(high, low)) && keys.add(high, low)) {
+            int limit = measurementKeyLimit;
+            if (limit > 0 && keys.size() >= limit)
+                forgetOldestKeys(keys);
+            return true;
+        }
+        EtlMetrics.measurementEmitted(0);
+        EtlMetrics.duplicateRemoved();
+        return false;
+    }
+
+    /**
+     * Counts a measurement at a point that is not among the geographic points
+     * added so far (e.g. a code missing from the points file), logging each
+     * such point once. The points files are read before the data files.
+     */
+    private static void checkPoint(String geopointCode) {
+        if (geoPoints.contains(geopointCode))
+            return;
+        EtlMetrics.unknownPointFound();
+        if (unknownPoints.size() >= LOGGED_UNKNOWN_POINTS)
+            unknownPoints.clear();
+        if (unknownPoints.add(geopointCode))
+            LOGGER.warning("Measurements at geographic point " + geopointCode
+                    + ", which is not in any geographic points file");
+    }
+
+    /**
+     * Returns the axioms of a measurement (that is not a duplicate, see
+     * {@link #isNew(String, String, String, float, long, String, String)}).
+     */
+    private static List<OWLAxiom> measurementAxioms(String geopointCode, String qualityKindIRI, String unitIRI,
+            float value, long time, String agentIRI, String sourceKey) {
 
         // :WaterTransparencyMeasurement314020-2017-1 rdf:type owl:NamedIndividual ,
         // doce:Measurement ;
@@ -172,72 +640,652 @@ public class Load {
         // "2009-08-17T14:24:00-03:00"^^xsd:dateTimeStamp ;
         // gufo:hasQualityValue "0.43"^^xsd:double .
 
-        OWLClass qualityKindClass = dataFactory.getOWLClass(qualityKindIRI);
-        OWLClass measurementClass = dataFactory.getOWLClass(":Measurement", docepm);
-        IRI measurementIRI = IRI.getNextDocumentIRI(
-                integradocepm.getDefaultPrefix() + qualityKindClass.getIRI().getShortForm() + "Measurement");
+        List<OWLAxiom> axioms = new ArrayList<>(8);
+
+        IRI measurementIRI = measurementIRI(geopointCode, qualityKindIRI, value, time, agentIRI, sourceKey);
         OWLNamedIndividual measurement = dataFactory.getOWLNamedIndividual(measurementIRI);
         OWLClassAssertionAxiom classAssertion = dataFactory.getOWLClassAssertionAxiom(measurementClass, measurement);
         // System.out.println(classAssertion);
-        manager.addAxiom(ontology, classAssertion);
+        axioms.add(classAssertion);
 
-        OWLObjectProperty locatedIn = dataFactory.getOWLObjectProperty(":locatedIn", docepm);
-        OWLNamedIndividual geopoint = dataFactory.getOWLNamedIndividual(geopointCode, integradocepm);
+        OWLNamedIndividual geopoint = points.get(geopointCode);
         OWLObjectPropertyAssertionAxiom objPropertyAssertion = dataFactory.getOWLObjectPropertyAssertionAxiom(locatedIn,
                 measurement, geopoint);
-        manager.addAxiom(ontology, objPropertyAssertion);
+        axioms.add(objPropertyAssertion);
 
-        OWLObjectProperty measuredQualityKind = dataFactory.getOWLObjectProperty(":measuredQualityKind", docepm);
-        OWLNamedIndividual qualityKind = dataFactory.getOWLNamedIndividual(qualityKindIRI);
+        OWLNamedIndividual qualityKind = individuals.get(qualityKindIRI);
         objPropertyAssertion = dataFactory.getOWLObjectPropertyAssertionAxiom(measuredQualityKind, measurement,
                 qualityKind);
-        manager.addAxiom(ontology, objPropertyAssertion);
+        axioms.add(objPropertyAssertion);
 
-        OWLObjectProperty expressedIn = dataFactory.getOWLObjectProperty(":expressedIn", docepm);
-        OWLNamedIndividual unit = dataFactory.getOWLNamedIndividual(unitIRI);
+        OWLNamedIndividual unit = individuals.get(unitIRI);
         objPropertyAssertion = dataFactory.getOWLObjectPropertyAssertionAxiom(expressedIn, measurement, unit);
-        manager.addAxiom(ontology, objPropertyAssertion);
+        axioms.add(objPropertyAssertion);
 
-        OWLDataProperty hasQualityValue = dataFactory.getOWLDataProperty(":hasQualityValue", gufopm);
         OWLDataPropertyAssertionAxiom dataPropertyAssertion = dataFactory
                 .getOWLDataPropertyAssertionAxiom(hasQualityValue, measurement, value);
-        manager.addAxiom(ontology, dataPropertyAssertion);
+        axioms.add(dataPropertyAssertion);
 
-        if (date != null) {
-            OWLDataProperty hasBeginPointInXSDDateTimeStamp = dataFactory
-                    .getOWLDataProperty(":hasBeginPointInXSDDateTimeStamp", gufopm);
-            OWLLiteral ol = dataFactory.getOWLLiteral(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ").format(date),
+        if (time != MeasurementBuffer.NO_TIME) {
+            // the same literal for the begin and end points
+            OWLLiteral ol = dataFactory.getOWLLiteral(ValueCodec.formatDateTimeStamp(time),
                     OWL2Datatype.XSD_DATE_TIME_STAMP);
             dataPropertyAssertion = dataFactory.getOWLDataPropertyAssertionAxiom(hasBeginPointInXSDDateTimeStamp,
                     measurement, ol);
-            manager.addAxiom(ontology, dataPropertyAssertion);
+            axioms.add(dataPropertyAssertion);
 
-            OWLDataProperty hasEndPointInXSDDateTimeStamp = dataFactory.getOWLDataProperty(
-                    ":hasEndPointInXSDDateTimeStamp",
-                    gufopm);
-            ol = dataFactory.getOWLLiteral(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ").format(date),
-                    OWL2Datatype.XSD_DATE_TIME_STAMP);
             dataPropertyAssertion = dataFactory.getOWLDataPropertyAssertionAxiom(hasEndPointInXSDDateTimeStamp,
                     measurement,
                     ol);
-            manager.addAxiom(ontology, dataPropertyAssertion);
+            axioms.add(dataPropertyAssertion);
         }
 
         // FIXME treat status
         // FIXME add doce:measured
 
-        OWLObjectProperty participatedIn = dataFactory.getOWLObjectProperty(":participatedIn", gufopm);
-        OWLNamedIndividual agent = dataFactory.getOWLNamedIndividual(agentIRI);
+        OWLNamedIndividual agent = individuals.get(agentIRI);
         objPropertyAssertion = dataFactory.getOWLObjectPropertyAssertionAxiom(participatedIn, agent, measurement);
-        manager.addAxiom(ontology, objPropertyAssertion);
+        axioms.add(objPropertyAssertion);
 
+        EtlMetrics.measurementEmitted(axioms.size());
+        return axioms;
     }
 
+    /**
+     * Returns the axioms of a rollup of measurements, e.g.
+     * 
+     * :pHHourlyAggregate-1c9e... rdf:type integradoce:MeasurementAggregate ;
+     *         doce:locatedIn :RCA-01 ;
+     *         doce:measuredQualityKind doce:pH ;
+     *         doce:expressedIn unit:UNITLESS ;
+     *         gufo:hasBeginPointInXSDDateTimeStamp "2017-08-01T00:00:00-03:00"^^xsd:dateTimeStamp ;
+     *         gufo:hasEndPointInXSDDateTimeStamp "2017-08-01T01:00:00-03:00"^^xsd:dateTimeStamp ;
+     *         integradoce:aggregationPeriod "PT1H"^^xsd:duration ;
+     *         integradoce:minimumValue "6.9"^^xsd:float ;
+     *         integradoce:maximumValue "7.1"^^xsd:float ;
+     *         integradoce:meanValue "7.0"^^xsd:double ;
+     *         integradoce:measurementCount 2 .
+     * 
+     * The end point is the start of the next period.
+     */
+    private static List<OWLAxiom> aggregateAxioms(Rollups.Aggregate aggregate) {
+        List<OWLAxiom> axioms = new ArrayList<>(12);
+
+        MessageDigest digest = measurementDigest.get();
+        updateDigest(digest, aggregate.point);
+        updateDigest(digest, aggregate.qualityKind);
+        updateDigest(digest, aggregate.unit);
+        updateDigest(digest, aggregate.agent);
+        updateDigest(digest, aggregate.period.duration);
+        updateDigest(digest, Long.toString(aggregate.start));
+        byte[] hash = digest.digest();
+        StringBuilder iri = new StringBuilder(integradocepm.getDefaultPrefix())
+                .append(IRI.create(aggregate.qualityKind).getShortForm()).append(aggregate.period.label)
+                .append("Aggregate-");
+        for (int i = 0; i < 16; i++)
+            iri.append(HEX_DIGITS[(hash[i] >> 4) & 0xf]).append(HEX_DIGITS[hash[i] & 0xf]);
+        OWLNamedIndividual individual = dataFactory.getOWLNamedIndividual(IRI.create(iri.toString()));
+
+        axioms.add(dataFactory.getOWLClassAssertionAxiom(aggregateClass, individual));
+        axioms.add(dataFactory.getOWLObjectPropertyAssertionAxiom(locatedIn, individual,
+                points.get(aggregate.point)));
+        axioms.add(dataFactory.getOWLObjectPropertyAssertionAxiom(measuredQualityKind, individual,
+                individuals.get(aggregate.qualityKind)));
+        axioms.add(dataFactory.getOWLObjectPropertyAssertionAxiom(expressedIn, individual,
+                individuals.get(aggregate.unit)));
+        axioms.add(dataFactory.getOWLDataPropertyAssertionAxiom(hasBeginPointInXSDDateTimeStamp, individual,
+                dataFactory.getOWLLiteral(ValueCodec.formatDateTimeStamp(aggregate.start),
+                        OWL2Datatype.XSD_DATE_TIME_STAMP)));
+        axioms.add(dataFactory.getOWLDataPropertyAssertionAxiom(hasEndPointInXSDDateTimeStamp, individual,
+                dataFactory.getOWLLiteral(ValueCodec.formatDateTimeStamp(aggregate.end),
+                        OWL2Datatype.XSD_DATE_TIME_STAMP)));
+        axioms.add(dataFactory.getOWLDataPropertyAssertionAxiom(aggregationPeriod, individual,
+                dataFactory.getOWLLiteral(aggregate.period.duration, durationDatatype)));
+        axioms.add(dataFactory.getOWLDataPropertyAssertionAxiom(minimumValue, individual, aggregate.min));
+        axioms.add(dataFactory.getOWLDataPropertyAssertionAxiom(maximumValue, individual, aggregate.max));
+        axioms.add(dataFactory.getOWLDataPropertyAssertionAxiom(meanValue, individual, aggregate.mean()));
+        axioms.add(dataFactory.getOWLDataPropertyAssertionAxiom(measurementCount, individual, aggregate.count));
+        axioms.add(dataFactory.getOWLObjectPropertyAssertionAxiom(participatedIn, individuals.get(aggregate.agent),
+                individual));
+        return axioms;
+    }
 
+    /**
+     * Sets the maximum distance, in kilometres, from a sampling site to the
+     * station that {@link #linkNearestStations(OWLOntology, String)} links it
+     * to, or 0 not to link sites (the default).
+     * 
+     * @param km
+     */
+    static void setStationLinkRadius(double km) {
+        stationLinkKm = km;
+    }
 
+    /**
+     * Links each geographic point whose code starts with sitePrefix (e.g. the
+     * UNESP sampling sites) to the nearest other point (e.g. a Renova PMQQS
+     * station) within the distance set by {@link #setStationLinkRadius(double)},
+     * with integradoce:nearestStation. The points are looked up in a spatial
+     * index (see {@link GeoPointIndex}). Sites linked by an earlier call are not
+     * linked again, unless they have been added again since (e.g. from a
+     * changed points file).
+     * 
+     * @param ontology
+     * @param sitePrefix
+     */
+    public static void linkNearestStations(OWLOntology ontology, String sitePrefix) {
+        double maxKm = stationLinkKm;
+        if (maxKm <= 0)
+            return;
+        List<GeoPointIndex.Point> sites = geoPoints
+                .points(code -> code.startsWith(sitePrefix));
+        sites.removeIf(site -> site.linked);
+        sites.sort(Comparator.comparing(site -> site.code));
+        List<OWLAxiom> axioms = new ArrayList<>(sites.size());
+        for (GeoPointIndex.Point site : sites) {
+            GeoPointIndex.Point station = geoPoints.nearest(site.lat, site.lon, maxKm,
+                    code -> !code.startsWith(sitePrefix));
+            if (station == null) {
+                LOGGER.info("No station within " + maxKm + " km of " + site.code);
+                continue;
+            }
+            axioms.add(dataFactory.getOWLObjectPropertyAssertionAxiom(nearestStation, points.get(site.code),
+                    points.get(station.code)));
+            site.linked = true;
+        }
+        addAxioms(ontology, axioms);
+        LOGGER.info("Linked " + axioms.size() + " of " + sites.size() + " sampling sites to the nearest station");
+    }
+
+    /**
+     * Sets the periods in which the values of the telemetry measurements (see
+     * {@link MeasurementBuffer#isTelemetry()}) are rolled up into their minimum,
+     * maximum, mean and count, per point, quality kind, unit and source (see
+     * {@link Rollups}), or, if periods is empty, that they are not rolled up
+     * (the default).
+     * 
+     * The rollups are added as the measurements are, and those of the last
+     * periods by {@link #flushRollups(OWLOntology)}.
+     * 
+     * @param periods
+     * @param keepMeasurements whether the rolled up measurements are added as
+     *                         well, or only their rollups
+     */
+    static void setRollups(Set<Rollups.Period> periods, boolean keepMeasurements) {
+        rollups = periods.isEmpty() ? null : new Rollups(periods, keepMeasurements);
+    }
+
+    /**
+     * Adds the rollups of the last periods (see {@link #setRollups(Set, boolean)}),
+     * once all measurements have been added.
+     * 
+     * @param ontology
+     */
+    public static void flushRollups(OWLOntology ontology) {
+        Rollups rolledUp = rollups;
+        if (rolledUp == null)
+            return;
+        List<Rollups.Aggregate> closed = new ArrayList<>();
+        rolledUp.flush(closed);
+        List<OWLAxiom> axioms = new ArrayList<>(closed.size() * 12);
+        for (Rollups.Aggregate aggregate : closed)
+            axioms.addAll(aggregateAxioms(aggregate));
+        addAxioms(ontology, axioms);
+        LOGGER.info("Rolled up " + rolledUp.getMeasurements() + " telemetry measurements into "
+                + rolledUp.getAggregates() + " aggregates (" + rolledUp.getLate()
+                + " left out of some period for arriving after a later one"
+                + (rolledUp.keepsMeasurements() ? "" : ", and kept as measurements") + ")");
+    }
+
+
+
+    /**
+     * Returns the IRI of a new measurement, e.g.
+     * integradoce:pHMeasurement-5f0c...: with a hash of the point, quality kind,
+     * value, time, agent and source key, so that the same measurement gets the
+     * same IRI in every run, or, if content-derived IRIs are disabled, with a
+     * sequence number. A revised value makes a new measurement, rather than a
+     * second value of the same one.
+     */
+    private static IRI measurementIRI(String geopointCode, String qualityKindIRI, float value, long time,
+            String agentIRI, String sourceKey) {
+        String prefix = measurementPrefixes.get(qualityKindIRI);
+        if (!contentDerivedIRIs)
+            return IRI.getNextDocumentIRI(prefix);
+
+        MessageDigest digest = measurementDigest.get();
+        updateDigest(digest, geopointCode);
+        updateDigest(digest, qualityKindIRI);
+        updateDigest(digest, Integer.toHexString(Float.floatToIntBits(value)));
+        updateDigest(digest, time == MeasurementBuffer.NO_TIME ? "" : Long.toString(time));
+        updateDigest(digest, agentIRI);
+        updateDigest(digest, sourceKey == null ? "" : sourceKey);
+        byte[] hash = digest.digest();
+
+        // 128 bits of the hash
+        StringBuilder iri = new StringBuilder(prefix.length() + 33).append(prefix).append('-');
+        for (int i = 0; i < 16; i++)
+            iri.append(HEX_DIGITS[(hash[i] >> 4) & 0xf]).append(HEX_DIGITS[hash[i] & 0xf]);
+        return IRI.create(iri.toString());
+    }
+
+    /**
+     * Returns a hash of the point, quality kind, unit, value, time, agent and
+     * source key of a measurement, whose first 128 bits identify it (see
+     * {@link #setDeduplication(boolean)}).
+     */
+    private static byte[] measurementKey(String geopointCode, String qualityKindIRI, String unitIRI, float value,
+            long time, String agentIRI, String sourceKey) {
+        MessageDigest digest = measurementDigest.get();
+        updateDigest(digest, geopointCode);
+        updateDigest(digest, qualityKindIRI);
+        updateDigest(digest, unitIRI);
+        updateDigest(digest, Integer.toHexString(Float.floatToIntBits(value)));
+        updateDigest(digest, time == MeasurementBuffer.NO_TIME ? "" : Long.toString(time));
+        updateDigest(digest, agentIRI);
+        updateDigest(digest, sourceKey == null ? "" : sourceKey);
+        return digest.digest();
+    }
+
+    private static long keyHigh(byte[] key) {
+        return ByteBuffer.wrap(key).getLong(0);
+    }
+
+    private static long keyLow(byte[] key) {
+        return ByteBuffer.wrap(key).getLong(8);
+    }
+
+    /**
+     * Sets whether measurements with the same point, quality kind, unit, value,
+     * time, agent and source key as one added before (e.g. from overlapping
+     * Renova exports) are left out (the default), and forgets the measurements
+     * added so far.
+     * 
+     * @param deduplicate
+     */
+    public static void setDeduplication(boolean deduplicate) {
+        setDeduplication(deduplicate, 0);
+    }
+
+    /**
+     * Sets whether duplicate measurements are left out, as
+     * {@link #setDeduplication(boolean)}, remembering only the last measurements
+     * added if limit is not 0: once limit measurements have been added, those
+     * added before them are forgotten, so that at most about twice the limit
+     * are kept (e.g. with --watch, which runs for an indefinite time). A
+     * measurement is then only left out if it is a duplicate of a recent one.
+     * 
+     * @param deduplicate
+     * @param limit       number of measurements after which the older ones
+     *                    are forgotten, or 0 to remember them all
+     */
+    static synchronized void setDeduplication(boolean deduplicate, int limit) {
+        previousMeasurementKeys = null;
+        measurementKeys = deduplicate ? new MeasurementKeySet() : null;
+        measurementKeyLimit = limit;
+    }
+
+    /**
+     * Forgets the keys before the given ones (if they are still the current
+     * ones), which become the previous keys.
+     */
+    private static synchronized void forgetOldestKeys(MeasurementKeySet keys) {
+        if (measurementKeys != keys)
+            return;
+        previousMeasurementKeys = keys;
+        measurementKeys = new MeasurementKeySet();
+        LOGGER.info("Forgot the oldest measurements read, to leave out duplicates of only the last "
+                + measurementKeyLimit + " to " + 2L * measurementKeyLimit);
+    }
+
+    private static void updateDigest(MessageDigest digest, String field) {
+        digest.update(field.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+    /**
+     * Sets whether measurement IRIs are derived from the measurement content
+     * (the default), so that they are the same in every run and do not depend on
+     * the order in which files are processed, or numbered sequentially (as
+     * {@link IRI#getNextDocumentIRI(String)}).
+     * 
+     * @param contentDerived
+     */
+    public static void setContentDerivedIRIs(boolean contentDerived) {
+        contentDerivedIRIs = contentDerived;
+    }
+
+    /**
+     * Starts writing to the given file as axioms are added, instead of adding
+     * them to the ontology, in the format given by the extension of the file
+     * (see {@link OutputFormat#forFile(String)}), or Turtle.
+     * 
+     * @param ontology
+     * @param pathname
+     * @throws IOException
+     * @throws OWLOntologyStorageException
+     */
+    public static void openSink(OWLOntology ontology, String pathname)
+            throws IOException, OWLOntologyStorageException {
+        OutputFormat format = OutputFormat.forFile(pathname);
+        openSink(ontology, pathname, format != null ? format : OutputFormat.TURTLE);
+    }
+
+    /**
+     * Starts writing to the given file as axioms are added, instead of adding
+     * them to the ontology. The ontology (with the prefixes of its document
+     * format) is written first, followed by the triples of each axiom as soon as
+     * it is added.
+     * 
+     * The file is completed by {@link #save(OWLOntology, String)}.
+     * 
+     * @param ontology
+     * @param pathname
+     * @param format
+     * @throws IOException
+     * @throws OWLOntologyStorageException
+     */
+    public static void openSink(OWLOntology ontology, String pathname, OutputFormat format)
+            throws IOException, OWLOntologyStorageException {
+        declareVocabulary(ontology);
+        sink = startOutput(ontology, manager.getOntologyFormat(ontology), pathname, format);
+    }
+
+    /**
+     * Writes the header ontology to the file and returns the sink for the
+     * triples that follow it. The file is written through a buffered channel
+     * (compressed, if the format is), as the triples are produced.
+     */
+    private static TripleSink startOutput(OWLOntology header, OWLDocumentFormat ontologyFormat, String pathname,
+            OutputFormat outputFormat) throws IOException, OWLOntologyStorageException {
+        FileChannel channel = FileChannel.open(Paths.get(pathname), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16);
+        if (outputFormat.gzip)
+            // flushed output can be decompressed up to its end (see flushSink)
+            out = new GZIPOutputStream(out, 1 << 16, true);
+
+        TurtleDocumentFormat turtle = new TurtleDocumentFormat();
+        if (ontologyFormat instanceof PrefixDocumentFormat)
+            turtle.copyPrefixesFrom((PrefixDocumentFormat) ontologyFormat);
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+
+        if (outputFormat == OutputFormat.JSONLD) {
+            // the header is rendered by the OWLAPI and then converted, as it may
+            // have blank nodes (e.g. in class expressions)
+            ByteArrayOutputStream ntriples = new ByteArrayOutputStream();
+            header.getOWLOntologyManager().saveOntology(header, new NTriplesDocumentFormat(), ntriples);
+            JsonLdSink jsonld = new JsonLdSink(writer, turtle.getPrefixName2PrefixMap());
+            jsonld.addNTriples(new InputStreamReader(new ByteArrayInputStream(ntriples.toByteArray()),
+                    StandardCharsets.UTF_8));
+            return jsonld;
+        }
+
+        OWLDocumentFormat format = outputFormat.isNTriples() ? new NTriplesDocumentFormat() : turtle;
+        // the storer must not close the stream, as triples are appended to it
+        OutputStream headerOut = out;
+        header.getOWLOntologyManager().saveOntology(header, format, new FilterOutputStream(headerOut) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                headerOut.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        });
+
+        if (outputFormat.isNTriples())
+            return new NTriplesSink(writer);
+        return new TurtleSink(writer, turtle.getPrefixName2PrefixMap());
+    }
+
+    /**
+     * Starts writing only the changes since the previous run with the same state
+     * directory (see {@link IncrementalSink}) as axioms are added, to
+     * "&lt;name&gt;-insert.nt" and "&lt;name&gt;-delete.nt", where pathname is
+     * "&lt;name&gt;.&lt;extension&gt;". The ontology itself is not written.
+     * 
+     * The files are completed, and the state updated, by
+     * {@link #save(OWLOntology, String)}.
+     * 
+     * @param stateDir
+     * @param pathname
+     * @throws IOException
+     */
+    public static void openIncrementalSink(File stateDir, String pathname) throws IOException {
+        String name = pathname.replaceFirst("\\.[^./\\\\]*$", "");
+        sink = new IncrementalSink(stateDir, new File(name + "-insert.nt"), new File(name + "-delete.nt"));
+    }
+
+    /**
+     * Starts sending the ontology and then the triples of each axiom, as it is
+     * added, to a SPARQL Update endpoint (see {@link SparqlUpdateSink}), instead
+     * of adding them to the ontology.
+     * 
+     * The requests are completed by {@link #save(OWLOntology, String)}.
+     * 
+     * @param ontology
+     * @param endpoint
+     * @param graph    IRI of the graph to insert the triples into, or null for
+     *                 the default graph
+     * @throws IOException
+     * @throws OWLOntologyStorageException
+     */
+    public static void openSparqlSink(OWLOntology ontology, URL endpoint, String graph)
+            throws IOException, OWLOntologyStorageException {
+        declareVocabulary(ontology);
+        ByteArrayOutputStream ntriples = new ByteArrayOutputStream();
+        manager.saveOntology(ontology, new NTriplesDocumentFormat(), ntriples);
+        SparqlUpdateSink sparql = new SparqlUpdateSink(endpoint, graph);
+        sink = sparql;
+        sparql.addNTriples(new String(ntriples.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Declares the classes and properties used in the assertions added by this
+     * class. When the assertions are in the ontology, the OWLAPI renderer adds
+     * these declarations on saving; when streaming, they must be in the ontology
+     * header so that, e.g., rdfs:label is read back as a data property.
+     */
+    private static void declareVocabulary(OWLOntology ontology) {
+        List<OWLEntity> entities = Arrays.asList(agentClass, geopointClass, measurementClass, locatedIn,
+                measuredQualityKind, expressedIn, participatedIn, hasQualityValue, hasBeginPointInXSDDateTimeStamp,
+                hasEndPointInXSDDateTimeStamp, wgsLat, wgsLong, commentProperty, labelProperty);
+        if (rollups != null || stationLinkKm > 0)
+            entities = new ArrayList<>(entities);
+        if (stationLinkKm > 0)
+            entities.add(nearestStation);
+        if (rollups != null) {
+            entities.addAll(Arrays.asList(aggregateClass, aggregationPeriod, minimumValue, maximumValue, meanValue,
+                    measurementCount));
+        }
+        for (OWLEntity entity : entities)
+            manager.addAxiom(ontology, dataFactory.getOWLDeclarationAxiom(entity));
+    }
+
+    /**
+     * Makes the axioms added by the current thread go to the given buffer
+     * (instead of the ontology or the sink) until {@link #stopCollecting()} is
+     * called. Used to transform files in parallel; the buffers are later added
+     * with {@link #addAll(OWLOntology, AxiomBuffer)}.
+     * 
+     * @param buffer
+     */
+    public static void collectInto(AxiomBuffer buffer) {
+        collector.set(buffer);
+    }
+
+    public static void stopCollecting() {
+        collector.remove();
+    }
+
+    /**
+     * Adds the axioms in the buffer to the ontology, or writes them out if a
+     * sink is open. The axioms of the measurements in the buffer are created
+     * here, and counted into the counters of the buffer, if it has them (see
+     * {@link AxiomBuffer#getMetrics()}).
+     * 
+     * @param ontology
+     * @param buffer
+     */
+    public static void addAll(OWLOntology ontology, AxiomBuffer buffer) {
+        EtlMetrics.FileMetrics previous = buffer.getMetrics() != null ? EtlMetrics.attach(buffer.getMetrics()) : null;
+        try {
+            addRecords(ontology, buffer);
+        } finally {
+            if (buffer.getMetrics() != null)
+                EtlMetrics.attach(previous);
+        }
+    }
+
+    private static void addRecords(OWLOntology ontology, AxiomBuffer buffer) {
+        // the buffers are added in a fixed order, so the same duplicates are left
+        // out in every run
+        List<List<OWLAxiom>> records = buffer.getRecords();
+        // consecutive records go to the ontology in one change; the sink may
+        // compare records (see IncrementalSink)
+        List<OWLAxiom> kept = new ArrayList<>();
+        for (int i = 0; i < records.size(); i++) {
+            MeasurementBuffer measurements = buffer.getMeasurements(i);
+            if (measurements != null) {
+                if (!kept.isEmpty()) {
+                    addAxioms(ontology, kept);
+                    kept = new ArrayList<>();
+                }
+                addMeasurements(ontology, measurements);
+            } else if (sink != null)
+                addAxioms(ontology, records.get(i));
+            else
+                kept.addAll(records.get(i));
+        }
+        if (!kept.isEmpty())
+            addAxioms(ontology, kept);
+    }
+
+    /**
+     * Sets whether the axioms of a measurement, geographic point or buffer are
+     * added to the ontology as a single change (the default) or one by one.
+     * 
+     * @param batch
+     */
+    public static void setBatchInsertion(boolean batch) {
+        batchInsertion = batch;
+    }
+
+    /**
+     * Writes out the triples added so far, if a sink is open, so that they can
+     * be read before the output is completed by
+     * {@link #save(OWLOntology, String)}.
+     * 
+     * @throws IOException
+     */
+    public static void flushSink() throws IOException {
+        if (sink != null)
+            sink.flush();
+    }
+
+    private static void addAxiom(OWLOntology ontology, OWLAxiom axiom) {
+        addAxioms(ontology, Collections.singletonList(axiom));
+    }
+
+    /**
+     * Adds the axioms to the ontology, or writes them out if a sink is open. If
+     * the current thread is collecting into a buffer, the axioms go to the
+     * buffer.
+     */
+    private static void addAxioms(OWLOntology ontology, List<OWLAxiom> axioms) {
+        AxiomBuffer buffer = collector.get();
+        if (buffer != null) {
+            buffer.addAll(axioms);
+            return;
+        }
+        if (sink != null) {
+            try {
+                sink.addAll(axioms);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return;
+        }
+        if (batchInsertion) {
+            // a single change application (and ontology change broadcast) for all axioms
+            manager.addAxioms(ontology, axioms.stream());
+        } else {
+            for (OWLAxiom axiom : axioms)
+                manager.addAxiom(ontology, axiom);
+        }
+    }
+
+    /**
+     * Saves the ontology to the given file or, if a sink was opened with
+     * {@link #openSink(OWLOntology, String)}, completes the file being written.
+     * 
+     * @param ontology
+     * @param pathname
+     * @throws OWLOntologyStorageException
+     */
 	public static void save(OWLOntology ontology, String pathname) throws OWLOntologyStorageException {
-		File file = new File(pathname);
-		manager.saveOntology(ontology, IRI.create(file.toURI()));
+		save(ontology, pathname, null);
+	}
+
+    /**
+     * Saves the ontology to the given file in the given format or, if a sink was
+     * opened with {@link #openSink(OWLOntology, String, OutputFormat)},
+     * completes the file being written.
+     * 
+     * If format is null, the ontology is saved by the OWLAPI in its document
+     * format. Otherwise, only the axioms other than individual assertions are
+     * rendered by the OWLAPI; the assertions are written by a {@link TripleSink},
+     * individual by individual.
+     * 
+     * @param ontology
+     * @param pathname
+     * @param format
+     * @throws OWLOntologyStorageException
+     */
+	public static void save(OWLOntology ontology, String pathname, OutputFormat format)
+			throws OWLOntologyStorageException {
+		if (sink != null) {
+			try {
+				sink.close();
+			} catch (IOException e) {
+				throw new OWLOntologyStorageException(e);
+			} finally {
+				sink = null;
+			}
+			return;
+		}
+		if (format == null) {
+			File file = new File(pathname);
+			manager.saveOntology(ontology, IRI.create(file.toURI()));
+			return;
+		}
+
+		declareVocabulary(ontology);
+		try {
+			OWLOntologyManager headerManager = OWLManager.createOWLOntologyManager();
+			OWLOntology header = headerManager.createOntology(ontology.getOntologyID());
+			ontology.importsDeclarations().forEach(i -> headerManager.applyChange(new AddImport(header, i)));
+			ontology.annotations().forEach(a -> headerManager.applyChange(new AddOntologyAnnotation(header, a)));
+			headerManager.addAxioms(header, ontology.axioms().filter(axiom -> !TripleSink.supports(axiom)));
+
+			try (TripleSink out = startOutput(header, manager.getOntologyFormat(ontology), pathname, format)) {
+				List<OWLAxiom> axioms = new ArrayList<>();
+				for (OWLNamedIndividual individual : (Iterable<OWLNamedIndividual>) ontology
+						.individualsInSignature()::iterator) {
+					axioms.clear();
+					ontology.classAssertionAxioms(individual).forEach(axioms::add);
+					ontology.objectPropertyAssertionAxioms(individual).forEach(axioms::add);
+					ontology.dataPropertyAssertionAxioms(individual).forEach(axioms::add);
+					axioms.removeIf(axiom -> !TripleSink.supports(axiom));
+					out.addAll(axioms);
+				}
+			}
+		} catch (IOException | OWLOntologyCreationException e) {
+			throw new OWLOntologyStorageException(e);
+		}
 	}
 
 
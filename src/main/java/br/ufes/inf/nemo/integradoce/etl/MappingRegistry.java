@@ -0,0 +1,317 @@
+package br.ufes.inf.nemo.integradoce.etl;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+
+/**
+ * The mappings of the columns of the input files to quality kinds and units,
+ * loaded and validated once per run and shared by all transformations:
+ * header-manual.csv and header-automatico.csv (Renova), the UNESP element
+ * columns, and PhysicalChemicalQualityKind.properties, which the Renova
+ * mappings are checked against.
+ *
+ * Columns are looked up by a key normalized from their header (see
+ * {@link #key(String)}), so a header that differs from the mapping only in
+ * accents, case, spacing or the spelling of its unit still matches. The
+ * tables cannot be modified.
+ */
+final class MappingRegistry {
+
+    static final String RENOVA_MANUAL = "/header-manual.csv";
+    static final String RENOVA_AUTOMATIC = "/header-automatico.csv";
+    static final String PHYSICAL_CHEMICAL = "/PhysicalChemicalQualityKind.properties";
+
+    /**
+     * Unit of all UNESP measurements
+     */
+    static final String UNESP_UNIT = "http://qudt.org/vocab/unit/MilliGM-PER-L";
+
+    private final static Logger LOGGER = Logger.getLogger("ETL");
+
+    /**
+     * A unit in parentheses at the end of a header, e.g. "(mg/L)"
+     */
+    private static final Pattern UNIT = Pattern.compile("\\s*\\(([^()]*)\\)\\s*$");
+
+    /**
+     * The "in situ" of a header, or one of its replicates (e.g. "insitu3")
+     */
+    private static final Pattern IN_SITU = Pattern.compile("\\bin ?situ(\\d*)\\b");
+
+    /**
+     * A mapped column: its header, its key and its quality kind and unit (IRIs)
+     */
+    static final class Column {
+
+        final String header, key, qualityKind, unit;
+
+        private Column(String header, String qualityKind, String unit) {
+            this.header = header;
+            this.key = key(header);
+            this.qualityKind = qualityKind;
+            this.unit = unit;
+        }
+    }
+
+    /**
+     * The mapped columns of a format, in the order of the mapping
+     */
+    static final class Mapping {
+
+        final List<Column> columns;
+        private final Map<String, Column> byKey;
+
+        private Mapping(String source, List<Column> columns) {
+            Map<String, Column> byKey = new HashMap<>();
+            for (Column column : columns) {
+                Column other = byKey.put(column.key, column);
+                if (other != null)
+                    throw new IllegalStateException("Columns " + other.header + " and " + column.header
+                            + " of the mapping in " + source + " have the same key " + column.key);
+            }
+            this.columns = Collections.unmodifiableList(columns);
+            this.byKey = Collections.unmodifiableMap(byKey);
+        }
+
+        /**
+         * The mapped column with the same key as the given header, or null
+         */
+        Column get(String header) {
+            return byKey.get(key(header));
+        }
+    }
+
+    private static final class Holder {
+        static final MappingRegistry INSTANCE = new MappingRegistry();
+    }
+
+    private final Mapping renovaManual, renovaAutomatic, unesp;
+
+    /**
+     * Quality kind and unit by the key of the name of the parameter (without
+     * unit), e.g. "alcalinidade total"
+     */
+    private final Map<String, Column> physicalChemical;
+
+    private MappingRegistry() {
+        physicalChemical = Collections.unmodifiableMap(readProperties(PHYSICAL_CHEMICAL));
+        renovaManual = readRenova(RENOVA_MANUAL);
+        renovaAutomatic = readRenova(RENOVA_AUTOMATIC);
+
+        // campanhas 1 e 2
+        // As Cd Co Cr Mn Ni Pb Fe-diss Fe-tot Al-diss Al-tot
+        // campanhas 4 e 5
+        // As Cd Cr Cu Mn Ni Pb Zn Fe Al
+        String[][] elements = {
+                { "As", "http://purl.org/nemo/doce#TotalArsenicConcentration" },
+                { "Cd", "http://purl.org/nemo/doce#TotalCadmiumConcentration" },
+                { "Co", "http://purl.org/nemo/doce#TotalCobaltConcentration" },
+                { "Cu", "http://purl.org/nemo/doce#TotalCopperConcentration" },
+                { "Cr", "http://purl.org/nemo/doce#TotalChromiumConcentration" },
+                { "Mn", "http://purl.org/nemo/doce#TotalManganeseConcentration" },
+                { "Ni", "http://purl.org/nemo/doce#TotalNickelConcentration" },
+                { "Pb", "http://purl.org/nemo/doce#TotalLeadConcentration" },
+                { "Zn", "http://purl.org/nemo/doce#TotalZincConcentration" },
+                { "Fe-diss", "http://purl.org/nemo/doce#DissolvedIronConcentration" },
+                { "Fe-tot", "http://purl.org/nemo/doce#TotalIronConcentration" },
+                { "Fe", "http://purl.org/nemo/doce#TotalIronConcentration" },
+                { "Al-diss", "http://purl.org/nemo/doce#DissolvedAluminiumConcentration" },
+                { "Al-tot", "http://purl.org/nemo/doce#TotalAluminiumConcentration" },
+                { "Al", "http://purl.org/nemo/doce#TotalAluminiumConcentration" } };
+        List<Column> columns = new ArrayList<>();
+        for (String[] element : elements)
+            columns.add(validate("the UNESP mapping", new Column(element[0], element[1], UNESP_UNIT)));
+        unesp = new Mapping("the UNESP mapping", columns);
+    }
+
+    /**
+     * The mappings, loaded on the first call
+     *
+     * @throws IllegalStateException if a mapping is not valid
+     */
+    static MappingRegistry get() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * The mapping of a Renova format
+     *
+     * @param resource {@link #RENOVA_MANUAL} or {@link #RENOVA_AUTOMATIC}
+     */
+    Mapping renova(String resource) {
+        if (resource.equals(RENOVA_MANUAL))
+            return renovaManual;
+        if (resource.equals(RENOVA_AUTOMATIC))
+            return renovaAutomatic;
+        throw new IllegalArgumentException(resource);
+    }
+
+    Mapping unesp() {
+        return unesp;
+    }
+
+    /**
+     * The quality kind and unit of PhysicalChemicalQualityKind.properties for
+     * the parameter of a header (its unit is not compared), or null
+     */
+    Column physicalChemical(String header) {
+        return physicalChemical.get(nameKey(header));
+    }
+
+    /**
+     * Returns the key of a header: without accents, in lower case, with single
+     * spaces (also for "-" and "_"), with "insitu" as "in situ" and the unit in
+     * parentheses at the end without spaces and with "µ" as "u", e.g.
+     * "temperatura da amostra in situ (oc)" for "Temperatura da amostra insitu
+     * (ºC)".
+     *
+     * The replicates of an in situ reading (e.g. "pH insitu3") have the key of
+     * the reading; see {@link #replicate(String)}.
+     */
+    static String key(String header) {
+        String normalized = normalize(header);
+        Matcher unit = UNIT.matcher(normalized);
+        if (!unit.find())
+            return name(normalized);
+        return name(normalized.substring(0, unit.start())) + " (" + unit.group(1).replaceAll("\\s+", "") + ")";
+    }
+
+    /**
+     * Returns the number of the replicate of an in situ reading of a header
+     * (e.g. 3 for "pH insitu3"), or 0 if it is not a replicate.
+     */
+    static int replicate(String header) {
+        Matcher inSitu = IN_SITU.matcher(normalize(header));
+        while (inSitu.find())
+            if (!inSitu.group(1).isEmpty())
+                return Integer.parseInt(inSitu.group(1));
+        return 0;
+    }
+
+    /**
+     * The key of a header without its unit
+     */
+    private static String nameKey(String header) {
+        String normalized = normalize(header);
+        Matcher unit = UNIT.matcher(normalized);
+        return name(unit.find() ? normalized.substring(0, unit.start()) : normalized);
+    }
+
+    private static String normalize(String header) {
+        String s = Normalizer.normalize(header, Normalizer.Form.NFKD).replaceAll("\\p{M}+", "");
+        return s.replace('µ', 'u').replace('μ', 'u').toLowerCase(Locale.ROOT);
+    }
+
+    private static String name(String normalized) {
+        String s = normalized.replace('-', ' ').replace('_', ' ').trim().replaceAll("\\s+", " ");
+        return IN_SITU.matcher(s).replaceAll("in situ");
+    }
+
+    /**
+     * Reads a Renova mapping file: a header, a row of quality kinds, a row of
+     * units and a row marking the columns included with "x".
+     */
+    private Mapping readRenova(String resource) {
+        List<Column> columns = new ArrayList<>();
+        try (Reader in = resource(resource);
+                CSVParser parser = CSVFormat.EXCEL.withDelimiter(';').withFirstRecordAsHeader().parse(in)) {
+            List<CSVRecord> records = parser.getRecords();
+            if (records.size() < 3)
+                throw new IllegalStateException(resource + " must have rows of quality kinds, units and marks");
+            CSVRecord qualityKindRecord = records.get(0);
+            CSVRecord unitRecord = records.get(1);
+            CSVRecord isMapped = records.get(2);
+            for (String header : parser.getHeaderNames()) {
+                if (!isMapped.get(header).equals("x"))
+                    continue;
+                Column column = validate(resource,
+                        new Column(header, qualityKindRecord.get(header), unitRecord.get(header)));
+                Column known = physicalChemical(header);
+                if (known != null && !known.qualityKind.equals(column.qualityKind))
+                    LOGGER.warning("Column " + header + " is mapped to " + column.qualityKind + " in " + resource
+                            + " but to " + known.qualityKind + " in " + PHYSICAL_CHEMICAL);
+                columns.add(column);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new Mapping(resource, columns);
+    }
+
+    /**
+     * Reads PhysicalChemicalQualityKind.properties: the quality kind and unit of
+     * each parameter, e.g. Alcalinidade-total=&lt;quality kind&gt;,&lt;unit&gt;.
+     * It is read line by line rather than with {@link java.util.Properties}, as
+     * some names have spaces (e.g. "Solidos-dissolvidos totais").
+     */
+    private static Map<String, Column> readProperties(String resource) {
+        Map<String, Column> byName = new LinkedHashMap<>();
+        try (BufferedReader in = new BufferedReader(resource(resource))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#"))
+                    continue;
+                int equals = line.indexOf('=');
+                String[] iris = line.substring(equals + 1).split(",");
+                if (equals <= 0 || iris.length != 2)
+                    throw new IllegalStateException(
+                            "Line " + line + " of " + resource + " must have a name, a quality kind and a unit");
+                String name = line.substring(0, equals).trim();
+                byName.put(nameKey(name), validate(resource, new Column(name, iris[0].trim(), iris[1].trim())));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return byName;
+    }
+
+    /**
+     * Checks that the quality kind and unit of a column are absolute IRIs
+     */
+    private static Column validate(String source, Column column) {
+        for (String iri : new String[] { column.qualityKind, column.unit }) {
+            try {
+                if (!new URI(iri).isAbsolute())
+                    throw new URISyntaxException(iri, "not absolute");
+            } catch (URISyntaxException e) {
+                throw new IllegalStateException(
+                        "Column " + column.header + " of " + source + " is mapped to an invalid IRI: " + iri, e);
+            }
+        }
+        return column;
+    }
+
+    /**
+     * Opens a mapping in the default charset, as the input files are read (see
+     * {@link CsvInput}), so that their headers are decoded alike
+     */
+    private static Reader resource(String resource) {
+        InputStream in = MappingRegistry.class.getResourceAsStream(resource);
+        if (in == null)
+            throw new IllegalStateException("Mapping " + resource + " not found in the classpath");
+        return new InputStreamReader(in, Charset.defaultCharset());
+    }
+}
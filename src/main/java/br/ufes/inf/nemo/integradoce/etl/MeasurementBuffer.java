@@ -0,0 +1,185 @@
+package br.ufes.inf.nemo.integradoce.etl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Measurements extracted from an input file, before their axioms are created
+ * (see {@link Load#addMeasurements(org.semanticweb.owlapi.model.OWLOntology, MeasurementBuffer)}).
+ *
+ * The measurements are held in primitive columns: the point codes, quality
+ * kinds, units, agents and source keys as ids in dictionaries of the buffer,
+ * the times in epoch milliseconds and the values as floats, so that a
+ * measurement takes about 32 bytes and no objects of its own until the axioms
+ * are created. A buffer holds up to {@link #CAPACITY} measurements, to bound
+ * the memory used for a large file: a full buffer is added, and the file goes
+ * on with a new one.
+ *
+ * A buffer is meant to be filled by a single thread.
+ */
+public final class MeasurementBuffer {
+
+    static final int CAPACITY = 1 << 16;
+
+    /**
+     * Time of a measurement without a date
+     */
+    static final long NO_TIME = Long.MIN_VALUE;
+
+    private final Dictionary points = new Dictionary(), qualityKinds = new Dictionary(), units = new Dictionary(),
+            agents = new Dictionary(), sourceKeys = new Dictionary();
+
+    private int[] pointIds = new int[1024], qualityKindIds = new int[1024], unitIds = new int[1024],
+            agentIds = new int[1024], sourceKeyIds = new int[1024];
+    private long[] times = new long[1024];
+    private float[] values = new float[1024];
+    private int size = 0;
+
+    private final boolean telemetry;
+
+    public MeasurementBuffer() {
+        this(false);
+    }
+
+    /**
+     * @param telemetry whether the measurements are high-frequency telemetry
+     *                  (e.g. from the Renova automatic stations), which may be
+     *                  rolled up (see {@link Load#setRollups(java.util.Set, boolean)})
+     */
+    public MeasurementBuffer(boolean telemetry) {
+        this.telemetry = telemetry;
+    }
+
+    /**
+     * Adds a measurement (see
+     * {@link Load#addMeasurement(org.semanticweb.owlapi.model.OWLOntology, String, String, String, float, Date, String, String)})
+     *
+     * @param geopointCode   code of the geographic point (e.g. ":RCA-01")
+     * @param qualityKindIRI
+     * @param unitIRI
+     * @param value
+     * @param date           time of the measurement, or null if unknown
+     * @param agentIRI       source of the measurement
+     * @param sourceKey      identifies the measurement among those of the same
+     *                       quality kind at the same point and time in the
+     *                       source, or null
+     */
+    public void add(String geopointCode, String qualityKindIRI, String unitIRI, float value, Date date,
+            String agentIRI, String sourceKey) {
+        add(geopointCode, qualityKindIRI, unitIRI, value, date == null ? NO_TIME : date.getTime(), agentIRI,
+                sourceKey);
+    }
+
+    /**
+     * Adds a measurement with its time in epoch milliseconds, or
+     * {@link #NO_TIME}
+     */
+    void add(String geopointCode, String qualityKindIRI, String unitIRI, float value, long time, String agentIRI,
+            String sourceKey) {
+        if (size == pointIds.length) {
+            int capacity = size * 2;
+            pointIds = Arrays.copyOf(pointIds, capacity);
+            qualityKindIds = Arrays.copyOf(qualityKindIds, capacity);
+            unitIds = Arrays.copyOf(unitIds, capacity);
+            agentIds = Arrays.copyOf(agentIds, capacity);
+            sourceKeyIds = Arrays.copyOf(sourceKeyIds, capacity);
+            times = Arrays.copyOf(times, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        pointIds[size] = points.id(geopointCode);
+        qualityKindIds[size] = qualityKinds.id(qualityKindIRI);
+        unitIds[size] = units.id(unitIRI);
+        agentIds[size] = agents.id(agentIRI);
+        sourceKeyIds[size] = sourceKeys.id(sourceKey);
+        times[size] = time;
+        values[size] = value;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isTelemetry() {
+        return telemetry;
+    }
+
+    /**
+     * Whether the buffer has {@link #CAPACITY} measurements, and is to be added
+     * before more are extracted
+     */
+    public boolean isFull() {
+        return size >= CAPACITY;
+    }
+
+    String point(int i) {
+        return points.get(pointIds[i]);
+    }
+
+    String qualityKind(int i) {
+        return qualityKinds.get(qualityKindIds[i]);
+    }
+
+    String unit(int i) {
+        return units.get(unitIds[i]);
+    }
+
+    String agent(int i) {
+        return agents.get(agentIds[i]);
+    }
+
+    /**
+     * Source key of the i-th measurement, or null
+     */
+    String sourceKey(int i) {
+        return sourceKeys.get(sourceKeyIds[i]);
+    }
+
+    /**
+     * Time of the i-th measurement in epoch milliseconds, or {@link #NO_TIME}
+     */
+    long time(int i) {
+        return times[i];
+    }
+
+    float value(int i) {
+        return values[i];
+    }
+
+    /**
+     * Strings of a column, by id (null has an id as well)
+     */
+    private static final class Dictionary {
+
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+
+        /**
+         * The last string looked up, as consecutive measurements often share it
+         */
+        private String last;
+        private int lastId = -1;
+
+        int id(String s) {
+            if (lastId >= 0 && (s == null ? last == null : s.equals(last)))
+                return lastId;
+            Integer id = ids.get(s);
+            if (id == null) {
+                id = strings.size();
+                ids.put(s, id);
+                strings.add(s);
+            }
+            last = s;
+            lastId = id;
+            return id;
+        }
+
+        String get(int id) {
+            return strings.get(id);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package br.ufes.inf.nemo.integradoce.etl;
+
+/**
+ * Set of 128-bit measurement keys (see {@link Load#setDeduplication(boolean)}),
+ * or of other pairs of 64-bit hashes (e.g. the occurrences of records in
+ * {@link IncrementalSink}), in two primitive arrays with open addressing, so that each key takes 16 bytes
+ * (about 32 bytes per key at the maximum load) instead of an object per entry.
+ */
+class MeasurementKeySet {
+
+    private static final double MAX_LOAD = 0.5;
+
+    private long[] high, low;
+    private int size = 0;
+    private boolean containsZero = false;
+
+    MeasurementKeySet() {
+        this(1 << 16);
+    }
+
+    /**
+     * @param capacity initial number of slots (a power of 2)
+     */
+    MeasurementKeySet(int capacity) {
+        high = new long[capacity];
+        low = new long[capacity];
+    }
+
+    /**
+     * Adds a key, returning false if it was already in the set.
+     */
+    synchronized boolean add(long keyHigh, long keyLow) {
+        // the zero key marks an empty slot
+        if (keyHigh == 0 && keyLow == 0) {
+            boolean added = !containsZero;
+            containsZero = true;
+            return added;
+        }
+        int mask = high.length - 1;
+        for (int i = slot(keyHigh, keyLow, mask);; i = (i + 1) & mask) {
+            if (high[i] == 0 && low[i] == 0) {
+                high[i] = keyHigh;
+                low[i] = keyLow;
+                if (++size > high.length * MAX_LOAD)
+                    grow();
+                return true;
+            }
+            if (high[i] == keyHigh && low[i] == keyLow)
+                return false;
+        }
+    }
+
+    synchronized boolean contains(long keyHigh, long keyLow) {
+        if (keyHigh == 0 && keyLow == 0)
+            return containsZero;
+        int mask = high.length - 1;
+        for (int i = slot(keyHigh, keyLow, mask);; i = (i + 1) & mask) {
+            if (high[i] == 0 && low[i] == 0)
+                return false;
+            if (high[i] == keyHigh && low[i] == keyLow)
+                return true;
+        }
+    }
+
+    synchronized int size() {
+        return size + (containsZero ? 1 : 0);
+    }
+
+    private static int slot(long keyHigh, long keyLow, int mask) {
+        // the keys are hashes already
+        return (int) (keyLow ^ (keyLow >>> 32)) & mask;
+    }
+
+    private void grow() {
+        long[] oldHigh = high, oldLow = low;
+        high = new long[oldHigh.length * 2];
+        low = new long[oldLow.length * 2];
+        int mask = high.length - 1;
+        for (int j = 0; j < oldHigh.length; j++) {
+            if (oldHigh[j] == 0 && oldLow[j] == 0)
+                continue;
+            int i = slot(oldHigh[j], oldLow[j], mask);
+            while (high[i] != 0 || low[i] != 0)
+                i = (i + 1) & mask;
+            high[i] = oldHigh[j];
+            low[i] = oldLow[j];
+        }
+    }
+}
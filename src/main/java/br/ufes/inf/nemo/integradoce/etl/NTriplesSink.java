@@ -0,0 +1,57 @@
+package br.ufes.inf.nemo.integradoce.etl;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLLiteral;
+import org.semanticweb.owlapi.vocab.OWL2Datatype;
+
+/**
+ * Writes triples in N-Triples, one triple per line, with no abbreviations.
+ */
+public class NTriplesSink extends TripleSink {
+
+    private final Writer out;
+
+    private final StringBuilder sb = new StringBuilder(256);
+
+    public NTriplesSink(Writer out) {
+        super(Collections.<String, String>emptyMap());
+        this.out = out;
+    }
+
+    @Override
+    protected void triple(IRI subject, IRI predicate, IRI object) throws IOException {
+        sb.setLength(0);
+        sb.append('<').append(subject.toString()).append("> <").append(predicate.toString()).append("> <")
+                .append(object.toString()).append("> .\n");
+        out.append(sb);
+    }
+
+    @Override
+    protected void triple(IRI subject, IRI predicate, OWLLiteral object) throws IOException {
+        sb.setLength(0);
+        sb.append('<').append(subject.toString()).append("> <").append(predicate.toString()).append("> \"");
+        appendEscaped(sb, object.getLiteral());
+        sb.append('"');
+        if (object.hasLang())
+            sb.append('@').append(object.getLang());
+        else if (!object.getDatatype().getIRI().equals(OWL2Datatype.XSD_STRING.getIRI()))
+            sb.append("^^<").append(object.getDatatype().getIRI().toString()).append('>');
+        sb.append(" .\n");
+        out.append(sb);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+}
@@ -0,0 +1,55 @@
+package br.ufes.inf.nemo.integradoce.etl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.logging.Logger;
+
+import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+
+/**
+ * Puts the copy of the doce ontology that is bundled with the application
+ * ({@link Load#BUNDLED_ONTOLOGY}) in the classes of the build, so that the jar
+ * runs on hosts without network access. Run by Maven in the process-classes
+ * phase, with the file to write (target/classes/doce.ttl), the local copy of
+ * the ontology written by a run of the application
+ * ({@link Load#DEFAULT_ONTOLOGY_CACHE}) and whether Maven is offline.
+ *
+ * A copy in src/main/resources, already in the classes, is kept. Otherwise the
+ * local copy is bundled if there is one, and else the ontology is loaded from
+ * the web (unless offline). If none is available, the build goes on without a
+ * bundled copy, with a warning: the application then needs network access or
+ * a local copy on the first run.
+ */
+public class OntologyBundle {
+
+    private final static Logger LOGGER = Logger.getLogger("ETL");
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.err.println("Usage: OntologyBundle <bundled file> <local copy> <offline>");
+            System.exit(1);
+        }
+        File bundled = new File(args[0]), localCopy = new File(args[1]);
+        boolean offline = Boolean.parseBoolean(args[2]);
+        if (bundled.isFile())
+            return;
+        if (localCopy.isFile()) {
+            bundled.getAbsoluteFile().getParentFile().mkdirs();
+            Files.copy(localCopy.toPath(), bundled.toPath());
+            LOGGER.info("Bundled the local copy of the doce ontology " + localCopy);
+            return;
+        }
+        if (offline) {
+            LOGGER.warning("Not bundling the doce ontology: there is no local copy (" + localCopy
+                    + ") and the build is offline");
+            return;
+        }
+        try {
+            // saved to the bundled file as served
+            Load.loadDoce(bundled, true);
+        } catch (OWLOntologyCreationException e) {
+            LOGGER.warning("Not bundling the doce ontology: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package br.ufes.inf.nemo.integradoce.etl;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Command line options of {@link App}.
+ */
+class Options {
+
+    String inputFolder;
+    String outputFile;
+
+    /**
+     * Globs of the input files to include and of the files and folders to
+     * exclude (see {@link InputDiscovery})
+     */
+    List<String> includes = new ArrayList<>(), excludes = new ArrayList<>();
+
+    /**
+     * Write triples to the output as they are produced (see
+     * {@link Load#openSink(org.semanticweb.owlapi.model.OWLOntology, String)})
+     */
+    boolean stream = false;
+
+    /**
+     * Keep running after the input files are transformed, transforming the
+     * files added to or changed in the input folder (see {@link InputWatcher})
+     */
+    boolean watch = false;
+
+    /**
+     * Format of the output file, or null to save it with the OWLAPI in the
+     * format of the doce ontology (see
+     * {@link Load#save(org.semanticweb.owlapi.model.OWLOntology, String, OutputFormat)})
+     */
+    OutputFormat format;
+
+    /**
+     * Number of files transformed concurrently
+     */
+    int threads = 1;
+
+    /**
+     * Size of the chunks that larger Renova files are split into, to transform
+     * them on several threads, or 0 not to split files (see {@link CsvChunks})
+     */
+    long chunkSize = 0;
+
+    /**
+     * Folder of the cache of the cells of the input files, or null not to cache
+     * them (see {@link InputCache})
+     */
+    File cacheFolder;
+
+    /**
+     * Number measurements sequentially instead of deriving their IRIs from
+     * their content (see {@link Load#setContentDerivedIRIs(boolean)})
+     */
+    boolean sequentialIRIs = false;
+
+    /**
+     * Keep measurements that were added before (see
+     * {@link Load#setDeduplication(boolean)})
+     */
+    boolean keepDuplicates = false;
+
+    /**
+     * Periods to roll up the telemetry measurements in, and whether only the
+     * rollups are kept (see {@link Load#setRollups(Set, boolean)})
+     */
+    Set<Rollups.Period> rollups = EnumSet.noneOf(Rollups.Period.class);
+    boolean rollupsOnly = false;
+
+    /**
+     * Maximum distance, in kilometres, from a UNESP sampling site to the
+     * station it is linked to, or 0 not to link them (see
+     * {@link Load#setStationLinkRadius(double)})
+     */
+    double stationLinkKm = 0;
+
+    /**
+     * State of the previous runs, for writing only the changes (see
+     * {@link Load#openIncrementalSink(File, String)})
+     */
+    File incrementalState;
+
+    /**
+     * SPARQL Update endpoint to send the triples to, instead of writing them to
+     * a file, and the graph to insert them into (see
+     * {@link Load#openSparqlSink(org.semanticweb.owlapi.model.OWLOntology, URL, String)})
+     */
+    URL sparqlEndpoint;
+    String sparqlGraph;
+
+    /**
+     * Write the data alone, importing the doce ontology instead of loading it
+     * (see {@link Load#createDataOntology()})
+     */
+    boolean dataOnly = false;
+
+    /**
+     * Local copy of the doce ontology (see {@link Load#loadDoce(File, boolean)})
+     */
+    File ontologyCache = Load.DEFAULT_ONTOLOGY_CACHE;
+    boolean refreshOntology = false;
+
+    /**
+     * Parses the command line, returning null if it is not valid.
+     * 
+     * @param args
+     * @return
+     */
+    static Options parse(String[] args) {
+        Options options = new Options();
+        List<String> positional = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            boolean hasValue = i + 1 < args.length;
+            if (arg.equals("--stream"))
+                options.stream = true;
+            else if (arg.equals("--watch"))
+                options.watch = true;
+            else if (arg.equals("--include") && hasValue)
+                options.includes.add(args[++i]);
+            else if (arg.equals("--exclude") && hasValue)
+                options.excludes.add(args[++i]);
+            else if (arg.equals("--format") && hasValue) {
+                options.format = OutputFormat.forLabel(args[++i]);
+                if (options.format == null)
+                    return null;
+            } else if (arg.equals("--threads") && hasValue)
+                options.threads = Integer.parseInt(args[++i]);
+            else if (arg.equals("--chunk-size") && hasValue) {
+                try {
+                    options.chunkSize = parseSize(args[++i]);
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+                if (options.chunkSize <= 0)
+                    return null;
+            } else if (arg.equals("--cache") && hasValue)
+                options.cacheFolder = new File(args[++i]);
+            else if (arg.equals("--keep-duplicates"))
+                options.keepDuplicates = true;
+            else if (arg.equals("--rollups") && hasValue) {
+                options.rollups = Rollups.Period.parse(args[++i]);
+                if (options.rollups == null)
+                    return null;
+            } else if (arg.equals("--rollups-only"))
+                options.rollupsOnly = true;
+            else if (arg.equals("--link-stations") && hasValue) {
+                try {
+                    options.stationLinkKm = Double.parseDouble(args[++i]);
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+                if (!(options.stationLinkKm > 0))
+                    return null;
+            }
+            else if (arg.equals("--sequential-iris"))
+                options.sequentialIRIs = true;
+            else if (arg.equals("--incremental") && hasValue)
+                options.incrementalState = new File(args[++i]);
+            else if (arg.equals("--sparql-update") && hasValue) {
+                try {
+                    options.sparqlEndpoint = new URL(args[++i]);
+                } catch (MalformedURLException e) {
+                    return null;
+                }
+            } else if (arg.equals("--sparql-graph") && hasValue)
+                options.sparqlGraph = args[++i];
+            else if (arg.equals("--ontology-cache") && hasValue)
+                options.ontologyCache = new File(args[++i]);
+            else if (arg.equals("--refresh-ontology"))
+                options.refreshOntology = true;
+            else if (arg.equals("--data-only"))
+                options.dataOnly = true;
+            else if (arg.startsWith("--"))
+                return null;
+            else
+                positional.add(arg);
+        }
+        if (options.rollupsOnly && options.rollups.isEmpty())
+            return null;
+        // doce is not loaded at all
+        if (options.dataOnly && options.refreshOntology)
+            return null;
+        // with a SPARQL endpoint, there is no output file
+        if (positional.size() != (options.sparqlEndpoint != null ? 1 : 2))
+            return null;
+        if (options.sparqlEndpoint != null) {
+            if (options.incrementalState != null)
+                return null;
+            options.stream = true;
+        }
+        // changes are tracked by measurement IRI, as they are produced
+        if (options.incrementalState != null) {
+            if (options.sequentialIRIs || options.watch)
+                return null;
+            options.stream = true;
+        }
+        // the triples of each file are written out as soon as it is transformed
+        if (options.watch)
+            options.stream = true;
+        options.inputFolder = positional.get(0);
+        if (options.sparqlEndpoint != null)
+            return options;
+        options.outputFile = positional.get(1);
+        // Turtle files are still saved by the OWLAPI unless asked otherwise
+        if (options.format == null && OutputFormat.forFile(options.outputFile) != OutputFormat.TURTLE)
+            options.format = OutputFormat.forFile(options.outputFile);
+        return options;
+    }
+
+    /**
+     * Parses a size such as "512", "100K", "10M" or "2G"
+     */
+    static long parseSize(String s) {
+        String digits = s.toUpperCase(Locale.ROOT);
+        int shift = 0;
+        if (digits.endsWith("K"))
+            shift = 10;
+        else if (digits.endsWith("M"))
+            shift = 20;
+        else if (digits.endsWith("G"))
+            shift = 30;
+        if (shift > 0)
+            digits = digits.substring(0, digits.length() - 1);
+        return Long.parseLong(digits) << shift;
+    }
+
+    static void printUsage(PrintStream out) {
+        out.println("Usage: App [options] <data_input_folder> <outputfile.ttl>");
+        out.println("       App [options] --sparql-update <url> <data_input_folder>");
+        out.println("The CSV files in <data_input_folder> and its subfolders are read, by the format detected from their header");
+        out.println("(e.g. subfolders 'dados_renova' and 'dados_unesp' with the respective files).");
+        out.println("Options:");
+        out.println("  --include <glob>         include the input files whose path (relative to <data_input_folder>) matches");
+        out.println("                           <glob> (repeatable, default " + InputDiscovery.DEFAULT_INCLUDE + ")");
+        out.println("  --exclude <glob>         exclude the input files and folders whose path matches <glob> (repeatable)");
+        out.println("  --stream                 write triples to the output file as they are produced instead of at the end");
+        out.println("  --watch                  keep running, and transform the files added to or changed in");
+        out.println("                           <data_input_folder> as they arrive, until stopped (implies --stream)");
+        out.println("  --format <format>        format of the output file: turtle, turtle-gz, ntriples, ntriples-gz or jsonld");
+        out.println("                           (default: by the extension of the output file, .ttl, .ttl.gz, .nt, .nt.gz");
+        out.println("                           or .jsonld, or Turtle)");
+        out.println("  --threads <n>            transform up to n files concurrently (default 1)");
+        out.println("  --chunk-size <size>      with --threads, split Renova files larger than <size> (bytes, or with K, M");
+        out.println("                           or G) into chunks transformed concurrently (not with --cache)");
+        out.println("  --cache <dir>            keep the cells of each input file in <dir>, to read them from there instead");
+        out.println("                           of parsing the file again while it has the same checksum");
+        out.println("  --keep-duplicates        keep measurements with the same point, quality kind, value, time and source as");
+        out.println("                           one read before (e.g. from overlapping exports)");
+        out.println("  --rollups <periods>      add the minimum, maximum, mean and count of the telemetry measurements of");
+        out.println("                           each point and quality kind per period, of hour, day and month (e.g. hour,day)");
+        out.println("  --rollups-only           with --rollups, leave out the telemetry measurements that are rolled up");
+        out.println("  --link-stations <km>     link each UNESP sampling site to the nearest Renova station within <km>");
+        out.println("  --sequential-iris        number measurement IRIs sequentially instead of deriving them from their content");
+        out.println("  --incremental <dir>      write only the changes since the previous run with the same <dir> to");
+        out.println("                           <outputfile>-insert.nt and <outputfile>-delete.nt (not with --sequential-iris");
+        out.println("                           or --watch)");
+        out.println("  --sparql-update <url>    send the triples to a SPARQL Update endpoint as they are produced, in batches,");
+        out.println("                           instead of writing them to a file (not with --incremental)");
+        out.println("  --sparql-graph <iri>     graph to insert the triples into (default: the default graph)");
+        out.println("  --ontology-cache <file>  local copy of the doce ontology (default " + Load.DEFAULT_ONTOLOGY_CACHE + ")");
+        out.println("  --refresh-ontology       load the doce ontology from the web even if there is a local copy");
+        out.println("  --data-only              write only the data, in an ontology that imports the doce ontology, which");
+        out.println("                           is then not loaded (not with --refresh-ontology)");
+    }
+
+}
@@ -0,0 +1,60 @@
+package br.ufes.inf.nemo.integradoce.etl;
+
+/**
+ * Formats of the output file written by the triple sinks (see
+ * {@link Load#openSink(org.semanticweb.owlapi.model.OWLOntology, String, OutputFormat)}).
+ */
+public enum OutputFormat {
+
+    TURTLE("turtle", ".ttl", false),
+    TURTLE_GZIP("turtle-gz", ".ttl.gz", true),
+    NTRIPLES("ntriples", ".nt", false),
+    NTRIPLES_GZIP("ntriples-gz", ".nt.gz", true),
+    JSONLD("jsonld", ".jsonld", false);
+
+    /**
+     * Name of the format in the command line (e.g. "turtle-gz")
+     */
+    final String label;
+    final String extension;
+    final boolean gzip;
+
+    private OutputFormat(String label, String extension, boolean gzip) {
+        this.label = label;
+        this.extension = extension;
+        this.gzip = gzip;
+    }
+
+    /**
+     * Returns the format with the given label, or null if there is none.
+     */
+    static OutputFormat forLabel(String label) {
+        for (OutputFormat format : values()) {
+            if (format.label.equals(label))
+                return format;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the format corresponding to the extension of a file name (e.g.
+     * ".ttl.gz"), or null if there is none.
+     */
+    static OutputFormat forFile(String pathname) {
+        OutputFormat result = null;
+        for (OutputFormat format : values()) {
+            if (pathname.endsWith(format.extension)
+                    && (result == null || format.extension.length() > result.extension.length()))
+                result = format;
+        }
+        return result;
+    }
+
+    /**
+     * Whether the output is written in N-Triples (before compression)
+     */
+    boolean isNTriples() {
+        return this == NTRIPLES || this == NTRIPLES_GZIP;
+    }
+
+}
@@ -0,0 +1,245 @@
+package br.ufes.inf.nemo.integradoce.etl;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+
+/**
+ * The mapped value columns of a Renova data file, resolved to column indexes
+ * once per file header, so that the transformation of each row only looks at
+ * these columns.
+ *
+ * For each mapped column, the plan holds the index of the value, the index of
+ * its status column (or -1 if there is none), the quality kind and the unit.
+ * The columns of the file are matched to the mapping (see
+ * {@link MappingRegistry}) by the keys of their headers; the replicates of in
+ * situ readings (e.g. "pH insitu3") are not matched. Plans are cached by
+ * mapping file and header, and reused for files with the same header.
+ */
+class RenovaColumnPlan {
+
+    static final String MANUAL_MAPPING = MappingRegistry.RENOVA_MANUAL;
+    static final String AUTOMATIC_MAPPING = MappingRegistry.RENOVA_AUTOMATIC;
+
+    /**
+     * Status codes for which a value is used: 1 (validated), 4 (below the limit
+     * of quantification) and 5 (above the maximum quantifiable limit). See the
+     * comments in {@link RenovaExtractTransform}.
+     */
+    static final int ALLOWED_STATUS = (1 << 1) | (1 << 4) | (1 << 5);
+
+    private final static Logger LOGGER = Logger.getLogger("ETL");
+
+    private static final Map<String, RenovaColumnPlan> plans = new ConcurrentHashMap<>();
+
+    final int matrizColumn, tipoColumn, codigoColumn, dataColumn, horaColumn;
+
+    private final String[] headers;
+    private final int[] valueColumns;
+    private final int[] statusColumns;
+    private final String[] qualityKinds;
+    private final String[] units;
+
+    private final int[] cachedColumns;
+    private final int[] cachedStatusColumns;
+
+    private RenovaColumnPlan(List<String> headerNames, MappingRegistry.Mapping mapping, boolean statusAlwaysNext) {
+        // as the header map of the parser, where the last of columns with the
+        // same name (or key) wins
+        Map<String, Integer> headerMap = new HashMap<>(), keyMap = new HashMap<>();
+        for (int i = 0; i < headerNames.size(); i++) {
+            headerMap.put(headerNames.get(i), i);
+            if (MappingRegistry.replicate(headerNames.get(i)) == 0)
+                keyMap.put(MappingRegistry.key(headerNames.get(i)), i);
+        }
+        matrizColumn = 0;
+        tipoColumn = headerMap.get("TipoDeAmostra");
+        codigoColumn = headerMap.get("CodigoDoPonto");
+        dataColumn = headerMap.get("DataAmostra");
+        horaColumn = headerMap.get("HoraAmostra");
+
+        List<MappingRegistry.Column> columns = new ArrayList<>();
+        List<Integer> values = new ArrayList<>(), statuses = new ArrayList<>();
+        for (MappingRegistry.Column column : mapping.columns) {
+            Integer index = keyMap.get(column.key);
+            if (index == null) {
+                LOGGER.warning("Mapped column " + column.header + " not found in file header");
+                continue;
+            }
+            columns.add(column);
+            values.add(index);
+            statuses.add(statusColumn(headerNames, index, statusAlwaysNext));
+        }
+
+        int n = columns.size();
+        headers = new String[n];
+        qualityKinds = new String[n];
+        units = new String[n];
+        valueColumns = new int[n];
+        statusColumns = new int[n];
+        for (int i = 0; i < n; i++) {
+            headers[i] = columns.get(i).header;
+            qualityKinds[i] = columns.get(i).qualityKind;
+            units[i] = columns.get(i).unit;
+            valueColumns[i] = values.get(i);
+            statusColumns[i] = statuses.get(i);
+        }
+
+        // all value columns after the identification of the sample, for the
+        // cache
+        values.clear();
+        statuses.clear();
+        for (int i = horaColumn + 1; i < headerNames.size(); i++) {
+            if (headerNames.get(i).startsWith("Status"))
+                continue;
+            values.add(i);
+            statuses.add(statusColumn(headerNames, i, statusAlwaysNext));
+        }
+        cachedColumns = new int[values.size()];
+        cachedStatusColumns = new int[values.size()];
+        for (int i = 0; i < cachedColumns.length; i++) {
+            cachedColumns[i] = values.get(i);
+            cachedStatusColumns[i] = statuses.get(i);
+        }
+    }
+
+    /**
+     * The status is in the next column: always, in the automatic sources
+     * format, or if the next column starts with "Status", in the manual one.
+     * Returns -1 if there is no status column.
+     */
+    private static int statusColumn(List<String> headerNames, int index, boolean statusAlwaysNext) {
+        int status = index + 1;
+        if (status >= headerNames.size() || !(statusAlwaysNext || headerNames.get(status).startsWith("Status")))
+            return -1;
+        return status;
+    }
+
+    /**
+     * Returns the plan for a data file with the header of the given parser.
+     *
+     * @param mappingResource {@link #MANUAL_MAPPING} or {@link #AUTOMATIC_MAPPING}
+     * @param parser          parser of the data file
+     * @return
+     */
+    static RenovaColumnPlan forFile(String mappingResource, CSVParser parser) {
+        return forHeader(mappingResource, parser.getHeaderNames());
+    }
+
+    /**
+     * Returns the plan for a data file with the given header.
+     *
+     * @param mappingResource {@link #MANUAL_MAPPING} or {@link #AUTOMATIC_MAPPING}
+     * @param headerNames     names of the columns of the data file
+     * @return
+     */
+    static RenovaColumnPlan forHeader(String mappingResource, List<String> headerNames) {
+        String signature = mappingResource + '\n' + String.join(";", headerNames);
+        return plans.computeIfAbsent(signature, s -> new RenovaColumnPlan(headerNames,
+                MappingRegistry.get().renova(mappingResource), mappingResource.equals(AUTOMATIC_MAPPING)));
+    }
+
+    /**
+     * Returns the set of status codes (digits) in a status cell (e.g. "1,4") as
+     * a bitmask.
+     */
+    static int statusMask(String status) {
+        int mask = 0;
+        for (int i = 0; i < status.length(); i++) {
+            char c = status.charAt(i);
+            if (c >= '0' && c <= '9')
+                mask |= 1 << (c - '0');
+        }
+        return mask;
+    }
+
+    int size() {
+        return valueColumns.length;
+    }
+
+    /**
+     * Index of the value of the i-th mapped column in the header
+     */
+    int valueColumn(int i) {
+        return valueColumns[i];
+    }
+
+    String header(int i) {
+        return headers[i];
+    }
+
+    String qualityKind(int i) {
+        return qualityKinds[i];
+    }
+
+    String unit(int i) {
+        return units[i];
+    }
+
+    /**
+     * Identifies the value of the i-th mapped column among the measurements of
+     * the same point and time (see
+     * {@link Load#addMeasurement(org.semanticweb.owlapi.model.OWLOntology, String, String, String, float, java.util.Date, String, String)}):
+     * the sample type (e.g. "Superficial", "P15") and the column header.
+     */
+    String sourceKey(CSVRecord record, int i) {
+        return record.get(tipoColumn) + ';' + headers[i];
+    }
+
+    String value(CSVRecord record, int i) {
+        return record.get(valueColumns[i]);
+    }
+
+    /**
+     * Returns the status cell of the i-th mapped column, or null if it has none.
+     */
+    String status(CSVRecord record, int i) {
+        return statusColumns[i] < 0 ? null : record.get(statusColumns[i]);
+    }
+
+    /**
+     * Whether the value of the i-th mapped column is to be used, based on its
+     * status, if it has one.
+     */
+    boolean isAccepted(CSVRecord record, int i) {
+        return statusColumns[i] < 0 || (statusMask(record.get(statusColumns[i])) & ALLOWED_STATUS) != 0;
+    }
+
+    /**
+     * Writes a row with the usable cells of all value columns of a record,
+     * mapped or not, to the cache (see {@link InputCache}): the cells with an
+     * accepted status (or without status) and a numeric value.
+     */
+    void cache(CSVRecord record, InputCache.Writer cache) {
+        long time;
+        try {
+            time = ValueCodec.parseDateTime(record.get(dataColumn), record.get(horaColumn), false).getTime();
+        } catch (ParseException e) {
+            // an error only if a mapped cell is used
+            time = InputCache.NO_TIME;
+        }
+        cache.row(record.get(codigoColumn), record.get(tipoColumn), record.get(matrizColumn), time);
+        for (int i = 0; i < cachedColumns.length; i++) {
+            int status = cachedStatusColumns[i];
+            if (cachedColumns[i] >= record.size() || status >= record.size()
+                    || (status >= 0 && (statusMask(record.get(status)) & ALLOWED_STATUS) == 0))
+                continue;
+            String value = record.get(cachedColumns[i]);
+            if (value.isEmpty())
+                continue;
+            try {
+                cache.cell(cachedColumns[i], ValueCodec.parseUS(value));
+            } catch (ParseException e) {
+                // not a measurement
+            }
+        }
+    }
+
+}
@@ -1,22 +1,12 @@
 package br.ufes.inf.nemo.integradoce.etl;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.Reader;
-import java.text.NumberFormat;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Locale;
 import java.util.logging.Logger;
 
-import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVRecord;
 import org.semanticweb.owlapi.apibinding.OWLManager;
@@ -64,8 +54,6 @@ public class RenovaExtractTransform {
 
 		// TODO add geographical information such as city, municipality, river basin
 
-		Reader in = new FileReader(csvFilePath);
-
 		// header:
 		// MONITORAMENTO;CODIGO_PONTO;NOME_PONTO;DESCRICAO_PONTO;TIPO_ESTACAO;AMBIENTE;CORPO_HIDRICO;SUB_BACIA;BACIA;MUNICIPIO;ESTADO;LONGITUDE;LATITUTE;UTM_X;UTM_Y;PROJECAO;DATUM;ALTITUDE;CODIGO_HIDROWEB;CODIGO_PONTO_ANTERIOR
 		// example row:
@@ -73,18 +61,21 @@ public class RenovaExtractTransform {
 		// Coincide com o antigo ponto: RDC-124. Atingido pelo rejeito;Manual;Agua Doce
 		// Lotico;Corrego Santarém;Córrego Santarém;Rio
 
-		Iterable<CSVRecord> records = CSVFormat.EXCEL.withDelimiter(';').withFirstRecordAsHeader().parse(in);
-		for (CSVRecord record : records)
+		EtlMetrics.FileMetrics metrics = EtlMetrics.current();
+		try (CSVParser records = CsvInput.open(new File(csvFilePath)))
 		{
-			String codigo = record.get("CODIGO_PONTO");
-			String nome = record.get("NOME_PONTO");
-			String descricao = record.get("DESCRICAO_PONTO");
-			String latitude = record.get("LATITUTE"); // note the typo in LATITUDE... that's part of the Renova format
-			String longitude = record.get("LONGITUDE");
-
-			NumberFormat nf = NumberFormat.getInstance(Locale.forLanguageTag("pt-BR"));
-			Load.addGeographicPoint(ontology, ":" + codigo.replaceAll("\\s", "-"), nf.parse(latitude).floatValue(),
-					nf.parse(longitude).floatValue(), descricao, nome);
+			for (CSVRecord record : records)
+			{
+				metrics.row();
+				String codigo = record.get("CODIGO_PONTO");
+				String nome = record.get("NOME_PONTO");
+				String descricao = record.get("DESCRICAO_PONTO");
+				String latitude = record.get("LATITUTE"); // note the typo in LATITUDE... that's part of the Renova format
+				String longitude = record.get("LONGITUDE");
+
+				Load.addGeographicPoint(ontology, ":" + ValueCodec.hyphenate(codigo), ValueCodec.parsePtBR(latitude),
+						ValueCodec.parsePtBR(longitude), descricao, nome);
+			}
 		}
 	}
 
@@ -101,17 +92,108 @@ public class RenovaExtractTransform {
     public static void extractTransformRenova(File file, OWLOntology ontology) throws IOException, ParseException {
         LOGGER.info("Processing " + file.getName());
 
-        Reader in = new FileReader(file);
-        CSVParser parser = CSVFormat.EXCEL.withDelimiter(';').withFirstRecordAsHeader().parse(in);
-
-        // since the Renova 2021 format consists of two different types of files
-        // detect the type of file using the header
-        if (parser.getHeaderMap().containsKey("Status_Condutividade")) {
-            // this is the type of file that includes automatic sources (in-situ telemetry)
-            extractTransformRenovaDataFileAutomaticSources(file, ontology);
-        } else if (parser.getHeaderMap().containsKey("Status_Alcalinidade total")) {
-            // type of file with manual samples (includes in-situ and ex-situ measurements)
-            extractTransformRenovaDataFileManualSources(file, ontology);
+        long checksum = 0;
+        if (InputCache.isEnabled()) {
+            checksum = InputCache.checksum(file);
+            try (InputCache.Reader cached = InputCache.open(file, checksum)) {
+                if (cached != null) {
+                    transformCachedRecords(cached, ontology);
+                    return;
+                }
+            }
+        }
+
+        // the file is read once: the header is parsed first, and the records
+        // follow from the same stream
+        try (CSVParser records = CsvInput.open(file);
+                InputCache.Writer cache = InputCache.isEnabled()
+                        ? InputCache.create(file, checksum, records.getHeaderNames())
+                        : null) {
+            // since the Renova 2021 format consists of two different types of files
+            // detect the type of file using the header
+            if (records.getHeaderMap().containsKey("Status_Condutividade")) {
+                // this is the type of file that includes automatic sources (in-situ telemetry)
+                transformAutomaticRecords(records, ontology, cache);
+            } else if (records.getHeaderMap().containsKey("Status_Alcalinidade total")) {
+                // type of file with manual samples (includes in-situ and ex-situ measurements)
+                transformManualRecords(records, ontology, cache);
+            }
+            if (cache != null)
+                cache.commit();
+        }
+    }
+
+    /**
+     * Transforms the rows of a Renova data file read from the cache (see
+     * {@link InputCache}), with the current mapping, as
+     * {@link #transformAutomaticRecords(CSVParser, OWLOntology, InputCache.Writer)}
+     * and
+     * {@link #transformManualRecords(CSVParser, OWLOntology, InputCache.Writer)}
+     * transform the records of the file.
+     */
+    private static void transformCachedRecords(InputCache.Reader cached, OWLOntology ontology)
+            throws IOException, ParseException {
+        List<String> header = cached.getHeader();
+        boolean manual;
+        if (header.contains("Status_Condutividade"))
+            manual = false;
+        else if (header.contains("Status_Alcalinidade total"))
+            manual = true;
+        else
+            return;
+        RenovaColumnPlan plan = RenovaColumnPlan.forHeader(
+                manual ? RenovaColumnPlan.MANUAL_MAPPING : RenovaColumnPlan.AUTOMATIC_MAPPING, header);
+        EtlMetrics.FileMetrics metrics = EtlMetrics.current();
+        // the cells of the current row by column
+        boolean[] present = new boolean[header.size()];
+        float[] values = new float[header.size()];
+        MeasurementBuffer measurements = new MeasurementBuffer(!manual);
+        while (cached.next()) {
+            metrics.row();
+            if (manual && !(cached.matrix().equals("Agua") || cached.matrix().equals("Descarga_liquida")))
+                continue;
+            for (int i = 0; i < cached.cells(); i++) {
+                present[cached.column(i)] = true;
+                values[cached.column(i)] = cached.value(i);
+            }
+            for (int column = 0; column < plan.size(); column++) {
+                metrics.cell();
+                int index = plan.valueColumn(column);
+                if (!present[index])
+                    continue;
+                if (cached.time() == InputCache.NO_TIME)
+                    throw new ParseException("Unparseable date of " + cached.point(), 0);
+                measurements.add(":" + ValueCodec.hyphenate(cached.point()), plan.qualityKind(column),
+                        plan.unit(column), values[index], cached.time(), "http://purl.org/nemo/integradoce#Renova",
+                        cached.type() + ';' + plan.header(column));
+            }
+            for (int i = 0; i < cached.cells(); i++)
+                present[cached.column(i)] = false;
+            if (measurements.isFull()) {
+                Load.addMeasurements(ontology, measurements);
+                measurements = new MeasurementBuffer(!manual);
+            }
+        }
+        Load.addMeasurements(ontology, measurements);
+    }
+
+    /**
+     * ETL for one chunk of a large Renova data file (see {@link CsvChunks}), of
+     * either format. The chunks of a file can be transformed concurrently.
+     * 
+     * @param chunks
+     * @param chunk    index of the chunk
+     * @param ontology
+     * @throws IOException
+     * @throws ParseException
+     */
+    static void extractTransformRenovaChunk(CsvChunks chunks, int chunk, OWLOntology ontology)
+            throws IOException, ParseException {
+        try (CSVParser records = chunks.parse(chunk)) {
+            if (records.getHeaderMap().containsKey("Status_Condutividade"))
+                transformAutomaticRecords(records, ontology, null);
+            else if (records.getHeaderMap().containsKey("Status_Alcalinidade total"))
+                transformManualRecords(records, ontology, null);
         }
     }
 
@@ -141,48 +223,45 @@ public class RenovaExtractTransform {
     public static void extractTransformRenovaDataFileAutomaticSources(File file, OWLOntology ontology)
             throws IOException, ParseException {
 
-        InputStream inputStream = RenovaExtractTransform.class.getResourceAsStream("/header-automatico.csv");
-        BufferedReader inHeaderMapping = new BufferedReader(new InputStreamReader(
-                inputStream));
-
-        CSVParser parser = CSVFormat.EXCEL.withDelimiter(';').withFirstRecordAsHeader().parse(inHeaderMapping);
-        List<String> headers = parser.getHeaderNames();
-
-        // Iterable<CSVRecord> records =
-        // CSVFormat.EXCEL.withDelimiter(';').withFirstRecordAsHeader().parse(inHeaderMapping);
-        Iterator<CSVRecord> recordIterator = parser.iterator();
-        CSVRecord qualityKindRecord = recordIterator.next();
-        CSVRecord unitRecord = recordIterator.next();
-        CSVRecord isMapped = recordIterator.next();
+        try (CSVParser records = CsvInput.open(file)) {
+            transformAutomaticRecords(records, ontology, null);
+        }
+    }
 
-        Reader in = new FileReader(file);
-        Iterable<CSVRecord> records = CSVFormat.EXCEL.withDelimiter(';').withFirstRecordAsHeader().parse(in);
+    /**
+     * Transforms the records of a file (or of a chunk of a file) of the
+     * "automatic" format, writing them to the cache if one is given.
+     */
+    private static void transformAutomaticRecords(CSVParser records, OWLOntology ontology, InputCache.Writer cache)
+            throws ParseException {
+        RenovaColumnPlan plan = RenovaColumnPlan.forFile(RenovaColumnPlan.AUTOMATIC_MAPPING, records);
+        EtlMetrics.FileMetrics metrics = EtlMetrics.current();
+        MeasurementBuffer measurements = new MeasurementBuffer(true);
         for (CSVRecord record : records) {
-            for (String header : headers) {
-                if ((isMapped.get(header).equals("x"))
-                        && (record.get(parser.getHeaderMap().get(header) + 1).contains("1")
-                                || record.get(parser.getHeaderMap().get(header) + 1).contains("4")
-                                || record.get(parser.getHeaderMap().get(header) + 1).contains("5"))) {
-                    if (record.get(header).equals("")) {
-                        LOGGER.warning("Void measurement of " + qualityKindRecord.get(header) + " with status "
-                                + record.get(parser.getHeaderMap().get(header) + 1));
+            metrics.row();
+            if (cache != null)
+                plan.cache(record, cache);
+            for (int column = 0; column < plan.size(); column++) {
+                metrics.cell();
+                if (plan.isAccepted(record, column)) {
+                    String valueStr = plan.value(record, column);
+                    if (valueStr.equals("")) {
+                        // counted, with a few examples logged at the end of the file
+                        metrics.empty(plan.qualityKind(column) + " with status " + plan.status(record, column));
                         continue;
                     }
-                    String codigo = record.get("CodigoDoPonto");
-                    String data = record.get("DataAmostra");
-                    String hora = record.get("HoraAmostra");
+                    String codigo = record.get(plan.codigoColumn);
+                    String data = record.get(plan.dataColumn);
+                    String hora = record.get(plan.horaColumn);
                     // String latitude = record.get("Latitude");
                     // String longitude = record.get("Longitude");
 
-                    NumberFormat nf = NumberFormat.getInstance(Locale.US);
-                    float value = nf.parse(record.get(header)).floatValue();
+                    float value = ValueCodec.parseUS(valueStr);
+                    Date date = ValueCodec.parseDateTime(data, hora, false);
 
-                    String pattern = "dd/MM/yyyyHH:mm";
-                    SimpleDateFormat simpleDateFormat = new SimpleDateFormat(pattern);
-                    Date date = simpleDateFormat.parse(data + hora);
-
-                    Load.addMeasurement(ontology, ":" + codigo.replaceAll("\\s", "-"), qualityKindRecord.get(header),
-                            unitRecord.get(header), value, date, "http://purl.org/nemo/integradoce#Renova");
+                    measurements.add(":" + ValueCodec.hyphenate(codigo), plan.qualityKind(column),
+                            plan.unit(column), value, date, "http://purl.org/nemo/integradoce#Renova",
+                            plan.sourceKey(record, column));
 
                     // create a new Measurement with qualityKindRecord.get(header) and
                     // unitRecord.get(header)
@@ -209,10 +288,16 @@ public class RenovaExtractTransform {
                     // resultado da variável estiver acima do limite máximo quantificável.
                     // 6 Não se aplica Esta situação ocorrerá quando o parâmetro não estiver
                     // previsto no PMQQS para o determinado ambiente.
+                } else {
+                    metrics.rejected();
                 }
             }
+            if (measurements.isFull()) {
+                Load.addMeasurements(ontology, measurements);
+                measurements = new MeasurementBuffer(true);
+            }
         }
-
+        Load.addMeasurements(ontology, measurements);
     }
 
     /**
@@ -426,96 +511,82 @@ public class RenovaExtractTransform {
     public static void extractTransformRenovaDataFileManualSources(File file, OWLOntology ontology)
             throws IOException, ParseException {
 
-        // reads a mapping file that includes quality kinds corresponding to a certain
-        // header, units and an indication
-        // on whether the column is incljuded in the mapping
+        // the mapped columns of the file (quality kinds, units and status columns)
+        // are resolved once, from the mapping file and the header of the file
 
-        InputStream inputStream = RenovaExtractTransform.class.getResourceAsStream("/header-manual.csv");
-        BufferedReader inHeaderMapping = new BufferedReader(new InputStreamReader(
-                inputStream));
+        try (CSVParser records = CsvInput.open(file)) {
+            transformManualRecords(records, ontology, null);
+        }
+    }
 
-        CSVParser parser = CSVFormat.EXCEL.withDelimiter(';').withFirstRecordAsHeader().parse(inHeaderMapping);
-        List<String> headers = parser.getHeaderNames();
+    /**
+     * Transforms the records of a file (or of a chunk of a file) of the "manual"
+     * format, writing them to the cache if one is given.
+     */
+    private static void transformManualRecords(CSVParser records, OWLOntology ontology, InputCache.Writer cache)
+            throws ParseException {
+        RenovaColumnPlan plan = RenovaColumnPlan.forFile(RenovaColumnPlan.MANUAL_MAPPING, records);
+        EtlMetrics.FileMetrics metrics = EtlMetrics.current();
+        MeasurementBuffer measurements = new MeasurementBuffer();
+        // for each line of the CSV file
+        for (CSVRecord record : records) {
+            metrics.row();
+            // all rows are cached, as the choice of matrices may change
+            if (cache != null)
+                plan.cache(record, cache);
+            // só Matriz Agua?
+            // Matriz=Descarga_liquida Vazao (m³/s)
+            // Matriz=Ecotoxi_Agua
+            String matriz = record.get(plan.matrizColumn);
+            if (!(matriz.equals("Agua") || matriz.equals("Descarga_liquida")))
+                continue;
+            // for each mapped column
+            for (int column = 0; column < plan.size(); column++) {
+                metrics.cell();
+
+                // check status in cell header+1
+                // if the next column does not start with "Status" or
+                // if it does and its value is 1, 4, 5
+                if (plan.isAccepted(record, column)) {
+                    // STATUS PARÂMETRO SIGNIFICADO DESCRIÇÃO
+                    // 0 Dado não medido Esta situação ocorrerá quando não houver análise de algum
+                    // parâmetro, que estava previsto pelo PMQQS.
+                    // 1 Dado medido validado Esta situação ocorrerá quando a variável foi medida e
+                    // validada.
+                    // 2 Dado medido invalidado Esta situação ocorrerá quando a variável foi medida,
+                    // porém invalidada.
+                    // 3 Dado marcado com qualificador Esta situação ocorrerá quando o resultado
+                    // receber algum tipo de qualificador.
+                    // 4 Abaixo do limite de quantificação Esta situação ocorrerá quando o resultado
+                    // da variável for inferior ao LQ.
+                    // 5 Acima do limite máximo quantificável Esta situação ocorrerá quando o
+                    // resultado da variável estiver acima do limite máximo quantificável.
+                    // 6 Não se aplica Esta situação ocorrerá quando o parâmetro não estiver
+                    // previsto no PMQQS para o determinado ambiente.
 
-        Iterator<CSVRecord> recordIterator = parser.iterator();
-        CSVRecord qualityKindRecord = recordIterator.next();
-        CSVRecord unitRecord = recordIterator.next();
-        CSVRecord isMapped = recordIterator.next();
+                    String codigo = record.get(plan.codigoColumn);
+                    String data = record.get(plan.dataColumn);
+                    String hora = record.get(plan.horaColumn);
+                    // String latitude = record.get("Latitude");
+                    // String longitude = record.get("Longitude");
 
-        // having read the mapping file, let's process the actual data
+                    float value = ValueCodec.parseUS(plan.value(record, column));
+                    Date date = ValueCodec.parseDateTime(data, hora, false);
 
-        Reader in = new FileReader(file);
-        Iterable<CSVRecord> records = CSVFormat.EXCEL.withDelimiter(';').withFirstRecordAsHeader().parse(in);
-        // for each line of the CSV file
-        for (CSVRecord record : records) {
-            // for each column
-            for (String header : headers) {
-
-                if ((record.get(0).equals("Agua") || record.get(0).equals("Descarga_liquida")) &&
-
-                        (isMapped.get(header).equals("x"))) {
-                    // só Matriz Agua?
-                    // Matriz=Descarga_liquida Vazao (m³/s)
-                    // Matriz=Ecotoxi_Agua
-
-                    // check status in cell header+1
-                    // if the next column does not start with "Status" or
-                    // if it does and its value is 1, 4, 5
-
-                    String nextHeaderName = parser.getHeaderNames().get(parser.getHeaderMap().get(header) + 1);
-
-                    if ((!nextHeaderName.startsWith("Status"))
-                            || (record.get(nextHeaderName).contains("1"))
-                            || (record.get(nextHeaderName).contains("4"))
-                            || (record.get(nextHeaderName).contains("5"))) {
-                        // create a new Measurement with qualityKindRecord.get(header) and
-                        // unitRecord.get(header)
-                        // System.out.println("Header: "+header);
-                        // System.out.println("Measurement of " + qualityKindRecord.get(header) + " with
-                        // unit "
-                        // + unitRecord.get(header));
-                        // System.out.println("Value=" + record.get(header));
-                        // System.out.println("Status=" + record.get(parser.getHeaderMap().get(header) +
-                        // 1));
-                        // System.out.println("Column number="+parser.getHeaderMap().get(header) + 1);
-                        // System.out.println("Status'="+record.get(parser.getHeaderNames().get(parser.getHeaderMap().get(header)
-                        // + 1)));
-                        // STATUS PARÂMETRO SIGNIFICADO DESCRIÇÃO
-                        // 0 Dado não medido Esta situação ocorrerá quando não houver análise de algum
-                        // parâmetro, que estava previsto pelo PMQQS.
-                        // 1 Dado medido validado Esta situação ocorrerá quando a variável foi medida e
-                        // validada.
-                        // 2 Dado medido invalidado Esta situação ocorrerá quando a variável foi medida,
-                        // porém invalidada.
-                        // 3 Dado marcado com qualificador Esta situação ocorrerá quando o resultado
-                        // receber algum tipo de qualificador.
-                        // 4 Abaixo do limite de quantificação Esta situação ocorrerá quando o resultado
-                        // da variável for inferior ao LQ.
-                        // 5 Acima do limite máximo quantificável Esta situação ocorrerá quando o
-                        // resultado da variável estiver acima do limite máximo quantificável.
-                        // 6 Não se aplica Esta situação ocorrerá quando o parâmetro não estiver
-                        // previsto no PMQQS para o determinado ambiente.
-
-                        String codigo = record.get("CodigoDoPonto");
-                        String data = record.get("DataAmostra");
-                        String hora = record.get("HoraAmostra");
-                        // String latitude = record.get("Latitude");
-                        // String longitude = record.get("Longitude");
-
-                        NumberFormat nf = NumberFormat.getInstance(Locale.US);
-                        float value = nf.parse(record.get(header)).floatValue();
-
-                        String pattern = "dd/MM/yyyyHH:mm";
-                        SimpleDateFormat simpleDateFormat = new SimpleDateFormat(pattern);
-                        Date date = simpleDateFormat.parse(data + hora);
-
-                        Load.addMeasurement(ontology, ":" + codigo.replaceAll("\\s", "-"),
-                                qualityKindRecord.get(header),
-                                unitRecord.get(header), value, date, "http://purl.org/nemo/integradoce#Renova");
+                    measurements.add(":" + ValueCodec.hyphenate(codigo),
+                            plan.qualityKind(column),
+                            plan.unit(column), value, date, "http://purl.org/nemo/integradoce#Renova",
+                            plan.sourceKey(record, column));
 
-                    }
+                } else {
+                    metrics.rejected();
                 }
             }
+            if (measurements.isFull()) {
+                Load.addMeasurements(ontology, measurements);
+                measurements = new MeasurementBuffer();
+            }
         }
+        Load.addMeasurements(ontology, measurements);
     }
 }
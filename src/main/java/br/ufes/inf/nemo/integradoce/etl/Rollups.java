@@ -0,0 +1,248 @@
+package br.ufes.inf.nemo.integradoce.etl;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.EnumSet;
+import java.util.GregorianCalendar;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Hourly, daily and monthly rollups (minimum, maximum, mean and count) of the
+ * values of telemetry measurements (see {@link MeasurementBuffer#isTelemetry()}),
+ * per geographic point, quality kind, unit and source, computed in one pass
+ * as the measurements are added.
+ *
+ * Each series keeps one open aggregate per period, which is closed when a
+ * measurement of a later period arrives, so the memory does not grow with
+ * the number of periods. Measurements are expected in time order within each
+ * series, as in the Renova exports (files are added in the order of their
+ * paths): a measurement earlier than the open period of its series is
+ * counted as late and left out of that rollup (see {@link #add}, which tells
+ * the caller, so that the measurement itself is not lost when only the
+ * rollups are kept). The aggregates still open at
+ * the end of the run are closed by {@link #flush(List)}.
+ *
+ * Periods are computed in Brasília time (UTC-3, see
+ * {@link ValueCodec#SOURCE_TIME_ZONE}), the time of the input files, whatever
+ * the time zone of the host.
+ */
+final class Rollups {
+
+    /**
+     * Periods of the rollups
+     */
+    enum Period {
+        HOUR("PT1H", "Hourly", Calendar.HOUR_OF_DAY),
+        DAY("P1D", "Daily", Calendar.DAY_OF_MONTH),
+        MONTH("P1M", "Monthly", Calendar.MONTH);
+
+        /**
+         * Length of the period as an xsd:duration
+         */
+        final String duration;
+
+        /**
+         * Name in the IRIs of the aggregates (e.g. pHHourlyAggregate-...)
+         */
+        final String label;
+
+        private final int field;
+
+        Period(String duration, String label, int field) {
+            this.duration = duration;
+            this.label = label;
+            this.field = field;
+        }
+
+        /**
+         * Parses a comma-separated list of periods (e.g. "hour,day"), returning
+         * null if it is not valid
+         */
+        static Set<Period> parse(String s) {
+            Set<Period> periods = EnumSet.noneOf(Period.class);
+            for (String name : s.split(",")) {
+                try {
+                    periods.add(valueOf(name.trim().toUpperCase(Locale.ROOT)));
+                } catch (IllegalArgumentException e) {
+                    return null;
+                }
+            }
+            return periods;
+        }
+
+        /**
+         * Sets the calendar to the start of the period that includes its time
+         */
+        private void truncate(Calendar calendar) {
+            calendar.set(Calendar.MILLISECOND, 0);
+            calendar.set(Calendar.SECOND, 0);
+            calendar.set(Calendar.MINUTE, 0);
+            if (this == HOUR)
+                return;
+            calendar.set(Calendar.HOUR_OF_DAY, 0);
+            if (this == DAY)
+                return;
+            calendar.set(Calendar.DAY_OF_MONTH, 1);
+        }
+    }
+
+    /**
+     * Minimum, maximum, mean and count of the values of a series in a period
+     */
+    static final class Aggregate {
+
+        final String point, qualityKind, unit, agent;
+        final Period period;
+
+        /**
+         * Start (inclusive) and end (exclusive) of the period, in epoch
+         * milliseconds
+         */
+        final long start, end;
+
+        float min = Float.POSITIVE_INFINITY, max = Float.NEGATIVE_INFINITY;
+        double sum = 0;
+        int count = 0;
+
+        private Aggregate(List<String> series, Period period, long start, long end) {
+            point = series.get(0);
+            qualityKind = series.get(1);
+            unit = series.get(2);
+            agent = series.get(3);
+            this.period = period;
+            this.start = start;
+            this.end = end;
+        }
+
+        private void add(float value) {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            sum += value;
+            count++;
+        }
+
+        double mean() {
+            return sum / count;
+        }
+    }
+
+    private final Period[] periods;
+    private final boolean keepMeasurements;
+
+    /**
+     * Open aggregate of each series, by period (in the order of
+     * {@link #periods})
+     */
+    private final Map<List<String>, Aggregate[]> open = new LinkedHashMap<>();
+
+    private final Calendar calendar = new GregorianCalendar(ValueCodec.SOURCE_TIME_ZONE);
+
+    private long measurements = 0, late = 0, closed = 0;
+
+    /**
+     * @param periods          periods of the rollups
+     * @param keepMeasurements whether the rolled up measurements are added as
+     *                         well, or only their rollups
+     */
+    Rollups(Set<Period> periods, boolean keepMeasurements) {
+        this.periods = periods.toArray(new Period[0]);
+        this.keepMeasurements = keepMeasurements;
+    }
+
+    boolean keepsMeasurements() {
+        return keepMeasurements;
+    }
+
+    Set<Period> getPeriods() {
+        return EnumSet.copyOf(Arrays.asList(periods));
+    }
+
+    /**
+     * Adds a measurement to the open aggregates of its series, adding the
+     * aggregates that it closes to the given list.
+     *
+     * @param time   time of the measurement in epoch milliseconds
+     * @param closed receives the aggregates closed
+     * @return whether the measurement was rolled up in all periods, false if it
+     *         was left out of some rollup for being late
+     */
+    synchronized boolean add(String point, String qualityKind, String unit, String agent, long time, float value,
+            List<Aggregate> closed) {
+        measurements++;
+        List<String> series = Arrays.asList(point, qualityKind, unit, agent);
+        Aggregate[] aggregates = open.get(series);
+        if (aggregates == null) {
+            aggregates = new Aggregate[periods.length];
+            open.put(series, aggregates);
+        }
+        boolean isLate = false;
+        for (int i = 0; i < periods.length; i++) {
+            Aggregate aggregate = aggregates[i];
+            if (aggregate != null && time < aggregate.start) {
+                isLate = true;
+                continue;
+            }
+            if (aggregate == null || time >= aggregate.end) {
+                if (aggregate != null) {
+                    closed.add(aggregate);
+                    this.closed++;
+                }
+                aggregate = aggregates[i] = open(series, periods[i], time);
+            }
+            aggregate.add(value);
+        }
+        if (isLate)
+            late++;
+        return !isLate;
+    }
+
+    private Aggregate open(List<String> series, Period period, long time) {
+        calendar.setTimeInMillis(time);
+        period.truncate(calendar);
+        long start = calendar.getTimeInMillis();
+        calendar.add(period.field, 1);
+        return new Aggregate(series, period, start, calendar.getTimeInMillis());
+    }
+
+    /**
+     * Closes all open aggregates, adding them to the given list, by series (in
+     * the order they were first added) and period.
+     */
+    synchronized void flush(List<Aggregate> closed) {
+        for (Aggregate[] aggregates : open.values()) {
+            for (Aggregate aggregate : aggregates) {
+                if (aggregate != null) {
+                    closed.add(aggregate);
+                    this.closed++;
+                }
+            }
+        }
+        open.clear();
+    }
+
+    /**
+     * Number of measurements rolled up
+     */
+    synchronized long getMeasurements() {
+        return measurements;
+    }
+
+    /**
+     * Number of measurements left out of some rollup for being earlier than
+     * the open period of their series
+     */
+    synchronized long getLate() {
+        return late;
+    }
+
+    /**
+     * Number of aggregates closed
+     */
+    synchronized long getAggregates() {
+        return closed;
+    }
+}
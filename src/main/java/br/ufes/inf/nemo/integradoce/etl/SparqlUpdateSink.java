@@ -0,0 +1,285 @@
+package br.ufes.inf.nemo.integradoce.etl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.semanticweb.owlapi.model.OWLAxiom;
+
+/**
+ * Sends triples to a SPARQL 1.1 Update endpoint, in "INSERT DATA" requests of
+ * up to about {@code maxBatchSize} characters of N-Triples, as they are
+ * produced. Requests are sent in the background, at most
+ * {@code maxConcurrentRequests} at a time: adding triples blocks while that
+ * many requests are in progress, so that the extraction does not get ahead of
+ * the triple store. Failed requests are retried, with increasing delays, if
+ * they may succeed later (connection errors, timeouts and server errors).
+ *
+ * The triples of a record (see {@link TripleSink#addAll(Collection)}) are
+ * always sent in the same request.
+ */
+public class SparqlUpdateSink extends NTriplesSink {
+
+    static final int DEFAULT_BATCH_SIZE = 1 << 20;
+    static final int DEFAULT_CONCURRENT_REQUESTS = 2;
+
+    static final int MAX_ATTEMPTS = 4;
+    static final long FIRST_RETRY_DELAY_MILLIS = 500;
+
+    private static final int TIMEOUT_MILLIS = 300000;
+
+    private final static Logger LOGGER = Logger.getLogger("ETL");
+
+    private final URL endpoint;
+
+    /**
+     * IRI of the named graph the triples are inserted into, or null for the
+     * default graph
+     */
+    private final String graph;
+
+    private final int maxBatchSize;
+
+    /**
+     * N-Triples of the batch being built
+     */
+    private final StringWriter lines;
+
+    private final ExecutorService senders;
+    private final Semaphore requests;
+
+    /**
+     * First failure of a request (after retries), reported to the thread adding
+     * triples
+     */
+    private volatile IOException failure;
+
+    private int batches = 0;
+
+    public SparqlUpdateSink(URL endpoint, String graph) {
+        this(endpoint, graph, DEFAULT_BATCH_SIZE, DEFAULT_CONCURRENT_REQUESTS);
+    }
+
+    public SparqlUpdateSink(URL endpoint, String graph, int maxBatchSize, int maxConcurrentRequests) {
+        this(new StringWriter(1024), endpoint, graph, maxBatchSize, maxConcurrentRequests);
+    }
+
+    private SparqlUpdateSink(StringWriter lines, URL endpoint, String graph, int maxBatchSize,
+            int maxConcurrentRequests) {
+        super(lines);
+        this.lines = lines;
+        this.endpoint = endpoint;
+        this.graph = graph;
+        this.maxBatchSize = maxBatchSize;
+        requests = new Semaphore(maxConcurrentRequests);
+        senders = Executors.newFixedThreadPool(maxConcurrentRequests, r -> {
+            Thread thread = new Thread(r, "sparql-update");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void add(OWLAxiom axiom) throws IOException {
+        addAll(Collections.singletonList(axiom));
+    }
+
+    /**
+     * Adds the axioms of one record, sending the current batch if it is full.
+     */
+    @Override
+    public void addAll(Collection<? extends OWLAxiom> axioms) throws IOException {
+        checkFailure();
+        for (OWLAxiom axiom : axioms)
+            super.add(axiom);
+        if (lines.getBuffer().length() >= maxBatchSize)
+            sendBatch();
+    }
+
+    /**
+     * Sends triples in N-Triples (e.g. the ontology, as rendered by the OWLAPI)
+     * in a request of their own, since they may have blank nodes, which would
+     * not be the same across requests.
+     *
+     * @param ntriples
+     * @throws IOException
+     */
+    public void addNTriples(String ntriples) throws IOException {
+        checkFailure();
+        sendBatch();
+        lines.write(ntriples);
+        sendBatch();
+    }
+
+    /**
+     * Starts sending the triples added so far, without waiting for the batch to
+     * be full.
+     *
+     * @throws IOException if a request failed
+     */
+    @Override
+    public void flush() throws IOException {
+        checkFailure();
+        sendBatch();
+    }
+
+    /**
+     * Sends the remaining triples and waits for all requests to complete.
+     *
+     * @throws IOException if a request failed
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (failure == null)
+                sendBatch();
+            senders.shutdown();
+            if (!senders.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS))
+                throw new IOException("Timed out waiting for SPARQL Update requests");
+        } catch (InterruptedException e) {
+            senders.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for SPARQL Update requests", e);
+        }
+        checkFailure();
+        LOGGER.info("Sent " + batches + " SPARQL Update requests to " + endpoint);
+    }
+
+    private void checkFailure() throws IOException {
+        IOException e = failure;
+        if (e != null)
+            throw new IOException("SPARQL Update request to " + endpoint + " failed: " + e.getMessage(), e);
+    }
+
+    /**
+     * Starts sending the current batch, once fewer than maxConcurrentRequests
+     * requests are in progress.
+     */
+    private void sendBatch() throws IOException {
+        StringBuffer triples = lines.getBuffer();
+        if (triples.length() == 0)
+            return;
+        StringBuilder update = new StringBuilder(triples.length() + 128);
+        update.append("INSERT DATA {\n");
+        if (graph != null)
+            update.append("GRAPH <").append(graph).append("> {\n");
+        update.append(triples);
+        if (graph != null)
+            update.append("}\n");
+        update.append("}\n");
+        triples.setLength(0);
+        byte[] body = update.toString().getBytes(StandardCharsets.UTF_8);
+
+        try {
+            requests.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for SPARQL Update requests", e);
+        }
+        int batch = ++batches;
+        try {
+            senders.execute(() -> {
+                try {
+                    if (failure == null)
+                        send(batch, body);
+                } catch (IOException e) {
+                    if (failure == null)
+                        failure = e;
+                } finally {
+                    requests.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            requests.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Sends a request, retrying it if it may succeed later.
+     */
+    private void send(int batch, byte[] body) throws IOException {
+        long delay = FIRST_RETRY_DELAY_MILLIS;
+        for (int attempt = 1;; attempt++) {
+            try {
+                post(body);
+                return;
+            } catch (RetryableException e) {
+                if (attempt == MAX_ATTEMPTS)
+                    throw e;
+                LOGGER.warning("SPARQL Update request " + batch + " failed (" + e.getMessage() + "), retrying in "
+                        + delay + " ms");
+            }
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while retrying SPARQL Update request " + batch, e);
+            }
+            delay *= 2;
+        }
+    }
+
+    private void post(byte[] body) throws IOException {
+        HttpURLConnection connection;
+        int status;
+        try {
+            connection = (HttpURLConnection) endpoint.openConnection();
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setConnectTimeout(TIMEOUT_MILLIS);
+            connection.setReadTimeout(TIMEOUT_MILLIS);
+            connection.setRequestProperty("Content-Type", "application/sparql-update; charset=UTF-8");
+            connection.setFixedLengthStreamingMode(body.length);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body);
+            }
+            status = connection.getResponseCode();
+        } catch (IOException e) {
+            throw new RetryableException(e.toString(), e);
+        }
+
+        // the response is read to the end, so that the connection can be reused
+        String message = connection.getResponseMessage();
+        try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            if (in != null) {
+                byte[] buffer = new byte[4096];
+                while (in.read(buffer) >= 0)
+                    ;
+            }
+        } catch (IOException e) {
+            // the update was already accepted or rejected
+        }
+
+        if (status >= 200 && status < 300)
+            return;
+        String error = "HTTP " + status + " " + message;
+        if (status >= 500 || status == HttpURLConnection.HTTP_CLIENT_TIMEOUT || status == 429)
+            throw new RetryableException(error, null);
+        throw new IOException(error);
+    }
+
+    /**
+     * Failure of a request that may succeed later
+     */
+    private static class RetryableException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        RetryableException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+}
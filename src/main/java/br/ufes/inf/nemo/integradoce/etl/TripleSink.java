@@ -0,0 +1,172 @@
+package br.ufes.inf.nemo.integradoce.etl;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLClassAssertionAxiom;
+import org.semanticweb.owlapi.model.OWLDataPropertyAssertionAxiom;
+import org.semanticweb.owlapi.model.OWLIndividual;
+import org.semanticweb.owlapi.model.OWLLiteral;
+import org.semanticweb.owlapi.model.OWLObjectPropertyAssertionAxiom;
+import org.semanticweb.owlapi.vocab.OWLRDFVocabulary;
+
+/**
+ * Destination for the axioms produced by the extract and transform process that
+ * writes them out as triples as they are produced, instead of accumulating them
+ * in an OWLOntology.
+ *
+ * Only the individual assertions created by {@link Load} (class, object
+ * property and data property assertions on named individuals) are supported.
+ */
+public abstract class TripleSink implements Closeable, Flushable {
+
+    protected static final IRI RDF_TYPE = OWLRDFVocabulary.RDF_TYPE.getIRI();
+    protected static final IRI OWL_NAMED_INDIVIDUAL = OWLRDFVocabulary.OWL_NAMED_INDIVIDUAL.getIRI();
+
+    /**
+     * Maps namespaces to the prefix names used to abbreviate IRIs (e.g.
+     * "http://purl.org/nemo/doce#" to ":")
+     */
+    private final Map<String, String> prefixNames = new HashMap<>();
+
+    protected TripleSink(Map<String, String> prefixName2Namespace) {
+        for (Map.Entry<String, String> prefix : prefixName2Namespace.entrySet())
+            prefixNames.putIfAbsent(prefix.getValue(), prefix.getKey());
+    }
+
+    /**
+     * Writes the triples corresponding to the given axiom.
+     *
+     * @param axiom
+     * @throws IOException
+     */
+    public void add(OWLAxiom axiom) throws IOException {
+        if (!supports(axiom)) {
+            throw new IllegalArgumentException("Axiom type not supported by streaming output: " + axiom);
+        } else if (axiom instanceof OWLClassAssertionAxiom) {
+            OWLClassAssertionAxiom ax = (OWLClassAssertionAxiom) axiom;
+            IRI individual = iri(ax.getIndividual());
+            triple(individual, RDF_TYPE, OWL_NAMED_INDIVIDUAL);
+            triple(individual, RDF_TYPE, ax.getClassExpression().asOWLClass().getIRI());
+        } else if (axiom instanceof OWLObjectPropertyAssertionAxiom) {
+            OWLObjectPropertyAssertionAxiom ax = (OWLObjectPropertyAssertionAxiom) axiom;
+            triple(iri(ax.getSubject()), ax.getProperty().asOWLObjectProperty().getIRI(), iri(ax.getObject()));
+        } else if (axiom instanceof OWLDataPropertyAssertionAxiom) {
+            OWLDataPropertyAssertionAxiom ax = (OWLDataPropertyAssertionAxiom) axiom;
+            triple(iri(ax.getSubject()), ax.getProperty().asOWLDataProperty().getIRI(), ax.getObject());
+        }
+    }
+
+    /**
+     * Whether the axiom can be written by a sink: a class, object property or
+     * data property assertion, without annotations, on named individuals, named
+     * classes and named properties.
+     */
+    public static boolean supports(OWLAxiom axiom) {
+        if (axiom.isAnnotated())
+            return false;
+        if (axiom instanceof OWLClassAssertionAxiom) {
+            OWLClassAssertionAxiom ax = (OWLClassAssertionAxiom) axiom;
+            return ax.getIndividual().isNamed() && !ax.getClassExpression().isAnonymous();
+        } else if (axiom instanceof OWLObjectPropertyAssertionAxiom) {
+            OWLObjectPropertyAssertionAxiom ax = (OWLObjectPropertyAssertionAxiom) axiom;
+            return ax.getSubject().isNamed() && ax.getObject().isNamed() && !ax.getProperty().isAnonymous();
+        } else if (axiom instanceof OWLDataPropertyAssertionAxiom) {
+            OWLDataPropertyAssertionAxiom ax = (OWLDataPropertyAssertionAxiom) axiom;
+            return ax.getSubject().isNamed();
+        }
+        return false;
+    }
+
+    /**
+     * Writes the triples corresponding to the axioms of one record (e.g. a
+     * measurement or a geographic point).
+     *
+     * @param axioms
+     * @throws IOException
+     */
+    public void addAll(Collection<? extends OWLAxiom> axioms) throws IOException {
+        for (OWLAxiom axiom : axioms)
+            add(axiom);
+    }
+
+    /**
+     * Writes out the triples added so far, e.g. so that they can be read while
+     * the output is still open. By default, does nothing.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void flush() throws IOException {
+    }
+
+    protected abstract void triple(IRI subject, IRI predicate, IRI object) throws IOException;
+
+    protected abstract void triple(IRI subject, IRI predicate, OWLLiteral object) throws IOException;
+
+    /**
+     * Returns the abbreviated form of an IRI (e.g. "gufo:hasQualityValue"), or
+     * null if there is no prefix for its namespace or the remainder is not a
+     * valid local name.
+     */
+    protected String abbreviate(IRI iri) {
+        String prefixName = prefixNames.get(iri.getNamespace());
+        if (prefixName == null)
+            return null;
+        String remainder = iri.getRemainder().orElse("");
+        if (remainder.isEmpty() || !isLocalName(remainder))
+            return null;
+        return prefixName + remainder;
+    }
+
+    private static boolean isLocalName(String s) {
+        char first = s.charAt(0);
+        if (!(Character.isLetter(first) || first == '_'))
+            return false;
+        for (int i = 1; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (!(Character.isLetterOrDigit(c) || c == '_' || c == '-'))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Escapes a string for use inside a double-quoted N-Triples literal.
+     */
+    protected static void appendEscaped(StringBuilder sb, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+    }
+
+    private static IRI iri(OWLIndividual individual) {
+        return individual.asOWLNamedIndividual().getIRI();
+    }
+
+}
@@ -0,0 +1,125 @@
+package br.ufes.inf.nemo.integradoce.etl;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLLiteral;
+import org.semanticweb.owlapi.vocab.OWL2Datatype;
+
+/**
+ * Writes triples in Turtle, using the given prefixes and grouping consecutive
+ * triples with the same subject (and predicate) as the OWLAPI Turtle renderer
+ * does.
+ *
+ * The prefixes are expected to have been declared already in the output (e.g.,
+ * by writing the ontology header before the first triple).
+ */
+public class TurtleSink extends TripleSink {
+
+    private final Writer out;
+
+    private final StringBuilder sb = new StringBuilder(256);
+
+    private IRI currentSubject;
+    private IRI currentPredicate;
+
+    public TurtleSink(Writer out, Map<String, String> prefixName2Namespace) {
+        super(prefixName2Namespace);
+        this.out = out;
+    }
+
+    @Override
+    protected void triple(IRI subject, IRI predicate, IRI object) throws IOException {
+        startTriple(subject, predicate);
+        appendIRI(object);
+        out.append(sb);
+    }
+
+    @Override
+    protected void triple(IRI subject, IRI predicate, OWLLiteral object) throws IOException {
+        startTriple(subject, predicate);
+        appendString(object.getLiteral());
+        if (object.hasLang()) {
+            sb.append('@').append(object.getLang());
+        } else if (!object.getDatatype().getIRI().equals(OWL2Datatype.XSD_STRING.getIRI())) {
+            sb.append("^^");
+            appendIRI(object.getDatatype().getIRI());
+        }
+        out.append(sb);
+    }
+
+    /**
+     * Ends the previous triple, continuing its subject or predicate where
+     * possible, and writes the subject and predicate of the next one.
+     */
+    private void startTriple(IRI subject, IRI predicate) {
+        sb.setLength(0);
+        if (subject.equals(currentSubject)) {
+            if (predicate.equals(currentPredicate)) {
+                sb.append(" , ");
+                return;
+            }
+            sb.append(" ;\n\t");
+        } else {
+            if (currentSubject != null)
+                sb.append(" .\n");
+            sb.append('\n');
+            appendIRI(subject);
+            sb.append(' ');
+            currentSubject = subject;
+        }
+        currentPredicate = predicate;
+        if (predicate.equals(RDF_TYPE))
+            sb.append('a');
+        else
+            appendIRI(predicate);
+        sb.append(' ');
+    }
+
+    /**
+     * Appends a string literal as the OWLAPI Turtle renderer does: only quotes
+     * and backslashes are escaped (the OWLAPI Turtle parser reads no other
+     * escape sequences), and strings with line breaks are long strings.
+     */
+    private void appendString(String s) {
+        String quotes = s.indexOf('\n') >= 0 || s.indexOf('\r') >= 0 ? "\"\"\"" : "\"";
+        sb.append(quotes);
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\')
+                sb.append('\\');
+            sb.append(c);
+        }
+        sb.append(quotes);
+    }
+
+    private void appendIRI(IRI iri) {
+        String abbreviated = abbreviate(iri);
+        if (abbreviated != null)
+            sb.append(abbreviated);
+        else
+            sb.append('<').append(iri.toString()).append('>');
+    }
+
+    /**
+     * Ends the current statement and writes out the triples so far.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (currentSubject != null)
+            out.append(" .\n");
+        currentSubject = null;
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (currentSubject != null)
+            out.append(" .\n");
+        currentSubject = null;
+        out.close();
+    }
+
+}
@@ -1,19 +1,14 @@
 package br.ufes.inf.nemo.integradoce.etl;
 
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.Reader;
-import java.text.NumberFormat;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Locale;
+import java.util.Map;
 import java.util.logging.Logger;
 
-import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVRecord;
 import org.semanticweb.owlapi.apibinding.OWLManager;
@@ -43,6 +38,11 @@ public class UnespExtractTransform {
      */
     private static OWLNamedIndividual riodoce;
 
+    /**
+     * Prefix of the codes of the UNESP sampling sites (e.g. ":UNESP_M2")
+     */
+    static final String POINT_PREFIX = ":UNESP_";
+
     private final static Logger LOGGER = Logger.getLogger("ETL");
 
     static {
@@ -60,25 +60,25 @@ public class UnespExtractTransform {
 
         // TODO add geographical information such as city, municipality, river basin
 
-        Reader in = new FileReader(csvFilePath);
-
         // header:
         // ID amostras;Referência;Coordenada Geográfica (UTM);;Data
         // Example row:
         // M2;Rio Gualaxo do Norte em Bento Rodrigues;-20,27638884;-43,43115158;30/04/16
 
-        Iterable<CSVRecord> records = CSVFormat.EXCEL.withDelimiter(';').withFirstRecordAsHeader().parse(in);
-        for (CSVRecord record : records) {
-            String codigo = record.get(0);
-            String nome = record.get(1);
-            String descricao = record.get(1);
-            String latitude = record.get(2);
-            String longitude = record.get(3);
-
-            NumberFormat nf = NumberFormat.getInstance(Locale.forLanguageTag("pt-BR"));
-            Load.addGeographicPoint(ontology, ":UNESP_" + codigo.replaceAll("\\s", "-"),
-                    nf.parse(latitude).floatValue(),
-                    nf.parse(longitude).floatValue(), descricao, nome);
+        EtlMetrics.FileMetrics metrics = EtlMetrics.current();
+        try (CSVParser records = CsvInput.open(new File(csvFilePath))) {
+            for (CSVRecord record : records) {
+                metrics.row();
+                String codigo = record.get(0);
+                String nome = record.get(1);
+                String descricao = record.get(1);
+                String latitude = record.get(2);
+                String longitude = record.get(3);
+
+                Load.addGeographicPoint(ontology, POINT_PREFIX + ValueCodec.hyphenate(codigo),
+                        ValueCodec.parsePtBR(latitude),
+                        ValueCodec.parsePtBR(longitude), descricao, nome);
+            }
         }
     }
 
@@ -86,77 +86,169 @@ public class UnespExtractTransform {
 
         LOGGER.info("Processing " + file.getName());
 
-        // campanhas 1 e 2
-        // As Cd Co Cr Mn Ni Pb Fe-diss Fe-tot Al-diss Al-tot
-        // campanhas 4 e 5
-        // As Cd Cr Cu Mn Ni Pb Zn Fe Al
-        HashMap<String, String> qualityKindRecord = new HashMap<String, String>() {
-            {
-                put("As", "http://purl.org/nemo/doce#TotalArsenicConcentration");
-                put("Cd", "http://purl.org/nemo/doce#TotalCadmiumConcentration");
-                put("Co", "http://purl.org/nemo/doce#TotalCobaltConcentration");
-                put("Cu", "http://purl.org/nemo/doce#TotalCopperConcentration");
-                put("Cr", "http://purl.org/nemo/doce#TotalChromiumConcentration");
-                put("Mn", "http://purl.org/nemo/doce#TotalManganeseConcentration");
-                put("Ni", "http://purl.org/nemo/doce#TotalNickelConcentration");
-                put("Pb", "http://purl.org/nemo/doce#TotalLeadConcentration");
-                put("Zn", "http://purl.org/nemo/doce#TotalZincConcentration");
-                put("Fe-diss", "http://purl.org/nemo/doce#DissolvedIronConcentration");
-                put("Fe-tot", "http://purl.org/nemo/doce#TotalIronConcentration");
-                put("Fe", "http://purl.org/nemo/doce#TotalIronConcentration");
-                put("Al-diss", "http://purl.org/nemo/doce#DissolvedAluminiumConcentration");
-                put("Al-tot", "http://purl.org/nemo/doce#TotalAluminiumConcentration");
-                put("Al", "http://purl.org/nemo/doce#TotalAluminiumConcentration");
+        long checksum = 0;
+        if (InputCache.isEnabled()) {
+            checksum = InputCache.checksum(file);
+            try (InputCache.Reader cached = InputCache.open(file, checksum)) {
+                if (cached != null) {
+                    transformCachedRecords(cached, ontology);
+                    return;
+                }
             }
-        };
+        }
 
-        Reader inHeaderMapping = new FileReader(file);
-        CSVParser parser = CSVFormat.EXCEL.withDelimiter(';').withFirstRecordAsHeader().parse(inHeaderMapping);
-        List<String> headers = parser.getHeaderNames();
+        // the headers and the records are read in one pass over the file
+        try (CSVParser records = CsvInput.open(file);
+                InputCache.Writer cache = InputCache.isEnabled()
+                        ? InputCache.create(file, checksum, records.getHeaderNames())
+                        : null) {
+            List<String> headers = records.getHeaderNames();
+            Map<String, MappingRegistry.Column> columns = mappedColumns(headers, file);
+            EtlMetrics.FileMetrics metrics = EtlMetrics.current();
+            MeasurementBuffer measurements = new MeasurementBuffer();
+            for (CSVRecord record : records) {
+                metrics.row();
+                if (cache != null) {
+                    long time;
+                    try {
+                        time = ValueCodec.parseDateTime(record.get(0), "12:00", true).getTime();
+                    } catch (ParseException e) {
+                        // an error only if the row has values
+                        time = InputCache.NO_TIME;
+                    }
+                    cache.row(record.get(1), "", "", time);
+                    cacheCells(record, headers, cache);
+                }
+                for (String header : headers) {
+                    MappingRegistry.Column column = columns.get(header);
+                    if (column == null)
+                        continue;
+                    metrics.cell();
+                    if (record.get(header).equals("-")) {
+                        // not measured
+                        metrics.empty(header + " \"-\"");
+                        continue;
+                    }
+                    String codigo = record.get(1);
+
+                    String data = record.get(0);
+                    String hora = "12:00";
+
+                    Date date = ValueCodec.parseDateTime(data, hora, true);
+
+                    // create a new Measurement with column.qualityKind and
+                    // column.unit
+                    // System.out.println("Codigo=" + record.get(1));
+                    // System.out.println("Measurement of " + column.qualityKind);
+                    // System.out.println("Value=" + record.get(header));
+
+                    float value = ValueCodec.parseMeasuredPtBR(record.get(header));
+
+                    measurements.add(POINT_PREFIX + ValueCodec.hyphenate(codigo),
+                            column.qualityKind,
+                            column.unit,
+                            value,
+                            date,
+                            "http://purl.org/nemo/integradoce#IntegradoceUNESP", header);
 
-        Reader in = new FileReader(file);
-        Iterable<CSVRecord> records = CSVFormat.EXCEL.withDelimiter(';').withFirstRecordAsHeader().parse(in);
-        for (CSVRecord record : records) {
-            for (String header : headers) {
-                if (header.contains("Amostra") || header.contains("Data"))
-                    continue;
-                if (record.get(header).equals("-"))
-                    continue;
-                String codigo = record.get(1);
-
-                String data = record.get(0);
-                String hora = "12:00";
-
-                String pattern = "dd/MM/yyHH:mm";
-                SimpleDateFormat simpleDateFormat = new SimpleDateFormat(pattern);
-                Date date = simpleDateFormat.parse(data + hora);
-
-                // create a new Measurement with qualityKindRecord.get(header) and
-                // unitRecord.get(header)
-                // System.out.println("Codigo=" + record.get(1));
-                // System.out.println("Measurement of " + qualityKindRecord.get(header));
-                // System.out.println("Value=" + record.get(header));
-
-                String valueStr = record.get(header);
-                float value = 0.0f;
-                NumberFormat nf = NumberFormat.getInstance(Locale.forLanguageTag("pt-BR"));
-                if (record.get(header).startsWith("<")) {
-                    // TODO treat below limit of detection
-                } else if (record.get(header).startsWith(">")) {
-                    // TODO treat above limit of detection
-                    value = nf.parse(valueStr.substring(1)).floatValue();
-                } else {
-                    value = nf.parse(valueStr).floatValue();
                 }
+                if (measurements.isFull()) {
+                    Load.addMeasurements(ontology, measurements);
+                    measurements = new MeasurementBuffer();
+                }
+            }
+            Load.addMeasurements(ontology, measurements);
+            if (cache != null)
+                cache.commit();
+        }
+    }
+
+    /**
+     * Whether a column of a UNESP file is a value column, not the sample or date
+     * column
+     */
+    private static boolean isValueColumn(String header) {
+        return !header.contains("Amostra") && !header.contains("Data");
+    }
+
+    /**
+     * Adds the usable cells of all value columns of a record to the cache,
+     * mapped or not, so that the cache does not depend on the mapping (see
+     * {@link InputCache})
+     */
+    private static void cacheCells(CSVRecord record, List<String> headers, InputCache.Writer cache) {
+        for (int i = 0; i < headers.size() && i < record.size(); i++) {
+            String value = record.get(i);
+            if (!isValueColumn(headers.get(i)) || value.isEmpty() || value.equals("-"))
+                continue;
+            try {
+                cache.cell(i, ValueCodec.parseMeasuredPtBR(value));
+            } catch (ParseException e) {
+                // not a measurement
+            }
+        }
+    }
 
-                Load.addMeasurement(ontology, ":UNESP_" + codigo.replaceAll("\\s", "-"),
-                        qualityKindRecord.get(header),
-                        "http://qudt.org/vocab/unit/MilliGM-PER-L",
-                        value,
-                        date,
-                        "http://purl.org/nemo/integradoce#IntegradoceUNESP");
+    /**
+     * Returns the value columns of a UNESP file (other than the sample and date
+     * columns) that are mapped to a quality kind (see {@link MappingRegistry}),
+     * by header. The columns that are not mapped are logged, if the file is
+     * given, and skipped.
+     */
+    private static Map<String, MappingRegistry.Column> mappedColumns(List<String> headers, File file) {
+        MappingRegistry.Mapping mapping = MappingRegistry.get().unesp();
+        Map<String, MappingRegistry.Column> columns = new HashMap<>();
+        for (String header : headers) {
+            if (!isValueColumn(header))
+                continue;
+            MappingRegistry.Column column = mapping.get(header);
+            if (column != null)
+                columns.put(header, column);
+            else if (file != null)
+                LOGGER.warning("Column " + header + " of " + file.getName() + " is not mapped, skipping it");
+        }
+        return columns;
+    }
 
+    /**
+     * Transforms the rows of a UNESP file read from the cache (see
+     * {@link InputCache}), as {@link #extractTransformUNESP(File, OWLOntology)}
+     * transforms the records of the file.
+     */
+    private static void transformCachedRecords(InputCache.Reader cached, OWLOntology ontology)
+            throws IOException, ParseException {
+        List<String> headers = cached.getHeader();
+        Map<String, MappingRegistry.Column> columns = mappedColumns(headers, null);
+        int valueColumns = 0;
+        for (String header : headers)
+            if (columns.containsKey(header))
+                valueColumns++;
+        EtlMetrics.FileMetrics metrics = EtlMetrics.current();
+        MeasurementBuffer measurements = new MeasurementBuffer();
+        while (cached.next()) {
+            metrics.row();
+            for (int i = 0; i < valueColumns; i++)
+                metrics.cell();
+            if (cached.cells() > 0 && cached.time() == InputCache.NO_TIME)
+                throw new ParseException("Unparseable date of " + cached.point(), 0);
+            for (int i = 0; i < cached.cells(); i++) {
+                String header = headers.get(cached.column(i));
+                MappingRegistry.Column column = columns.get(header);
+                if (column == null)
+                    // not mapped (now)
+                    continue;
+                measurements.add(POINT_PREFIX + ValueCodec.hyphenate(cached.point()),
+                        column.qualityKind,
+                        column.unit,
+                        cached.value(i),
+                        cached.time(),
+                        "http://purl.org/nemo/integradoce#IntegradoceUNESP", header);
+            }
+            if (measurements.isFull()) {
+                Load.addMeasurements(ontology, measurements);
+                measurements = new MeasurementBuffer();
             }
         }
+        Load.addMeasurements(ontology, measurements);
     }
 }
@@ -0,0 +1,292 @@
+package br.ufes.inf.nemo.integradoce.etl;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+/**
+ * Parsing and formatting of the values in the source files, without the
+ * per-cell NumberFormat and SimpleDateFormat instances.
+ *
+ * Results are the same as those of NumberFormat (pt-BR or US) and of
+ * SimpleDateFormat with the patterns "dd/MM/yyyyHH:mm" and "dd/MM/yyHH:mm"
+ * (lenient, in {@link #SOURCE_TIME_ZONE}). Timestamps are memoized per thread,
+ * since all cells of a row share one timestamp.
+ */
+final class ValueCodec {
+
+    static final String XSD_DATE_TIME_STAMP_PATTERN = "yyyy-MM-dd'T'HH:mm:ssZ";
+
+    /**
+     * Time zone of the dates and times in the source files (Brasília time,
+     * UTC-3), whatever the time zone of the host, so that a row is parsed to
+     * the same instant (and its measurements get the same IRIs) on every host
+     */
+    static final TimeZone SOURCE_TIME_ZONE = TimeZone.getTimeZone("GMT-03:00");
+
+    /**
+     * Powers of ten that are exactly representable as doubles
+     */
+    private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+    /**
+     * Two-digit years are resolved as by SimpleDateFormat: within 80 years
+     * before and 20 years after now
+     */
+    private static final long defaultCenturyStart;
+    private static final int defaultCenturyStartYear;
+
+    static {
+        Calendar calendar = Calendar.getInstance(SOURCE_TIME_ZONE);
+        calendar.add(Calendar.YEAR, -80);
+        defaultCenturyStart = calendar.getTimeInMillis();
+        defaultCenturyStartYear = calendar.get(Calendar.YEAR);
+    }
+
+    private static final ThreadLocal<State> state = ThreadLocal.withInitial(State::new);
+
+    private ValueCodec() {
+    }
+
+    /**
+     * Per-thread calendar and last parsed and formatted timestamps
+     */
+    private static final class State {
+        final GregorianCalendar calendar = new GregorianCalendar(SOURCE_TIME_ZONE);
+        String date, time;
+        boolean shortYear;
+        Date parsed;
+        long formattedTime = Long.MIN_VALUE;
+        String formatted;
+        SimpleDateFormat xsdFormat;
+    }
+
+    /**
+     * Parses a decimal number in the pt-BR format (e.g. "-20,27638884"), as
+     * NumberFormat.getInstance(Locale.forLanguageTag("pt-BR")).
+     */
+    static float parsePtBR(String s) throws ParseException {
+        return (float) parseDecimal(s, ',', '.');
+    }
+
+    /**
+     * Parses a measured value in the pt-BR format that may be marked as below
+     * ("&lt;0,05") or above ("&gt;1600") the detection limit of the method, as
+     * in the UNESP files. A value below the limit is 0, as it is not known; one
+     * above the limit is the limit.
+     *
+     * @throws ParseException if the value (after the marker) is not a number
+     */
+    static float parseMeasuredPtBR(String s) throws ParseException {
+        if (s.startsWith("<")) {
+            // TODO treat below limit of detection
+            return 0.0f;
+        }
+        if (s.startsWith(">")) {
+            // TODO treat above limit of detection
+            return parsePtBR(s.substring(1));
+        }
+        return parsePtBR(s);
+    }
+
+    /**
+     * Parses a decimal number in the US format (e.g. "0.05"), as
+     * NumberFormat.getInstance(Locale.US).
+     */
+    static float parseUS(String s) throws ParseException {
+        return (float) parseDecimal(s, '.', ',');
+    }
+
+    /**
+     * Parses a decimal number as DecimalFormat does: an optional minus sign,
+     * digits with grouping separators (ignored) before the decimal separator, and
+     * an optional exponent ("E"). Parsing stops at the first character that is
+     * not part of the number.
+     *
+     * @throws ParseException if the string does not start with a number
+     */
+    static double parseDecimal(String s, char decimalSeparator, char groupingSeparator) throws ParseException {
+        int length = s.length();
+        int i = 0;
+        boolean negative = false;
+        if (i < length && s.charAt(i) == '-') {
+            negative = true;
+            i++;
+        }
+
+        long mantissa = 0;
+        int mantissaDigits = 0; // significant digits in mantissa
+        int scale = 0; // power of ten to apply to mantissa
+        boolean overflow = false, sawDigit = false, sawDecimal = false;
+        for (; i < length; i++) {
+            char c = s.charAt(i);
+            if (c >= '0' && c <= '9') {
+                sawDigit = true;
+                if (mantissaDigits < 18) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (mantissa != 0)
+                        mantissaDigits++;
+                    if (sawDecimal)
+                        scale--;
+                } else {
+                    overflow = true;
+                    if (!sawDecimal)
+                        scale++;
+                }
+            } else if (c == decimalSeparator && !sawDecimal) {
+                sawDecimal = true;
+            } else if (c == groupingSeparator && !sawDecimal) {
+                continue;
+            } else {
+                break;
+            }
+        }
+        if (!sawDigit)
+            throw new ParseException("Unparseable number: \"" + s + "\"", 0);
+
+        if (i < length && s.charAt(i) == 'E') {
+            int j = i + 1;
+            boolean negativeExponent = false;
+            if (j < length && s.charAt(j) == '-') {
+                negativeExponent = true;
+                j++;
+            }
+            int exponent = 0, exponentDigits = 0;
+            for (; j < length && s.charAt(j) >= '0' && s.charAt(j) <= '9'; j++, exponentDigits++)
+                exponent = Math.min(exponent * 10 + (s.charAt(j) - '0'), 100000);
+            if (exponentDigits > 0)
+                scale += negativeExponent ? -exponent : exponent;
+        }
+
+        double value;
+        if (mantissa == 0) {
+            value = 0.0;
+        } else if (!overflow && mantissaDigits <= 15 && scale >= -22 && scale <= 22) {
+            // both operands are exact, so the result is correctly rounded
+            value = scale < 0 ? mantissa / POWERS_OF_TEN[-scale] : mantissa * POWERS_OF_TEN[scale];
+        } else {
+            value = Double.parseDouble(mantissa + "E" + scale);
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses a date ("dd/MM/yyyy", or "dd/MM/yy" if shortYear) and a time
+     * ("HH:mm") as SimpleDateFormat with the concatenated pattern. The same Date
+     * instance is returned for consecutive calls (in a thread) with the same
+     * arguments, so it must not be modified.
+     */
+    static Date parseDateTime(String date, String time, boolean shortYear) throws ParseException {
+        State st = state.get();
+        if (st.parsed != null && st.shortYear == shortYear && date.equals(st.date) && time.equals(st.time))
+            return st.parsed;
+
+        Date parsed = parseFields(st, date, time, shortYear);
+        if (parsed == null) {
+            SimpleDateFormat format = new SimpleDateFormat(shortYear ? "dd/MM/yyHH:mm" : "dd/MM/yyyyHH:mm");
+            format.setTimeZone(SOURCE_TIME_ZONE);
+            parsed = format.parse(date + time);
+        }
+        st.date = date;
+        st.time = time;
+        st.shortYear = shortYear;
+        st.parsed = parsed;
+        return parsed;
+    }
+
+    /**
+     * Returns null if the date or time are not in the usual form, to be parsed by
+     * SimpleDateFormat instead
+     */
+    private static Date parseFields(State st, String date, String time, boolean shortYear) {
+        int dateLength = date.length(), yearDigits = shortYear ? 2 : 4;
+        int firstSlash = date.indexOf('/'), secondSlash = date.indexOf('/', firstSlash + 1);
+        if (firstSlash < 1 || firstSlash > 2 || secondSlash - firstSlash < 2 || secondSlash - firstSlash > 3
+                || dateLength - secondSlash - 1 != yearDigits)
+            return null;
+        int colon = time.indexOf(':');
+        if (colon < 1 || colon > 2 || time.length() - colon - 1 != 2)
+            return null;
+
+        int day = digits(date, 0, firstSlash);
+        int month = digits(date, firstSlash + 1, secondSlash);
+        int year = digits(date, secondSlash + 1, dateLength);
+        int hour = digits(time, 0, colon);
+        int minute = digits(time, colon + 1, time.length());
+        if (day < 0 || month < 0 || year < 0 || hour < 0 || minute < 0)
+            return null;
+
+        boolean ambiguousYear = false;
+        if (shortYear) {
+            int ambiguousTwoDigitYear = defaultCenturyStartYear % 100;
+            ambiguousYear = year == ambiguousTwoDigitYear;
+            year += (defaultCenturyStartYear / 100) * 100 + (year < ambiguousTwoDigitYear ? 100 : 0);
+        }
+
+        GregorianCalendar calendar = st.calendar;
+        calendar.clear();
+        calendar.set(year, month - 1, day, hour, minute);
+        if (ambiguousYear && calendar.getTimeInMillis() < defaultCenturyStart)
+            calendar.add(Calendar.YEAR, 100);
+        return calendar.getTime();
+    }
+
+    private static int digits(String s, int begin, int end) {
+        int value = 0;
+        for (int i = begin; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9')
+                return -1;
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Formats a time (in epoch milliseconds) for an xsd:dateTimeStamp literal
+     * (pattern {@value #XSD_DATE_TIME_STAMP_PATTERN}), reusing the last result
+     * of the thread for the same instant.
+     */
+    static String formatDateTimeStamp(long time) {
+        State st = state.get();
+        if (st.formatted == null || time != st.formattedTime) {
+            if (st.xsdFormat == null) {
+                st.xsdFormat = new SimpleDateFormat(XSD_DATE_TIME_STAMP_PATTERN);
+                st.xsdFormat.setTimeZone(SOURCE_TIME_ZONE);
+            }
+            st.formatted = st.xsdFormat.format(new Date(time));
+            st.formattedTime = time;
+        }
+        return st.formatted;
+    }
+
+    /**
+     * Replaces whitespace with "-", as s.replaceAll("\\s", "-"), returning s
+     * itself if it has no whitespace.
+     */
+    static String hyphenate(String s) {
+        int i = 0, length = s.length();
+        while (i < length && !isWhitespace(s.charAt(i)))
+            i++;
+        if (i == length)
+            return s;
+        char[] chars = s.toCharArray();
+        for (; i < length; i++) {
+            if (isWhitespace(chars[i]))
+                chars[i] = '-';
+        }
+        return new String(chars);
+    }
+
+    /**
+     * The characters matched by \s in a regular expression
+     */
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+}
@@ -0,0 +1,53 @@
+package br.ufes.inf.nemo.integradoce.etl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.semanticweb.owlapi.model.OWLOntology;
+
+/**
+ * Tests that transforming the sample input files with several threads, with
+ * the larger Renova files split into chunks, writes the same N-Triples, byte
+ * for byte, as transforming them sequentially.
+ */
+public class AppThreadsTest
+{
+    private static final String SAMPLE_INPUT = "sample_input_data";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Runs the application on the sample input with the given options,
+     * returning the output
+     */
+    private byte[] run(String name, String... options) throws Exception
+    {
+        File output = new File(folder.getRoot(), name + ".nt");
+        List<String> args = new ArrayList<>(Arrays.asList("--data-only", "--stream", "--format", "ntriples"));
+        args.addAll(Arrays.asList(options));
+        args.add(SAMPLE_INPUT);
+        args.add(output.getPath());
+        OWLOntology ontology = App.run(Options.parse(args.toArray(new String[0])));
+        ontology.getOWLOntologyManager().removeOntology(ontology);
+        return Files.readAllBytes(output.toPath());
+    }
+
+    @Test
+    public void threadsWriteTheSameOutputAsASingleThread() throws Exception
+    {
+        byte[] sequential = run("sequential");
+        assertTrue(sequential.length > 0);
+        // the smaller files are transformed whole, the larger ones in chunks
+        assertArrayEquals(sequential, run("threads", "--threads", "4", "--chunk-size", "256K"));
+    }
+}
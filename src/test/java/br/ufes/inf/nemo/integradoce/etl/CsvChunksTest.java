@@ -0,0 +1,84 @@
+package br.ufes.inf.nemo.integradoce.etl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that {@link CsvChunks} splits a file at record boundaries only.
+ */
+public class CsvChunksTest
+{
+    private File file;
+
+    @Before
+    public void createFile() throws IOException
+    {
+        file = File.createTempFile("chunks", ".csv");
+    }
+
+    @After
+    public void deleteFile()
+    {
+        file.delete();
+    }
+
+    @Test
+    public void chunksHaveTheRecordsOfTheFile() throws IOException
+    {
+        StringBuilder csv = new StringBuilder("Matriz;CodigoDoPonto;Observacao\r\n");
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 200; i++)
+        {
+            // quoted fields with line breaks, delimiters and escaped quotes
+            String note = i % 3 == 0 ? "line\r\nbreak; \"quoted\"\n" + i : "plain " + i;
+            csv.append("Agua;RDO-").append(i).append(";\"").append(note.replace("\"", "\"\"")).append("\"\r\n");
+            expected.add("RDO-" + i + "|" + note);
+        }
+        Files.write(file.toPath(), csv.toString().getBytes(Charset.defaultCharset()));
+
+        CsvChunks chunks = CsvChunks.split(file, 100);
+        assertTrue(chunks.size() > 10);
+        assertArrayEquals(new String[] { "Matriz", "CodigoDoPonto", "Observacao" }, chunks.getHeader());
+
+        List<String> actual = new ArrayList<>();
+        long length = 0;
+        for (int i = 0; i < chunks.size(); i++)
+        {
+            length += chunks.length(i);
+            try (CSVParser records = chunks.parse(i))
+            {
+                for (CSVRecord record : records)
+                    actual.add(record.get("CodigoDoPonto") + "|" + record.get("Observacao"));
+            }
+        }
+        assertEquals(expected, actual);
+        assertEquals(file.length() - "Matriz;CodigoDoPonto;Observacao\r\n".length(), length);
+    }
+
+    @Test
+    public void lastRecordWithoutLineBreak() throws IOException
+    {
+        Files.write(file.toPath(), "a;b\r\n1;2\r\n3;4".getBytes(Charset.defaultCharset()));
+
+        CsvChunks chunks = CsvChunks.split(file, 1);
+        assertEquals(2, chunks.size());
+        try (CSVParser records = chunks.parse(1))
+        {
+            assertEquals("4", records.getRecords().get(0).get("b"));
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package br.ufes.inf.nemo.integradoce.etl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests that a Renova data file is opened once, through
+ * {@link CsvInput#open(File)}, that its format is detected from the header
+ * read from that same stream, and that the file is closed both when it is
+ * transformed and when it is malformed.
+ */
+public class CsvInputTest
+{
+    private static final String AUTOMATIC_HEADER = "Matriz;TipoDeAmostra;CodigoDoPonto;DataAmostra;HoraAmostra;"
+            + "Condutividade (mS/cm);Status_Condutividade\n";
+
+    private static final String MANUAL_HEADER = "Matriz;TipoDeAmostra;CodigoDoPonto;DataAmostra;HoraAmostra;"
+            + "Alcalinidade total (mgCaCO3/L);Status_Alcalinidade total;Boro total (mg/L);Status_Boro total\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<File> opened = Collections.synchronizedList(new ArrayList<>());
+    private final List<File> closed = Collections.synchronizedList(new ArrayList<>());
+
+    private CsvInput.Source source;
+
+    @Before
+    public void watchFiles()
+    {
+        source = CsvInput.source;
+        CsvInput.source = file -> {
+            opened.add(file);
+            return new FilterInputStream(new FileInputStream(file))
+            {
+                @Override
+                public void close() throws IOException
+                {
+                    closed.add(file);
+                    super.close();
+                }
+            };
+        };
+    }
+
+    @After
+    public void restoreSource()
+    {
+        CsvInput.source = source;
+    }
+
+    private File write(String name, String text) throws IOException
+    {
+        File file = folder.newFile(name);
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    /**
+     * Transforms the file collecting its axioms, returning the buffer
+     */
+    private static AxiomBuffer transform(File file) throws IOException, ParseException
+    {
+        AxiomBuffer buffer = new AxiomBuffer();
+        Load.collectInto(buffer);
+        try
+        {
+            RenovaExtractTransform.extractTransformRenova(file, null);
+        } finally
+        {
+            Load.stopCollecting();
+        }
+        return buffer;
+    }
+
+    @Test
+    public void fileIsOpenedOnceAndClosed() throws Exception
+    {
+        File automatic = write("automatic.csv",
+                AUTOMATIC_HEADER + "Estacoes_automaticas;Telemetrico;RCA-01;01/08/2017;00:30;0.121;1\n");
+        File manual = write("manual.csv", MANUAL_HEADER + "Agua;P15;EBN 01;09/08/2020;15:45;;;0.085;1\n");
+
+        // the format is detected from the header, before the records are read
+        AxiomBuffer buffer = transform(automatic);
+        assertEquals(1, buffer.getMeasurements(0).size());
+        assertTrue(buffer.getMeasurements(0).isTelemetry());
+        buffer = transform(manual);
+        assertEquals(1, buffer.getMeasurements(0).size());
+        assertFalse(buffer.getMeasurements(0).isTelemetry());
+
+        assertEquals(Arrays.asList(automatic, manual), opened);
+        assertEquals(opened, closed);
+    }
+
+    @Test
+    public void malformedFileIsClosed() throws Exception
+    {
+        File malformed = write("malformed.csv", MANUAL_HEADER + "Agua;P15;EBN 01;09/08/2020;15:45;;;0.085;1\n"
+                + "Agua;P15;EBN 01;ontem;15:45;;;0.085;1\n");
+        try
+        {
+            transform(malformed);
+            fail("the date of the second row is not parsed");
+        } catch (ParseException e)
+        {
+            // expected
+        }
+        assertEquals(Collections.singletonList(malformed), opened);
+        assertEquals(opened, closed);
+    }
+}
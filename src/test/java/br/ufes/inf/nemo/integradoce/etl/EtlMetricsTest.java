@@ -0,0 +1,99 @@
+package br.ufes.inf.nemo.integradoce.etl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.semanticweb.owlapi.model.OWLOntology;
+
+/**
+ * Tests that the counters of a small file whose axioms are collected, as
+ * {@link App} transforms files, count its measurements and axioms when the
+ * buffer is added to the ontology, with no axioms for a duplicate, and that the
+ * rows of a points file are counted.
+ */
+public class EtlMetricsTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File write(String name, String text) throws Exception
+    {
+        File file = folder.newFile(name);
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    @Test
+    public void measurementsAreCountedWhenTheirAxiomsAreCreated() throws Exception
+    {
+        File file = write("manual.csv",
+                "Matriz;TipoDeAmostra;CodigoDoPonto;DataAmostra;HoraAmostra;Alcalinidade total (mgCaCO3/L);"
+                        + "Status_Alcalinidade total;Boro total (mg/L);Status_Boro total\n"
+                        + "Agua;P15;EBN 01;09/08/2020;15:45;;;0.085;1\n"
+                        // a duplicate, rejected by status, and another matrix
+                        + "Agua;P15;EBN 01;09/08/2020;15:45;;;0.085;1\n"
+                        + "Agua;P15;EBN 01;10/08/2020;15:45;;;0.125;2\n"
+                        + "Sedimento;P15;EBN 01;09/08/2020;15:45;;;1.0;1\n"
+                        + "Agua;P15;EBN 01;11/08/2020;09:00;;;0.09;4\n");
+        OWLOntology ontology = Load.createDataOntology();
+        Load.setDeduplication(true);
+        try
+        {
+            EtlMetrics.FileMetrics metrics = EtlMetrics.startFile(file);
+            AxiomBuffer buffer = new AxiomBuffer();
+            buffer.setMetrics(metrics);
+            Load.collectInto(buffer);
+            try
+            {
+                RenovaExtractTransform.extractTransformRenova(file, null);
+            } finally
+            {
+                Load.stopCollecting();
+                EtlMetrics.transformed(metrics);
+            }
+            assertEquals(5, metrics.getRows());
+            assertEquals(4, metrics.getCells());
+            assertEquals(1, metrics.getRejectedCells());
+            assertEquals(0, metrics.getMeasurements());
+            assertEquals(0, metrics.getAxioms());
+
+            Load.addAll(ontology, buffer);
+            EtlMetrics.endFile(metrics);
+            assertEquals(3, metrics.getMeasurements());
+            assertEquals(16, metrics.getAxioms());
+            assertEquals(ontology.getAxiomCount(), metrics.getAxioms());
+        } finally
+        {
+            ontology.getOWLOntologyManager().removeOntology(ontology);
+        }
+    }
+
+    @Test
+    public void rowsOfPointsAreCounted() throws Exception
+    {
+        File file = write("Detalhamento_pontos_PMQQS.csv", "CODIGO_PONTO;NOME_PONTO;DESCRICAO_PONTO;LATITUTE;LONGITUDE\n"
+                + "RD 045;Ponte;Sobre o rio;-19,1;-42,1\n" + "RD 046;Balsa;No porto;-19,2;-42,2\n");
+        OWLOntology ontology = Load.createDataOntology();
+        try
+        {
+            EtlMetrics.FileMetrics metrics = EtlMetrics.startFile(file);
+            try
+            {
+                RenovaExtractTransform.extractTransformGeographicPoints(file.getPath(), ontology);
+            } finally
+            {
+                EtlMetrics.endFile(metrics);
+            }
+            assertEquals(2, metrics.getRows());
+        } finally
+        {
+            ontology.getOWLOntologyManager().removeOntology(ontology);
+        }
+    }
+}
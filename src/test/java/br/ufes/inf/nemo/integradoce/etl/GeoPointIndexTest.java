@@ -0,0 +1,69 @@
+package br.ufes.inf.nemo.integradoce.etl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests that the nearest-point and radius queries of {@link GeoPointIndex}
+ * give the same points as comparing all points.
+ */
+public class GeoPointIndexTest
+{
+    @Test
+    public void queriesMatchAllPointsComparison()
+    {
+        Random random = new Random(42);
+        GeoPointIndex index = new GeoPointIndex();
+        List<double[]> locations = new ArrayList<>();
+        for (int i = 0; i < 20000; i++)
+        {
+            double[] location = { -22 + random.nextDouble() * 4, -45 + random.nextDouble() * 6 };
+            locations.add(location);
+            index.add(":P-" + i, location[0], location[1]);
+        }
+        assertTrue(index.contains(":P-19999"));
+        assertFalse(index.contains(":P-20000"));
+
+        for (int query = 0; query < 200; query++)
+        {
+            double lat = -23 + random.nextDouble() * 6, lon = -46 + random.nextDouble() * 8;
+            int nearest = -1;
+            double nearestKm = Double.POSITIVE_INFINITY;
+            int within = 0;
+            for (int i = 0; i < locations.size(); i++)
+            {
+                // only even points are candidates for the nearest
+                double km = GeoPointIndex.distanceKm(lat, lon, locations.get(i)[0], locations.get(i)[1]);
+                if (i % 2 == 0 && km < nearestKm)
+                {
+                    nearest = i;
+                    nearestKm = km;
+                }
+                if (km <= 5)
+                    within++;
+            }
+            GeoPointIndex.Point point = index.nearest(lat, lon, Double.POSITIVE_INFINITY,
+                    code -> Integer.parseInt(code.substring(3)) % 2 == 0);
+            assertEquals(":P-" + nearest, point.code);
+            assertEquals(within, index.within(lat, lon, 5).size());
+        }
+    }
+
+    @Test
+    public void nearestIsWithinMaximumDistance()
+    {
+        GeoPointIndex index = new GeoPointIndex();
+        index.add(":RCA-01", -20.3471, -43.1127);
+        index.add(":UNESP_M2", -20.2764, -43.4312);
+        assertNull(index.nearest(-20.2764, -43.4312, 10, code -> !code.startsWith(":UNESP_")));
+        assertEquals(":RCA-01", index.nearest(-20.2764, -43.4312, 50, code -> !code.startsWith(":UNESP_")).code);
+    }
+}
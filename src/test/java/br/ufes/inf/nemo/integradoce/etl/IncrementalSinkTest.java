@@ -0,0 +1,135 @@
+package br.ufes.inf.nemo.integradoce.etl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLNamedIndividual;
+
+/**
+ * Tests that {@link IncrementalSink} writes only the records that changed since
+ * the previous run with the same state folder, and that it sorts and merges the
+ * hashes of the records.
+ */
+public class IncrementalSinkTest
+{
+    private static final OWLDataFactory FACTORY = OWLManager.getOWLDataFactory();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * The axioms of a measurement with a value
+     */
+    private static List<OWLAxiom> record(String name, float value)
+    {
+        OWLNamedIndividual measurement = FACTORY
+                .getOWLNamedIndividual(IRI.create("http://purl.org/nemo/integradoce#" + name));
+        return Arrays.asList(
+                FACTORY.getOWLClassAssertionAxiom(
+                        FACTORY.getOWLClass(IRI.create("http://purl.org/nemo/doce#Measurement")), measurement),
+                FACTORY.getOWLDataPropertyAssertionAxiom(
+                        FACTORY.getOWLDataProperty(IRI.create("http://purl.org/nemo/gufo#hasQualityValue")),
+                        measurement, value));
+    }
+
+    /**
+     * Runs the sink over the records, returning the lines of the insert and
+     * delete files
+     */
+    private List<List<String>> run(List<List<OWLAxiom>> records) throws IOException
+    {
+        File insert = new File(folder.getRoot(), "insert.nt"), delete = new File(folder.getRoot(), "delete.nt");
+        IncrementalSink sink = new IncrementalSink(new File(folder.getRoot(), "state"), insert, delete);
+        for (List<OWLAxiom> record : records)
+            sink.addAll(record);
+        sink.close();
+        List<String> inserted = new ArrayList<>(Files.readAllLines(insert.toPath(), StandardCharsets.UTF_8));
+        List<String> deleted = new ArrayList<>(Files.readAllLines(delete.toPath(), StandardCharsets.UTF_8));
+        Collections.sort(inserted);
+        Collections.sort(deleted);
+        return Arrays.asList(inserted, deleted);
+    }
+
+    /**
+     * The sorted N-Triples lines of the records
+     */
+    private static List<String> lines(List<List<OWLAxiom>> records) throws IOException
+    {
+        StringWriter out = new StringWriter();
+        NTriplesSink sink = new NTriplesSink(out);
+        for (List<OWLAxiom> record : records)
+            sink.addAll(record);
+        List<String> lines = new ArrayList<>(Arrays.asList(out.toString().split("\n")));
+        Collections.sort(lines);
+        return lines;
+    }
+
+    @Test
+    public void onlyChangedRecordsAreWritten() throws Exception
+    {
+        List<OWLAxiom> a = record("A", 1f), b = record("B", 2f), c = record("C", 3f), changedA = record("A", 4f);
+
+        // first run: everything is new, and a record read twice is written once
+        List<List<String>> first = run(Arrays.asList(a, b, a));
+        assertEquals(lines(Arrays.asList(a, b)), first.get(0));
+        assertTrue(first.get(1).isEmpty());
+
+        // the same input: nothing changed
+        List<List<String>> same = run(Arrays.asList(b, a));
+        assertTrue(same.get(0).isEmpty());
+        assertTrue(same.get(1).isEmpty());
+
+        // changed, removed and added records, with the index rebuilt from the
+        // snapshot
+        assertTrue(new File(new File(folder.getRoot(), "state"), IncrementalSink.INDEX).delete());
+        List<List<String>> modified = run(Arrays.asList(changedA, c));
+        assertEquals(lines(Arrays.asList(changedA, c)), modified.get(0));
+        assertEquals(lines(Arrays.asList(a, b)), modified.get(1));
+    }
+
+    @Test
+    public void recordHashesAreSortedAndMerged()
+    {
+        IncrementalSink.RecordHashes records = new IncrementalSink.RecordHashes();
+        Map<Long, Long> expected = new TreeMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++)
+        {
+            // some keys more than once, negative ones too
+            long key = random.nextInt(6000) - 3000L, hash = random.nextLong();
+            records.add(key, hash);
+            expected.merge(key, hash, (x, y) -> x ^ y);
+        }
+        records.sort();
+        assertEquals(expected.size(), records.size());
+        int i = 0;
+        for (Map.Entry<Long, Long> record : expected.entrySet())
+        {
+            assertEquals((long) record.getKey(), records.key(i));
+            assertEquals((long) record.getValue(), records.hash(i));
+            assertEquals(i, records.indexOf(record.getKey()));
+            i++;
+        }
+        assertTrue(records.indexOf(3000) < 0);
+    }
+}
@@ -0,0 +1,150 @@
+package br.ufes.inf.nemo.integradoce.etl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLOntology;
+
+/**
+ * Tests that {@link InputCache} reads back the rows it wrote, and only for the
+ * same input file contents, and that a UNESP file read from the cache is
+ * transformed as the file itself.
+ */
+public class InputCacheTest
+{
+    private File source, folder;
+
+    @Before
+    public void createFiles() throws IOException
+    {
+        source = File.createTempFile("input", ".csv");
+        Files.write(source.toPath(), "a;b;c\r\n".getBytes(Charset.defaultCharset()));
+        folder = Files.createTempDirectory("cache").toFile();
+        InputCache.setFolder(folder);
+    }
+
+    @After
+    public void deleteFiles()
+    {
+        InputCache.setFolder(null);
+        for (File file : folder.listFiles())
+            file.delete();
+        folder.delete();
+        source.delete();
+    }
+
+    @Test
+    public void rowsAreReadBack() throws IOException
+    {
+        List<String> header = Arrays.asList("a", "b", "c");
+        long checksum = InputCache.checksum(source);
+        int rows = InputCache.GROUP_ROWS * 2 + 10;
+        try (InputCache.Writer writer = InputCache.create(source, checksum, header))
+        {
+            for (int i = 0; i < rows; i++)
+            {
+                writer.row("P-" + i % 7, i % 2 == 0 ? "Superficial" : "", "Agua",
+                        i % 100 == 0 ? InputCache.NO_TIME : 1500000000000L + i * 1800000L);
+                for (int column = 0; column < i % 4; column++)
+                    writer.cell(column, i % 3 == 0 ? 7.5f : i * -0.01f);
+            }
+            writer.commit();
+        }
+
+        try (InputCache.Reader reader = InputCache.open(source, checksum))
+        {
+            assertNotNull(reader);
+            assertEquals(header, reader.getHeader());
+            for (int i = 0; i < rows; i++)
+            {
+                assertTrue(reader.next());
+                assertEquals("P-" + i % 7, reader.point());
+                assertEquals(i % 2 == 0 ? "Superficial" : "", reader.type());
+                assertEquals("Agua", reader.matrix());
+                assertEquals(i % 100 == 0 ? InputCache.NO_TIME : 1500000000000L + i * 1800000L, reader.time());
+                assertEquals(i % 4, reader.cells());
+                for (int column = 0; column < i % 4; column++)
+                {
+                    assertEquals(column, reader.column(column));
+                    assertEquals(i % 3 == 0 ? 7.5f : i * -0.01f, reader.value(column), 0);
+                }
+            }
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    public void changedInputIsNotRead() throws IOException
+    {
+        try (InputCache.Writer writer = InputCache.create(source, InputCache.checksum(source),
+                Arrays.asList("a", "b", "c")))
+        {
+            writer.row("P", "", "Agua", 0);
+            writer.commit();
+        }
+        Files.write(source.toPath(), "a;b;d\r\n".getBytes(Charset.defaultCharset()));
+
+        assertNull(InputCache.open(source, InputCache.checksum(source)));
+    }
+
+    /**
+     * Transforms a UNESP file into a new data ontology, returning its axioms
+     */
+    private static Set<OWLAxiom> transformUNESP(File file) throws Exception
+    {
+        OWLOntology ontology = Load.createDataOntology();
+        Load.setDeduplication(true);
+        try
+        {
+            UnespExtractTransform.extractTransformUNESP(file, ontology);
+            return ontology.axioms().collect(Collectors.toSet());
+        } finally
+        {
+            ontology.getOWLOntologyManager().removeOntology(ontology);
+        }
+    }
+
+    @Test
+    public void unespCellsAreCachedMappedOrNot() throws Exception
+    {
+        // Hg is not in the UNESP mapping; "<LD" is below the detection limit
+        Files.write(source.toPath(), ("Data;Amostra;Mn;Hg;Fe\r\n" + "15/01/19;M2;0,13;0,5;<LD\r\n"
+                + "17/01/19;J4;-;2,5;0,26\r\n").getBytes(Charset.defaultCharset()));
+        Set<OWLAxiom> transformed = transformUNESP(source);
+
+        try (InputCache.Reader reader = InputCache.open(source, InputCache.checksum(source)))
+        {
+            assertNotNull(reader);
+            assertTrue(reader.next());
+            assertEquals("M2", reader.point());
+            assertEquals(3, reader.cells());
+            assertEquals(3, reader.column(1));
+            assertEquals(0.5f, reader.value(1), 0);
+            assertEquals(0f, reader.value(2), 0);
+            assertTrue(reader.next());
+            assertEquals(2, reader.cells());
+            assertEquals(3, reader.column(0));
+            assertEquals(4, reader.column(1));
+            assertFalse(reader.next());
+        }
+
+        // from the cache, with the unmapped column left out again
+        assertEquals(transformed, transformUNESP(source));
+    }
+}
@@ -0,0 +1,157 @@
+package br.ufes.inf.nemo.integradoce.etl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests that {@link InputDiscovery} finds the files of a temporary folder tree
+ * by their include and exclude globs, without visiting excluded folders,
+ * detects their formats from their headers (also after a byte order mark), and
+ * that the inputs are transformed from the largest to the smallest.
+ */
+public class InputDiscoveryTest
+{
+    private static final byte[] BYTE_ORDER_MARK = { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File manual, automatic, points, unespPoints, unesp, unknown, old;
+
+    private File write(String path, byte[] prefix, String text) throws IOException
+    {
+        File file = new File(folder.getRoot(), path);
+        file.getParentFile().mkdirs();
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        byte[] content = Arrays.copyOf(prefix, prefix.length + bytes.length);
+        System.arraycopy(bytes, 0, content, prefix.length, bytes.length);
+        Files.write(file.toPath(), content);
+        return file;
+    }
+
+    private File write(String path, String text) throws IOException
+    {
+        return write(path, new byte[0], text);
+    }
+
+    @Before
+    public void writeFiles() throws IOException
+    {
+        manual = write("renova/manual/a.csv", BYTE_ORDER_MARK,
+                "Matriz;TipoDeAmostra;Alcalinidade total (mgCaCO3/L);Status_Alcalinidade total\nAgua;P15;85.83;1\n");
+        automatic = write("renova/automatico/2017/08/b.csv",
+                "Matriz;TipoDeAmostra;Condutividade (mS/cm);Status_Condutividade\n"
+                        + String.join("", Collections.nCopies(20, "Agua;Superficial;0.1;1\n")));
+        points = write("renova/Detalhamento_pontos_PMQQS.csv", "CODIGO_PONTO;LATITUTE;LONGITUDE\nRD 045;-19.1;-42.1\n");
+        unespPoints = write("unesp/pontos.csv", "ID amostras;Latitude;Longitude\n");
+        // the first column is the one recognized, after the byte order mark
+        unesp = write("unesp/campanha1.csv", BYTE_ORDER_MARK,
+                "Data;Amostra;Mn;Fe\n" + String.join("", Collections.nCopies(5, "01/10/2016;RD01;0,1;0,2\n")));
+        unknown = write("unesp/leia-me.csv", "x;y\n1;2\n");
+        write("renova/manual/notas.txt", "Matriz;Status_Alcalinidade total\n");
+        old = write("renova/antigo/c.csv", "Matriz;Status_Alcalinidade total\n");
+    }
+
+    private static List<File> files(List<InputDiscovery.Input> inputs)
+    {
+        List<File> files = new ArrayList<>();
+        for (InputDiscovery.Input input : inputs)
+            files.add(input.file);
+        return files;
+    }
+
+    @Test
+    public void formatsAreDetectedFromTheHeader() throws IOException
+    {
+        assertEquals(InputDiscovery.Format.RENOVA_MANUAL, InputDiscovery.sniff(manual));
+        assertEquals(InputDiscovery.Format.RENOVA_AUTOMATIC, InputDiscovery.sniff(automatic));
+        assertEquals(InputDiscovery.Format.RENOVA_POINTS, InputDiscovery.sniff(points));
+        assertEquals(InputDiscovery.Format.UNESP_POINTS, InputDiscovery.sniff(unespPoints));
+        assertEquals(InputDiscovery.Format.UNESP, InputDiscovery.sniff(unesp));
+        assertNull(InputDiscovery.sniff(unknown));
+        // a byte order mark decoded with a charset other than UTF-8
+        File latin1 = write("unesp/campanha2.csv",
+                new String(BYTE_ORDER_MARK, StandardCharsets.ISO_8859_1).getBytes(StandardCharsets.UTF_8),
+                "Data;Amostra;Mn\n");
+        assertEquals(InputDiscovery.Format.UNESP, InputDiscovery.sniff(latin1));
+        assertNull(InputDiscovery.sniff(write("empty.csv", "")));
+    }
+
+    @Test
+    public void filesAreFoundAtAnyDepth() throws IOException
+    {
+        List<InputDiscovery.Input> inputs = new InputDiscovery(Collections.emptyList(), Collections.emptyList())
+                .discover(folder.getRoot());
+        // sorted by path, without the unknown format and the text file
+        assertEquals(Arrays.asList(points, old, automatic, manual, unesp, unespPoints), files(inputs));
+        assertEquals(automatic.length(), inputs.get(2).size);
+        assertEquals(InputDiscovery.Format.RENOVA_AUTOMATIC, inputs.get(2).format);
+    }
+
+    @Test
+    public void excludedFoldersAreNotVisited() throws IOException
+    {
+        // matches the folder, not the files in it
+        InputDiscovery discovery = new InputDiscovery(Collections.emptyList(), Arrays.asList("renova/antigo"));
+        assertEquals(Arrays.asList(points, automatic, manual, unesp, unespPoints),
+                files(discovery.discover(folder.getRoot())));
+        assertNull(discovery.input(folder.getRoot(), old));
+        assertNotNull(discovery.input(folder.getRoot(), manual));
+    }
+
+    @Test
+    public void filesAreIncludedAndExcludedByGlobs() throws IOException
+    {
+        InputDiscovery discovery = new InputDiscovery(Arrays.asList("renova/**.csv", "**/*.txt"),
+                Arrays.asList("**/Detalhamento_*", "renova/antigo/**"));
+        assertEquals(Arrays.asList(automatic, manual, new File(folder.getRoot(), "renova/manual/notas.txt")),
+                files(discovery.discover(folder.getRoot())));
+        assertNull(discovery.input(folder.getRoot(), points));
+        assertNull(discovery.input(folder.getRoot(), unesp));
+        assertEquals(InputDiscovery.Format.RENOVA_AUTOMATIC, discovery.input(folder.getRoot(), automatic).format);
+    }
+
+    @Test
+    public void largestInputsAreStartedFirst() throws Exception
+    {
+        List<InputDiscovery.Input> inputs = new InputDiscovery(Collections.emptyList(),
+                Arrays.asList("renova/antigo")).discover(folder.getRoot());
+        List<File> started = Collections.synchronizedList(new ArrayList<>());
+        List<App.Task> tasks = new ArrayList<>();
+        for (InputDiscovery.Input input : inputs)
+            tasks.add(new App.Task(input.size, () -> {
+                started.add(input.file);
+                return null;
+            }));
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try
+        {
+            // the first three, then the others in order as each one is taken
+            App.TaskWindow window = new App.TaskWindow(pool, tasks, 3);
+            for (int i = 0; i < tasks.size(); i++)
+                window.take();
+        } finally
+        {
+            pool.shutdown();
+        }
+        assertEquals(Arrays.asList(points, automatic, manual, unesp, unespPoints), files(inputs));
+        assertEquals(Arrays.asList(automatic, manual, points, unesp, unespPoints), started);
+    }
+}
@@ -0,0 +1,134 @@
+package br.ufes.inf.nemo.integradoce.etl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.semanticweb.owlapi.model.OWLOntology;
+
+/**
+ * Tests that {@link InputGenerator} writes small files of each format, split by
+ * the options of its command line and the same for the same seed, and that
+ * they are transformed without errors into measurements.
+ */
+public class InputGeneratorTest
+{
+    private static final File POINTS_FOLDER = new File("sample_input_data");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * The names of the files in a folder, sorted
+     */
+    private static String[] list(File folder)
+    {
+        String[] names = folder.list();
+        Arrays.sort(names);
+        return names;
+    }
+
+    private static void generate(File output, String seed) throws IOException
+    {
+        InputGenerator.main(new String[] { "--points", POINTS_FOLDER.getPath(), "--manual-size", "20K",
+                "--automatic-size", "12K", "--unesp-size", "4K", "--file-size", "8K", "--seed", seed,
+                output.getPath() });
+    }
+
+    @Test
+    public void filesAreSplitByTheOptions() throws IOException
+    {
+        File output = new File(folder.getRoot(), "output");
+        generate(output, "7");
+        File renova = new File(output, "dados_renova"), unesp = new File(output, "dados_unesp");
+        assertTrue(new File(renova, "Detalhamento_pontos_PMQQS.csv").isFile());
+        assertTrue(new File(unesp, "pontos.csv").isFile());
+        assertArrayEquals(new String[] { "manual-0001.csv", "manual-0002.csv", "manual-0003.csv" },
+                list(new File(renova, "sintetico_manual")));
+        assertArrayEquals(new String[] { "automatico-0001.csv", "automatico-0002.csv" },
+                list(new File(renova, "sintetico_automatico")));
+        assertArrayEquals(new String[] { "Dados_Sinteticos_Campanha0001.csv" }, list(new File(unesp, "agua")));
+
+        // the same seed writes the same files
+        File again = new File(folder.getRoot(), "again");
+        generate(again, "7");
+        for (String path : new String[] { "dados_renova/sintetico_manual/manual-0003.csv",
+                "dados_renova/sintetico_automatico/automatico-0002.csv",
+                "dados_unesp/agua/Dados_Sinteticos_Campanha0001.csv" })
+            assertArrayEquals(path, Files.readAllBytes(new File(output, path).toPath()),
+                    Files.readAllBytes(new File(again, path).toPath()));
+    }
+
+    @Test
+    public void nothingIsWrittenWithInvalidArguments() throws IOException
+    {
+        File output = new File(folder.getRoot(), "output");
+        InputGenerator.main(new String[] { "--manual-size", "20K", output.getPath(), "--unknown" });
+        InputGenerator.main(new String[] { "--manual-size", "20X", output.getPath() });
+        InputGenerator.main(new String[] { "--file-size", "0", output.getPath() });
+        InputGenerator.main(new String[] { output.getPath(), output.getPath() });
+        assertFalse(output.exists());
+    }
+
+    /**
+     * Transforms a file into the ontology, returning its counters
+     */
+    private static EtlMetrics.FileMetrics transform(File file, OWLOntology ontology)
+            throws IOException, ParseException
+    {
+        EtlMetrics.FileMetrics metrics = EtlMetrics.startFile(file);
+        try
+        {
+            if (InputDiscovery.sniff(file) == InputDiscovery.Format.UNESP)
+                UnespExtractTransform.extractTransformUNESP(file, ontology);
+            else
+                RenovaExtractTransform.extractTransformRenova(file, ontology);
+        } finally
+        {
+            EtlMetrics.endFile(metrics);
+        }
+        return metrics;
+    }
+
+    @Test
+    public void filesOfEachFormatAreTransformed() throws Exception
+    {
+        InputGenerator generator = new InputGenerator(POINTS_FOLDER, 3);
+        File manual = new File(folder.getRoot(), "manual.csv"), automatic = new File(folder.getRoot(), "automatic.csv"),
+                unesp = new File(folder.getRoot(), "unesp.csv");
+        generator.writeManual(manual, 16 << 10, new GregorianCalendar(2020, Calendar.AUGUST, 2));
+        generator.writeAutomatic(automatic, 16 << 10, new GregorianCalendar(2017, Calendar.AUGUST, 1));
+        generator.writeUnesp(unesp, 4 << 10, new GregorianCalendar(2015, Calendar.DECEMBER, 5));
+        assertEquals(InputDiscovery.Format.RENOVA_MANUAL, InputDiscovery.sniff(manual));
+        assertEquals(InputDiscovery.Format.RENOVA_AUTOMATIC, InputDiscovery.sniff(automatic));
+        assertEquals(InputDiscovery.Format.UNESP, InputDiscovery.sniff(unesp));
+
+        OWLOntology ontology = Load.createDataOntology();
+        Load.setDeduplication(true);
+        try
+        {
+            for (File file : new File[] { manual, automatic, unesp })
+            {
+                EtlMetrics.FileMetrics metrics = transform(file, ontology);
+                assertTrue(file.getName(), metrics.getRows() > 0);
+                assertTrue(file.getName(), metrics.getMeasurements() > 0);
+                assertTrue(file.getName(), metrics.getAxioms() > 0);
+            }
+        } finally
+        {
+            ontology.getOWLOntologyManager().removeOntology(ontology);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package br.ufes.inf.nemo.integradoce.etl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests that {@link InputWatcher} reports files in a temporary folder only
+ * once they stop changing, and reports a file renamed into place under its
+ * final name only.
+ */
+public class InputWatcherTest
+{
+    private static final long QUIET_MILLIS = 300;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static void write(File file, String text) throws IOException
+    {
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @Test(timeout = 10000)
+    public void fileIsReportedOnceItStopsChanging() throws Exception
+    {
+        try (InputWatcher watcher = new InputWatcher(folder.getRoot(), QUIET_MILLIS))
+        {
+            File file = new File(folder.getRoot(), "a.csv");
+            long start = System.nanoTime();
+            write(file, "x;y\n");
+            write(file, "x;y\n1;2\n");
+            List<File> files = watcher.take();
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(QUIET_MILLIS));
+            // the two writes are reported together
+            assertEquals(Collections.singletonList(file), files);
+
+            // reported again when it changes, also in a new subfolder
+            File subfolder = folder.newFolder("b");
+            File other = new File(subfolder, "b.csv");
+            write(other, "x;y\n");
+            write(file, "x;y\n1;2\n3;4\n");
+            assertEquals(2, watcher.take().size());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void fileIsNotReportedWhileBeingWritten() throws Exception
+    {
+        File file = new File(folder.getRoot(), "a.csv");
+        try (InputWatcher watcher = new InputWatcher(folder.getRoot(), QUIET_MILLIS))
+        {
+            Thread writer = new Thread(() -> {
+                try (OutputStream out = new FileOutputStream(file))
+                {
+                    // slower than the quiet time in total, not between writes
+                    for (int i = 0; i < 10; i++)
+                    {
+                        out.write("1;2\n".getBytes(StandardCharsets.US_ASCII));
+                        out.flush();
+                        Thread.sleep(QUIET_MILLIS / 3);
+                    }
+                } catch (IOException | InterruptedException e)
+                {
+                    throw new RuntimeException(e);
+                }
+            });
+            writer.start();
+            List<File> files = watcher.take();
+            assertEquals(Collections.singletonList(file), files);
+            assertTrue(!writer.isAlive());
+            assertEquals(40, file.length());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void renamedFileIsReportedByItsNewName() throws Exception
+    {
+        try (InputWatcher watcher = new InputWatcher(folder.getRoot(), QUIET_MILLIS))
+        {
+            // downloaded to a temporary name, then renamed
+            File partial = new File(folder.getRoot(), "a.csv.part");
+            File file = new File(folder.getRoot(), "a.csv");
+            write(partial, "x;y\n1;2\n");
+            Files.move(partial.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            assertEquals(Collections.singletonList(file), watcher.take());
+
+            // moved in from outside the folder
+            File outside = File.createTempFile("input", ".csv");
+            outside.deleteOnExit();
+            write(outside, "x;y\n");
+            File moved = new File(folder.getRoot(), "b.csv");
+            Files.move(outside.toPath(), moved.toPath());
+            assertEquals(Collections.singletonList(moved), watcher.take());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void fileMarkedAsReadIsReportedOnlyIfChanged() throws Exception
+    {
+        File first = folder.newFile("a.csv");
+        write(first, "x;y\n");
+        try (InputWatcher watcher = new InputWatcher(folder.getRoot(), QUIET_MILLIS))
+        {
+            watcher.read(first);
+            // rewritten with the same content and time: not a change
+            long modified = first.lastModified();
+            write(first, "x;y\n");
+            assertTrue(first.setLastModified(modified));
+            File second = new File(folder.getRoot(), "b.csv");
+            write(second, "x;y\n");
+            assertEquals(Collections.singletonList(second), watcher.take());
+        }
+    }
+}
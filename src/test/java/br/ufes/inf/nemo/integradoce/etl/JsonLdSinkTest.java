@@ -0,0 +1,121 @@
+package br.ufes.inf.nemo.integradoce.etl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.rdf4j.model.Model;
+import org.eclipse.rdf4j.model.util.Models;
+import org.eclipse.rdf4j.rio.RDFFormat;
+import org.eclipse.rdf4j.rio.Rio;
+import org.junit.Test;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLNamedIndividual;
+
+/**
+ * Tests that the JSON-LD written by {@link JsonLdSink}, read back by a JSON-LD
+ * parser, has the same triples as the N-Triples written by
+ * {@link NTriplesSink}, including a header with blank nodes, language-tagged
+ * literals and strings that need escaping.
+ */
+public class JsonLdSinkTest
+{
+    private static final OWLDataFactory FACTORY = OWLManager.getOWLDataFactory();
+
+    private static final String DOCE = "http://purl.org/nemo/doce#", GUFO = "http://purl.org/nemo/gufo#",
+            RDFS = "http://www.w3.org/2000/01/rdf-schema#";
+
+    /**
+     * Ontology header as rendered by the OWLAPI, with a class expression
+     */
+    private static final String HEADER = "<http://purl.org/nemo/integradoce/data> "
+            + "<http://www.w3.org/1999/02/22-rdf-syntax-ns#type> <http://www.w3.org/2002/07/owl#Ontology> .\n"
+            + "<http://purl.org/nemo/doce#Conductivity> <http://www.w3.org/2000/01/rdf-schema#subClassOf> _:genid1 .\n"
+            + "_:genid1 <http://www.w3.org/1999/02/22-rdf-syntax-ns#type> <http://www.w3.org/2002/07/owl#Restriction> .\n"
+            + "_:genid1 <http://www.w3.org/2002/07/owl#onProperty> <http://purl.org/nemo/doce#expressedIn> .\n"
+            + "_:genid1 <http://www.w3.org/2002/07/owl#someValuesFrom> <http://www.w3.org/2002/07/owl#Thing> .\n"
+            + "<http://purl.org/nemo/integradoce/data> <http://www.w3.org/2000/01/rdf-schema#comment> "
+            + "\"Dados \\\"integrados\\\"\\nda bacia\"@pt .\n";
+
+    private static Map<String, String> prefixes()
+    {
+        Map<String, String> prefixes = new HashMap<>();
+        prefixes.put(":", DOCE);
+        prefixes.put("gufo:", GUFO);
+        prefixes.put("rdfs:", RDFS);
+        prefixes.put("owl:", "http://www.w3.org/2002/07/owl#");
+        prefixes.put("xsd:", "http://www.w3.org/2001/XMLSchema#");
+        return prefixes;
+    }
+
+    /**
+     * The axioms of a measurement of a value at a point
+     */
+    private static List<OWLAxiom> measurement(String name, String point, float value)
+    {
+        OWLNamedIndividual measurement = FACTORY
+                .getOWLNamedIndividual(IRI.create("http://purl.org/nemo/integradoce#" + name));
+        return Arrays.asList(
+                FACTORY.getOWLClassAssertionAxiom(FACTORY.getOWLClass(IRI.create(DOCE + "Measurement")), measurement),
+                FACTORY.getOWLObjectPropertyAssertionAxiom(
+                        FACTORY.getOWLObjectProperty(IRI.create(DOCE + "locatedIn")), measurement,
+                        FACTORY.getOWLNamedIndividual(IRI.create("http://purl.org/nemo/integradoce#" + point))),
+                FACTORY.getOWLDataPropertyAssertionAxiom(FACTORY.getOWLDataProperty(IRI.create(GUFO + "hasQualityValue")),
+                        measurement, value));
+    }
+
+    /**
+     * The axioms of a point, with labels in Portuguese and without a language
+     */
+    private static List<OWLAxiom> point(String name, String label, String comment)
+    {
+        OWLNamedIndividual point = FACTORY
+                .getOWLNamedIndividual(IRI.create("http://purl.org/nemo/integradoce#" + name));
+        return Arrays.asList(
+                FACTORY.getOWLClassAssertionAxiom(FACTORY.getOWLClass(IRI.create(DOCE + "GeographicPoint")), point),
+                FACTORY.getOWLDataPropertyAssertionAxiom(FACTORY.getOWLDataProperty(IRI.create(RDFS + "label")), point,
+                        FACTORY.getOWLLiteral(label, "pt")),
+                FACTORY.getOWLDataPropertyAssertionAxiom(FACTORY.getOWLDataProperty(IRI.create(RDFS + "comment")),
+                        point, comment));
+    }
+
+    @Test
+    public void jsonLdHasTheTriplesOfNTriples() throws Exception
+    {
+        List<List<OWLAxiom>> records = new ArrayList<>();
+        records.add(point("RCA-01", "Acaiaca - Carmo 01", "Ponte \"férrea\" sobre o rio\ndo Carmo\t(MG) \\ margem"));
+        records.add(measurement("m1", "RCA-01", 7f));
+        records.add(measurement("m2", "RCA-01", -0.25f));
+        records.add(measurement("m3", "RCA-01", 1.5e-6f));
+
+        StringWriter jsonld = new StringWriter();
+        JsonLdSink sink = new JsonLdSink(jsonld, prefixes());
+        sink.addNTriples(new StringReader(HEADER));
+        for (List<OWLAxiom> record : records)
+            sink.addAll(record);
+        sink.close();
+
+        StringWriter ntriples = new StringWriter();
+        ntriples.write(HEADER);
+        NTriplesSink expectedSink = new NTriplesSink(ntriples);
+        for (List<OWLAxiom> record : records)
+            expectedSink.addAll(record);
+        expectedSink.close();
+
+        Model actual = Rio.parse(new StringReader(jsonld.toString()), "", RDFFormat.JSONLD);
+        Model expected = Rio.parse(new StringReader(ntriples.toString()), "", RDFFormat.NTRIPLES);
+        // 6 in the header, 2 + 2 for the point, 4 for each measurement
+        assertEquals(22, expected.size());
+        assertTrue(jsonld.toString(), Models.isomorphic(expected, actual));
+    }
+}
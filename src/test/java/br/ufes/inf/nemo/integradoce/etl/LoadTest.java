@@ -0,0 +1,198 @@
+package br.ufes.inf.nemo.integradoce.etl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.GregorianCalendar;
+import java.util.List;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+
+/**
+ * Tests that {@link Load} falls back to a copy of the doce ontology in the
+ * classpath, without network access, that no telemetry measurement is lost
+ * when only their rollups are kept, and that measurements read more than once
+ * (e.g. from overlapping exports) are added once, or, with a limit, only if
+ * they are not duplicates of recent measurements.
+ */
+public class LoadTest
+{
+    @Test
+    public void bundledCopyIsLoadedFromTheClasspath() throws Exception
+    {
+        OWLOntology ontology = Load.loadBundledCopy("/doce-fixture.ttl");
+        assertEquals(IRI.create("http://purl.org/nemo/doce/fixture"),
+                ontology.getOntologyID().getOntologyIRI().get());
+        assertTrue(ontology.containsClassInSignature(IRI.create("http://purl.org/nemo/doce#Measurement")));
+    }
+
+    @Test
+    public void bundledCopyOfDoceIsLoaded() throws Exception
+    {
+        // bundled by the build (see OntologyBundle), unless it had neither a
+        // local copy nor network access
+        Assume.assumeNotNull(Load.class.getResource(Load.BUNDLED_ONTOLOGY));
+        OWLOntology ontology = Load.loadBundledCopy(Load.BUNDLED_ONTOLOGY);
+        try
+        {
+            assertEquals(Load.DOCE_IRI, ontology.getOntologyID().getOntologyIRI().get());
+            assertTrue(ontology.containsClassInSignature(IRI.create("http://purl.org/nemo/doce#Measurement")));
+        } finally
+        {
+            ontology.getOWLOntologyManager().removeOntology(ontology);
+        }
+    }
+
+    @Test
+    public void missingBundledCopyIsReported()
+    {
+        try
+        {
+            Load.loadBundledCopy("/missing-doce.ttl");
+            fail();
+        } catch (OWLOntologyCreationException e)
+        {
+            assertTrue(e.getMessage(), e.getMessage().contains("/missing-doce.ttl"));
+        }
+    }
+
+    private static long time(int hour, int minute)
+    {
+        GregorianCalendar calendar = new GregorianCalendar(ValueCodec.SOURCE_TIME_ZONE);
+        calendar.clear();
+        calendar.set(2017, 7, 1, hour, minute);
+        return calendar.getTimeInMillis();
+    }
+
+    @Test
+    public void lateMeasurementsAreKeptWithRollupsOnly() throws Exception
+    {
+        MeasurementBuffer measurements = new MeasurementBuffer(true);
+        measurements.add(":LATE-01", "http://purl.org/nemo/doce#pH", "http://qudt.org/vocab/unit/UNITLESS", 7f,
+                time(0, 0), "http://purl.org/nemo/integradoce#Renova", null);
+        measurements.add(":LATE-01", "http://purl.org/nemo/doce#pH", "http://qudt.org/vocab/unit/UNITLESS", 8f,
+                time(1, 0), "http://purl.org/nemo/integradoce#Renova", null);
+        // out of order: its hour is closed already
+        measurements.add(":LATE-01", "http://purl.org/nemo/doce#pH", "http://qudt.org/vocab/unit/UNITLESS", 6f,
+                time(0, 30), "http://purl.org/nemo/integradoce#Renova", null);
+
+        OWLOntology ontology = Load.createDataOntology();
+        Load.setRollups(EnumSet.of(Rollups.Period.HOUR), false);
+        try
+        {
+            Load.addMeasurements(ontology, measurements);
+            Load.flushRollups(ontology);
+            OWLClass measurement = OWLManager.getOWLDataFactory()
+                    .getOWLClass(IRI.create("http://purl.org/nemo/doce#Measurement"));
+            OWLClass aggregate = OWLManager.getOWLDataFactory()
+                    .getOWLClass(IRI.create("http://purl.org/nemo/integradoce#MeasurementAggregate"));
+            assertEquals(1, ontology.classAssertionAxioms(measurement).count());
+            assertEquals(2, ontology.classAssertionAxioms(aggregate).count());
+        } finally
+        {
+            Load.setRollups(EnumSet.noneOf(Rollups.Period.class), true);
+            ontology.getOWLOntologyManager().removeOntology(ontology);
+        }
+    }
+
+    private static long measurements(OWLOntology ontology)
+    {
+        OWLClass measurement = OWLManager.getOWLDataFactory()
+                .getOWLClass(IRI.create("http://purl.org/nemo/doce#Measurement"));
+        return ontology.classAssertionAxioms(measurement).count();
+    }
+
+    private static void add(OWLOntology ontology, float value)
+    {
+        MeasurementBuffer measurements = new MeasurementBuffer();
+        measurements.add(":LIMIT-01", "http://purl.org/nemo/doce#pH", "http://qudt.org/vocab/unit/UNITLESS", value,
+                time(0, 0), "http://purl.org/nemo/integradoce#Renova", null);
+        Load.addMeasurements(ontology, measurements);
+    }
+
+    @Test
+    public void onlyTheLastMeasurementsAreRememberedWithALimit() throws Exception
+    {
+        OWLOntology ontology = Load.createDataOntology();
+        Load.setDeduplication(true, 2);
+        // so that a measurement added again is a new individual
+        Load.setContentDerivedIRIs(false);
+        try
+        {
+            add(ontology, 1f);
+            add(ontology, 2f);
+            add(ontology, 3f);
+            // among the last 2 to 4 measurements
+            add(ontology, 1f);
+            assertEquals(3, measurements(ontology));
+
+            add(ontology, 4f);
+            // forgotten
+            add(ontology, 1f);
+            assertEquals(5, measurements(ontology));
+        } finally
+        {
+            Load.setDeduplication(true);
+            Load.setContentDerivedIRIs(true);
+            ontology.getOWLOntologyManager().removeOntology(ontology);
+        }
+    }
+
+    /**
+     * Writes a copy of a CSV file with only some of its data rows
+     */
+    private static File rows(List<String> lines, int from, int to) throws IOException
+    {
+        List<String> copy = new ArrayList<>();
+        copy.add(lines.get(0));
+        copy.addAll(lines.subList(from, to));
+        File file = File.createTempFile("renova", ".csv");
+        file.deleteOnExit();
+        Files.write(file.toPath(), copy, StandardCharsets.ISO_8859_1);
+        return file;
+    }
+
+    @Test
+    public void overlappingFilesAddEachMeasurementOnce() throws Exception
+    {
+        File export = new File(
+                "sample_input_data/dados_renova/manual_2022-08-02_2023-04-24/6188a93a-7908-440d-bda7-0ff0d7cec9fa.csv");
+        List<String> lines = Files.readAllLines(export.toPath(), StandardCharsets.ISO_8859_1);
+        OWLOntology whole = Load.createDataOntology();
+        // so that a measurement added again would be a new individual
+        Load.setContentDerivedIRIs(false);
+        try
+        {
+            Load.setDeduplication(true);
+            RenovaExtractTransform.extractTransformRenova(rows(lines, 1, lines.size()), whole);
+            long expected = measurements(whole);
+            assertTrue(expected > 0);
+            whole.getOWLOntologyManager().removeOntology(whole);
+
+            // a new run, with two exports sharing half of their rows
+            whole = Load.createDataOntology();
+            Load.setDeduplication(true);
+            int half = lines.size() / 2;
+            RenovaExtractTransform.extractTransformRenova(rows(lines, 1, half + half / 2), whole);
+            RenovaExtractTransform.extractTransformRenova(rows(lines, half / 2, lines.size()), whole);
+            assertEquals(expected, measurements(whole));
+        } finally
+        {
+            Load.setContentDerivedIRIs(true);
+            whole.getOWLOntologyManager().removeOntology(whole);
+        }
+    }
+}
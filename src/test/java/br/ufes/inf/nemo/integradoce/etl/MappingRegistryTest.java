@@ -0,0 +1,33 @@
+package br.ufes.inf.nemo.integradoce.etl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+/**
+ * Tests that {@link MappingRegistry} finds the mapped columns of headers that
+ * differ only in their spelling.
+ */
+public class MappingRegistryTest
+{
+    @Test
+    public void headersAreNormalized()
+    {
+        assertEquals("temperatura da amostra in situ (oc)", MappingRegistry.key("Temperatura da amostra insitu (ºC)"));
+        assertEquals(MappingRegistry.key("Fosforo total (mg/L)"), MappingRegistry.key("Fósforo_total ( mg / L )"));
+        assertEquals(MappingRegistry.key("pH in situ"), MappingRegistry.key("pH insitu3"));
+        assertEquals(3, MappingRegistry.replicate("pH insitu3"));
+        assertEquals(0, MappingRegistry.replicate("pH insitu"));
+    }
+
+    @Test
+    public void mappingsAreShared()
+    {
+        MappingRegistry.Mapping unesp = MappingRegistry.get().unesp();
+        assertSame(unesp, MappingRegistry.get().unesp());
+        assertEquals("http://purl.org/nemo/doce#DissolvedIronConcentration", unesp.get("fe_diss").qualityKind);
+        assertNotNull(MappingRegistry.get().renova(MappingRegistry.RENOVA_MANUAL).get("Arsênio_dissolvido (mg / L)"));
+    }
+}
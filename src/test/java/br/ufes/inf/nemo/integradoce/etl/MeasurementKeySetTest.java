@@ -0,0 +1,93 @@
+package br.ufes.inf.nemo.integradoce.etl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Tests that {@link MeasurementKeySet} keeps every key added once, as it grows,
+ * when keys fall in the same slot, and when they are added concurrently.
+ */
+public class MeasurementKeySetTest
+{
+    @Test
+    public void keysAreKeptAsTheSetGrows()
+    {
+        MeasurementKeySet keys = new MeasurementKeySet(4);
+        for (long i = 0; i < 10000; i++)
+            assertTrue(keys.add(i * 0x9E3779B97F4A7C15L, i));
+        assertEquals(10000, keys.size());
+        for (long i = 0; i < 10000; i++)
+        {
+            assertTrue(keys.contains(i * 0x9E3779B97F4A7C15L, i));
+            assertFalse(keys.add(i * 0x9E3779B97F4A7C15L, i));
+        }
+        assertFalse(keys.contains(1, 10000));
+        assertEquals(10000, keys.size());
+    }
+
+    @Test
+    public void keysInTheSameSlotAreToldApart()
+    {
+        MeasurementKeySet keys = new MeasurementKeySet(16);
+        // the slot is taken from the low half of the key
+        for (long high = 1; high <= 6; high++)
+            assertTrue(keys.add(high, 42));
+        assertTrue(keys.add(1, 42 + (1L << 32)));
+        for (long high = 1; high <= 6; high++)
+            assertFalse(keys.add(high, 42));
+        assertFalse(keys.contains(7, 42));
+        assertEquals(7, keys.size());
+    }
+
+    @Test
+    public void zeroKeyIsAKey()
+    {
+        MeasurementKeySet keys = new MeasurementKeySet(4);
+        assertFalse(keys.contains(0, 0));
+        assertTrue(keys.add(0, 0));
+        assertFalse(keys.add(0, 0));
+        assertTrue(keys.contains(0, 0));
+        assertEquals(1, keys.size());
+    }
+
+    @Test
+    public void concurrentAddsAddEachKeyOnce() throws Exception
+    {
+        MeasurementKeySet keys = new MeasurementKeySet(4);
+        AtomicInteger added = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try
+        {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (int t = 0; t < 8; t++)
+            {
+                // overlapping ranges: keys 0 to 19999 twice over
+                long first = t % 4 * 5000L;
+                tasks.add(pool.submit(() -> {
+                    for (long i = first; i < first + 5000; i++)
+                    {
+                        if (keys.add(i >>> 3, i * 31))
+                            added.incrementAndGet();
+                    }
+                }));
+            }
+            for (Future<?> task : tasks)
+                task.get();
+        } finally
+        {
+            pool.shutdown();
+        }
+        assertEquals(20000, added.get());
+        assertEquals(20000, keys.size());
+    }
+}
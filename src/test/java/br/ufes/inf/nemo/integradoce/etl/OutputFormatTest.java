@@ -0,0 +1,95 @@
+package br.ufes.inf.nemo.integradoce.etl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.Date;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.io.StreamDocumentSource;
+import org.semanticweb.owlapi.model.MissingImportHandlingStrategy;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyLoaderConfiguration;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
+
+/**
+ * Tests that the compressed output formats are read back, through a
+ * GZIPInputStream, with the axioms of the ontology, and that formats are found
+ * by label and by file name.
+ */
+public class OutputFormatTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void formatsAreFoundByLabelAndFileName()
+    {
+        assertEquals(OutputFormat.TURTLE_GZIP, OutputFormat.forLabel("turtle-gz"));
+        assertEquals(OutputFormat.NTRIPLES_GZIP, OutputFormat.forLabel("ntriples-gz"));
+        assertNull(OutputFormat.forLabel("rdfxml"));
+        assertEquals(OutputFormat.TURTLE_GZIP, OutputFormat.forFile("out/data.ttl.gz"));
+        assertEquals(OutputFormat.NTRIPLES, OutputFormat.forFile("data.nt"));
+        assertEquals(OutputFormat.JSONLD, OutputFormat.forFile("data.jsonld"));
+        assertNull(OutputFormat.forFile("data.gz"));
+    }
+
+    /**
+     * The individual assertions of an ontology
+     */
+    private static Set<OWLAxiom> assertions(OWLOntology ontology)
+    {
+        return ontology.axioms().filter(TripleSink::supports).collect(Collectors.toSet());
+    }
+
+    /**
+     * Reads a compressed file back, leaving out the import of doce
+     */
+    private static Set<OWLAxiom> readBack(File file) throws Exception
+    {
+        OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
+        OWLOntologyLoaderConfiguration config = new OWLOntologyLoaderConfiguration()
+                .setMissingImportHandlingStrategy(MissingImportHandlingStrategy.SILENT);
+        try (InputStream in = new GZIPInputStream(new FileInputStream(file)))
+        {
+            return assertions(manager.loadOntologyFromOntologyDocument(new StreamDocumentSource(in), config));
+        }
+    }
+
+    @Test
+    public void compressedOutputIsReadBack() throws Exception
+    {
+        OWLOntology ontology = Load.createDataOntology();
+        Load.setDeduplication(true);
+        try
+        {
+            Load.addGeographicPoint(ontology, ":FMT-01", -89.5f, 179.5f, "Ponte \"férrea\"\nsobre o rio", "Ponte 01");
+            Load.addMeasurement(ontology, ":FMT-01", "http://purl.org/nemo/doce#pH",
+                    "http://qudt.org/vocab/unit/UNITLESS", 7.25f, new Date(1501545600000L),
+                    "http://purl.org/nemo/integradoce#Renova");
+            Load.addMeasurement(ontology, ":FMT-01", "http://purl.org/nemo/doce#Turbidity",
+                    "http://qudt.org/vocab/unit/NTU", 12f, null, "http://purl.org/nemo/integradoce#Renova");
+            Set<OWLAxiom> expected = assertions(ontology);
+
+            for (OutputFormat format : new OutputFormat[] { OutputFormat.TURTLE_GZIP, OutputFormat.NTRIPLES_GZIP })
+            {
+                File file = new File(folder.getRoot(), "data" + format.extension);
+                Load.save(ontology, file.getPath(), format);
+                assertEquals(format.label, expected, readBack(file));
+            }
+        } finally
+        {
+            ontology.getOWLOntologyManager().removeOntology(ontology);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package br.ufes.inf.nemo.integradoce.etl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.junit.Test;
+
+/**
+ * Tests that {@link RenovaColumnPlan} matches the columns of a header to the
+ * mapping by their keys, leaving out the replicates of in situ readings, finds
+ * the status columns of the manual and automatic formats, and accepts values
+ * by their status codes.
+ */
+public class RenovaColumnPlanTest
+{
+    private static final List<String> MANUAL_HEADER = Arrays.asList("Matriz", "TipoDeAmostra", "CodigoDoPonto",
+            "DataAmostra", "HoraAmostra", "Arsênio_dissolvido ( mg / L )", "Status_Arsenio dissolvido", "pH insitu",
+            "pH insitu1", "Status_pH insitu1", "Turbidez in situ (NTU)", "Boro total (mg/L)");
+
+    private static final List<String> AUTOMATIC_HEADER = Arrays.asList("Matriz", "TipoDeAmostra", "CodigoDoPonto",
+            "DataAmostra", "HoraAmostra", "pH", "Status", "Turbidez (NTU)", "Flag");
+
+    /**
+     * Parses data rows with the given header
+     */
+    private static List<CSVRecord> records(List<String> header, String... rows) throws IOException
+    {
+        StringBuilder csv = new StringBuilder(String.join(";", header)).append('\n');
+        for (String row : rows)
+            csv.append(row).append('\n');
+        try (CSVParser parser = CSVFormat.EXCEL.withDelimiter(';').withFirstRecordAsHeader()
+                .parse(new StringReader(csv.toString())))
+        {
+            return parser.getRecords();
+        }
+    }
+
+    /**
+     * Index of the mapped column in the plan
+     */
+    private static int mapped(RenovaColumnPlan plan, String header)
+    {
+        for (int i = 0; i < plan.size(); i++)
+            if (plan.header(i).equals(header))
+                return i;
+        fail(header + " is not in the plan");
+        return -1;
+    }
+
+    @Test
+    public void statusCodesAreABitmask()
+    {
+        assertEquals(1 << 1, RenovaColumnPlan.statusMask("1"));
+        assertEquals((1 << 1) | (1 << 4), RenovaColumnPlan.statusMask("1,4"));
+        assertEquals(0, RenovaColumnPlan.statusMask(""));
+        for (String accepted : new String[] { "1", "4", "5", "1,3", "1,4" })
+            assertTrue(accepted, (RenovaColumnPlan.statusMask(accepted) & RenovaColumnPlan.ALLOWED_STATUS) != 0);
+        for (String rejected : new String[] { "2", "3", "6", "2,3", "" })
+            assertFalse(rejected, (RenovaColumnPlan.statusMask(rejected) & RenovaColumnPlan.ALLOWED_STATUS) != 0);
+    }
+
+    @Test
+    public void columnsAreMatchedByTheirKeys()
+    {
+        RenovaColumnPlan plan = RenovaColumnPlan.forHeader(RenovaColumnPlan.MANUAL_MAPPING, MANUAL_HEADER);
+        assertEquals(4, plan.size());
+        assertEquals(5, plan.valueColumn(mapped(plan, "Arsenio dissolvido (mg/L)")));
+        assertEquals(10, plan.valueColumn(mapped(plan, "Turbidez in situ (NTU)")));
+        assertEquals(11, plan.valueColumn(mapped(plan, "Boro total (mg/L)")));
+        assertEquals(1, plan.tipoColumn);
+        assertEquals(2, plan.codigoColumn);
+        assertEquals(3, plan.dataColumn);
+        assertEquals(4, plan.horaColumn);
+        // cached by mapping and header
+        assertSame(plan, RenovaColumnPlan.forHeader(RenovaColumnPlan.MANUAL_MAPPING, MANUAL_HEADER));
+    }
+
+    @Test
+    public void replicatesAreNotMatched() throws Exception
+    {
+        RenovaColumnPlan plan = RenovaColumnPlan.forHeader(RenovaColumnPlan.MANUAL_MAPPING, MANUAL_HEADER);
+        // the replicate after it has the same key
+        int pH = mapped(plan, "pH in situ");
+        assertEquals(7, plan.valueColumn(pH));
+        CSVRecord record = records(MANUAL_HEADER, "Agua;P15;EBN 01;09/08/2020;15:45;0.5;1;7.1;7.3;2;3.2;0.1")
+                .get(0);
+        assertEquals("7.1", plan.value(record, pH));
+        assertEquals("P15;pH in situ", plan.sourceKey(record, pH));
+    }
+
+    @Test
+    public void statusColumnsOfTheManualFormatStartWithStatus() throws Exception
+    {
+        RenovaColumnPlan plan = RenovaColumnPlan.forHeader(RenovaColumnPlan.MANUAL_MAPPING, MANUAL_HEADER);
+        CSVRecord record = records(MANUAL_HEADER, "Agua;P15;EBN 01;09/08/2020;15:45;0.5;1,4;7.1;7.3;2;3.2;0.1")
+                .get(0);
+        assertEquals("1,4", plan.status(record, mapped(plan, "Arsenio dissolvido (mg/L)")));
+        // followed by a replicate, by a value and by nothing
+        assertNull(plan.status(record, mapped(plan, "pH in situ")));
+        assertNull(plan.status(record, mapped(plan, "Turbidez in situ (NTU)")));
+        assertNull(plan.status(record, mapped(plan, "Boro total (mg/L)")));
+        assertTrue(plan.isAccepted(record, mapped(plan, "Boro total (mg/L)")));
+    }
+
+    @Test
+    public void statusColumnsOfTheAutomaticFormatAreAlwaysNext() throws Exception
+    {
+        RenovaColumnPlan plan = RenovaColumnPlan.forHeader(RenovaColumnPlan.AUTOMATIC_MAPPING, AUTOMATIC_HEADER);
+        assertEquals(2, plan.size());
+        int pH = mapped(plan, "pH"), turbidity = mapped(plan, "Turbidez (NTU)");
+        List<CSVRecord> records = records(AUTOMATIC_HEADER, "Agua;Superficial;RD 045;01/08/2017;00:00;7.1;1;3.2;2",
+                "Agua;Superficial;RD 045;01/08/2017;01:00;7.2;5;3.3;1,3",
+                "Agua;Superficial;RD 045;01/08/2017;02:00;7.3;2;3.4;4");
+        assertEquals("2", plan.status(records.get(0), turbidity));
+        assertTrue(plan.isAccepted(records.get(0), pH));
+        assertFalse(plan.isAccepted(records.get(0), turbidity));
+        assertTrue(plan.isAccepted(records.get(1), pH));
+        assertTrue(plan.isAccepted(records.get(1), turbidity));
+        assertFalse(plan.isAccepted(records.get(2), pH));
+        assertTrue(plan.isAccepted(records.get(2), turbidity));
+    }
+}
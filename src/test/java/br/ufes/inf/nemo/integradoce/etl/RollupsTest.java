@@ -0,0 +1,61 @@
+package br.ufes.inf.nemo.integradoce.etl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.GregorianCalendar;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests that {@link Rollups} closes the aggregate of a period when a later
+ * period starts, and leaves out measurements that arrive too late.
+ */
+public class RollupsTest
+{
+    private static long time(int day, int hour, int minute)
+    {
+        GregorianCalendar calendar = new GregorianCalendar(ValueCodec.SOURCE_TIME_ZONE);
+        calendar.clear();
+        calendar.set(2017, 7, day, hour, minute);
+        return calendar.getTimeInMillis();
+    }
+
+    @Test
+    public void periodsAreClosedWhenALaterOneStarts()
+    {
+        Rollups rollups = new Rollups(EnumSet.of(Rollups.Period.HOUR, Rollups.Period.DAY), true);
+        List<Rollups.Aggregate> closed = new ArrayList<>();
+        assertTrue(rollups.add(":P", "pH", "unit", "agent", time(1, 0, 0), 7f, closed));
+        rollups.add(":P", "pH", "unit", "agent", time(1, 0, 30), 9f, closed);
+        assertEquals(0, closed.size());
+
+        rollups.add(":P", "pH", "unit", "agent", time(1, 1, 0), 6f, closed);
+        assertEquals(1, closed.size());
+        Rollups.Aggregate hour = closed.get(0);
+        assertEquals(Rollups.Period.HOUR, hour.period);
+        assertEquals(time(1, 0, 0), hour.start);
+        assertEquals(time(1, 1, 0), hour.end);
+        assertEquals(7f, hour.min, 0);
+        assertEquals(9f, hour.max, 0);
+        assertEquals(8, hour.mean(), 0);
+        assertEquals(2, hour.count);
+
+        // too late for its hour, but still in the open day
+        assertFalse(rollups.add(":P", "pH", "unit", "agent", time(1, 0, 45), 5f, closed));
+        assertEquals(1, rollups.getLate());
+
+        closed.clear();
+        rollups.flush(closed);
+        assertEquals(2, closed.size());
+        assertEquals(1, closed.get(0).count);
+        Rollups.Aggregate day = closed.get(1);
+        assertEquals(time(2, 0, 0), day.end);
+        assertEquals(4, day.count);
+        assertEquals(5f, day.min, 0);
+    }
+}
@@ -0,0 +1,172 @@
+package br.ufes.inf.nemo.integradoce.etl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLNamedIndividual;
+
+import com.sun.net.httpserver.HttpServer;
+
+import uk.ac.manchester.cs.owl.owlapi.OWLDataFactoryImpl;
+
+/**
+ * Tests {@link SparqlUpdateSink} against an in-process HTTP endpoint.
+ */
+public class SparqlUpdateSinkTest
+{
+    private static final String NS = "http://example.org/";
+
+    private HttpServer server;
+    private URL endpoint;
+
+    /**
+     * Bodies of the accepted requests
+     */
+    private final List<String> updates = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger requests = new AtomicInteger(), inProgress = new AtomicInteger(),
+            maxInProgress = new AtomicInteger();
+
+    /**
+     * Number of requests to answer with 503, and status of the other requests
+     */
+    private volatile int failures = 0;
+    private volatile int status = 204;
+
+    @Before
+    public void startServer() throws IOException
+    {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newFixedThreadPool(8));
+        server.createContext("/update", exchange -> {
+            int n = inProgress.incrementAndGet();
+            maxInProgress.accumulateAndGet(n, Math::max);
+            int code = 500;
+            try
+            {
+                String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+                String body = read(exchange.getRequestBody());
+                Thread.sleep(20);
+                code = requests.incrementAndGet() <= failures ? 503 : status;
+                if (code == 204 && contentType.startsWith("application/sparql-update"))
+                    updates.add(body);
+            } catch (InterruptedException e)
+            {
+                // answered with 500
+            } finally
+            {
+                // before responding, as the client may then send its next request
+                inProgress.decrementAndGet();
+            }
+            exchange.sendResponseHeaders(code, -1);
+            exchange.close();
+        });
+        server.start();
+        endpoint = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/update");
+    }
+
+    @After
+    public void stopServer()
+    {
+        server.stop(0);
+    }
+
+    @Test
+    public void sendsAllTriplesInBoundedBatches() throws IOException
+    {
+        SparqlUpdateSink sink = new SparqlUpdateSink(endpoint, NS + "graph", 2000, 2);
+        for (int i = 0; i < 500; i++)
+            sink.addAll(record(i));
+        sink.close();
+
+        StringBuilder all = new StringBuilder();
+        for (String update : updates)
+        {
+            assertTrue(update.startsWith("INSERT DATA {\nGRAPH <" + NS + "graph> {\n"));
+            assertTrue(update.length() < 2000 + 400);
+            all.append(update);
+        }
+        assertTrue(updates.size() > 10);
+        assertTrue(maxInProgress.get() <= 2);
+        for (int i = 0; i < 500; i++)
+        {
+            assertTrue(all.indexOf("<" + NS + "m" + i + "> <" + NS + "value> \"" + i + "\"") >= 0);
+            assertTrue(all.indexOf("<" + NS + "m" + i + "> <" + NS + "locatedIn> <" + NS + "p> .") >= 0);
+        }
+    }
+
+    @Test
+    public void retriesServerErrors() throws IOException
+    {
+        failures = 2;
+        SparqlUpdateSink sink = new SparqlUpdateSink(endpoint, null, 1 << 20, 1);
+        sink.addAll(record(0));
+        sink.close();
+
+        assertEquals(3, requests.get());
+        assertEquals(1, updates.size());
+        assertTrue(updates.get(0).startsWith("INSERT DATA {\n<" + NS + "m0>"));
+    }
+
+    @Test
+    public void reportsRejectedUpdates() throws IOException
+    {
+        status = 400;
+        SparqlUpdateSink sink = new SparqlUpdateSink(endpoint, null, 1, 1);
+        try
+        {
+            for (int i = 0; i < 100; i++)
+                sink.addAll(record(i));
+            sink.close();
+            fail("rejected update not reported");
+        } catch (IOException e)
+        {
+            assertTrue(e.getMessage().contains("400"));
+        }
+        // not retried
+        assertTrue(requests.get() < 100);
+    }
+
+    private static List<OWLAxiom> record(int i)
+    {
+        // not through OWLManager, which needs reflective access on recent JDKs
+        OWLDataFactory dataFactory = new OWLDataFactoryImpl();
+        OWLNamedIndividual measurement = dataFactory.getOWLNamedIndividual(IRI.create(NS + "m" + i));
+        List<OWLAxiom> axioms = new ArrayList<>();
+        axioms.add(dataFactory.getOWLClassAssertionAxiom(dataFactory.getOWLClass(IRI.create(NS + "Measurement")),
+                measurement));
+        axioms.add(dataFactory.getOWLObjectPropertyAssertionAxiom(
+                dataFactory.getOWLObjectProperty(IRI.create(NS + "locatedIn")), measurement,
+                dataFactory.getOWLNamedIndividual(IRI.create(NS + "p"))));
+        axioms.add(dataFactory.getOWLDataPropertyAssertionAxiom(
+                dataFactory.getOWLDataProperty(IRI.create(NS + "value")), measurement, Integer.toString(i)));
+        return axioms;
+    }
+
+    private static String read(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for (int n = in.read(buffer); n >= 0; n = in.read(buffer))
+            out.write(buffer, 0, n);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,126 @@
+package br.ufes.inf.nemo.integradoce.etl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.formats.NTriplesDocumentFormat;
+import org.semanticweb.owlapi.formats.PrefixDocumentFormat;
+import org.semanticweb.owlapi.formats.TurtleDocumentFormat;
+import org.semanticweb.owlapi.io.StringDocumentSource;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLDataProperty;
+import org.semanticweb.owlapi.model.OWLDocumentFormat;
+import org.semanticweb.owlapi.model.OWLEntity;
+import org.semanticweb.owlapi.model.OWLNamedIndividual;
+import org.semanticweb.owlapi.model.OWLObjectProperty;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
+import org.semanticweb.owlapi.vocab.OWL2Datatype;
+
+/**
+ * Tests that the Turtle written by {@link TurtleSink} and the N-Triples written
+ * by {@link NTriplesSink}, after a header rendered by the OWLAPI, are read back
+ * by the OWLAPI with the same axioms, including labels that need escaping.
+ */
+public class TripleSinkTest
+{
+    private static final OWLDataFactory FACTORY = OWLManager.getOWLDataFactory();
+
+    private static final String DOCE = "http://purl.org/nemo/doce#", GUFO = "http://purl.org/nemo/gufo#",
+            DATA = "http://purl.org/nemo/integradoce#";
+
+    private static final OWLObjectProperty LOCATED_IN = FACTORY.getOWLObjectProperty(IRI.create(DOCE + "locatedIn"));
+    private static final OWLDataProperty HAS_QUALITY_VALUE = FACTORY
+            .getOWLDataProperty(IRI.create(GUFO + "hasQualityValue"));
+    private static final OWLDataProperty HAS_BEGIN_POINT = FACTORY
+            .getOWLDataProperty(IRI.create(GUFO + "hasBeginPointInXSDDateTimeStamp"));
+    private static final OWLDataProperty LAT = FACTORY
+            .getOWLDataProperty(IRI.create("http://www.w3.org/2003/01/geo/wgs84_pos#lat"));
+    private static final OWLDataProperty LABEL = FACTORY
+            .getOWLDataProperty(IRI.create("http://www.w3.org/2000/01/rdf-schema#label"));
+
+    /**
+     * The axioms of a point and of a measurement at it
+     */
+    private static List<OWLAxiom> axioms()
+    {
+        OWLNamedIndividual point = FACTORY.getOWLNamedIndividual(IRI.create(DATA + "RCA-01"));
+        OWLNamedIndividual measurement = FACTORY.getOWLNamedIndividual(IRI.create(DATA + "m-3f2a"));
+        return Arrays.asList(
+                FACTORY.getOWLClassAssertionAxiom(FACTORY.getOWLClass(IRI.create(DOCE + "GeographicPoint")), point),
+                FACTORY.getOWLDataPropertyAssertionAxiom(LAT, point, -20.3471f),
+                FACTORY.getOWLDataPropertyAssertionAxiom(LABEL, point,
+                        "Ponte \"férrea\" em São José\nsobre o rio do Carmo\t\\ Acaiaca"),
+                FACTORY.getOWLClassAssertionAxiom(FACTORY.getOWLClass(IRI.create(DOCE + "Measurement")), measurement),
+                FACTORY.getOWLObjectPropertyAssertionAxiom(LOCATED_IN, measurement, point),
+                FACTORY.getOWLDataPropertyAssertionAxiom(HAS_QUALITY_VALUE, measurement, 7.25f),
+                FACTORY.getOWLDataPropertyAssertionAxiom(HAS_BEGIN_POINT, measurement, FACTORY.getOWLLiteral(
+                        "2017-08-01T00:00:00-03:00", OWL2Datatype.XSD_DATE_TIME_STAMP)));
+    }
+
+    /**
+     * Writes a header declaring the vocabulary, in the format, followed by the
+     * axioms written by the sink (N-Triples, unless prefixed)
+     */
+    private static String write(OWLDocumentFormat format) throws Exception
+    {
+        OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
+        OWLOntology header = manager.createOntology(IRI.create("http://purl.org/nemo/integradoce/data"));
+        for (OWLEntity entity : Arrays.<OWLEntity>asList(LOCATED_IN, HAS_QUALITY_VALUE, HAS_BEGIN_POINT, LAT, LABEL))
+            manager.addAxiom(header, FACTORY.getOWLDeclarationAxiom(entity));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        manager.saveOntology(header, format, out);
+
+        StringWriter text = new StringWriter();
+        text.write(new String(out.toByteArray(), StandardCharsets.UTF_8));
+        TripleSink sink = format instanceof TurtleDocumentFormat
+                ? new TurtleSink(text, ((PrefixDocumentFormat) format).getPrefixName2PrefixMap())
+                : new NTriplesSink(text);
+        sink.addAll(axioms());
+        sink.close();
+        return text.toString();
+    }
+
+    /**
+     * The individual assertions read back from a document
+     */
+    private static Set<OWLAxiom> readBack(String document, OWLDocumentFormat format) throws Exception
+    {
+        OWLOntology ontology = OWLManager.createOWLOntologyManager()
+                .loadOntologyFromOntologyDocument(new StringDocumentSource(document, "", format, null));
+        return ontology.axioms().filter(TripleSink::supports).collect(Collectors.toSet());
+    }
+
+    @Test
+    public void turtleIsReadBackWithTheSameAxioms() throws Exception
+    {
+        TurtleDocumentFormat format = new TurtleDocumentFormat();
+        format.setDefaultPrefix(DOCE);
+        format.setPrefix("gufo:", GUFO);
+        format.setPrefix("rdfs:", "http://www.w3.org/2000/01/rdf-schema#");
+        format.setPrefix("xsd:", "http://www.w3.org/2001/XMLSchema#");
+        String turtle = write(format);
+        assertEquals(turtle, new HashSet<>(axioms()),
+                readBack(turtle, new TurtleDocumentFormat()));
+    }
+
+    @Test
+    public void nTriplesAreReadBackWithTheSameAxioms() throws Exception
+    {
+        String ntriples = write(new NTriplesDocumentFormat());
+        assertEquals(ntriples, new HashSet<>(axioms()),
+                readBack(ntriples, new NTriplesDocumentFormat()));
+    }
+}
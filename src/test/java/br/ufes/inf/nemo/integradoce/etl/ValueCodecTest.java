@@ -0,0 +1,149 @@
+package br.ufes.inf.nemo.integradoce.etl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.text.NumberFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+/**
+ * Tests the parsing and formatting of the values in the source files by
+ * {@link ValueCodec}, against NumberFormat and SimpleDateFormat where it
+ * replaces them.
+ */
+public class ValueCodecTest
+{
+    private static final NumberFormat PT_BR = NumberFormat.getInstance(Locale.forLanguageTag("pt-BR"));
+
+    private static final NumberFormat US = NumberFormat.getInstance(Locale.US);
+
+    private static void assertRejected(String cell)
+    {
+        try
+        {
+            ValueCodec.parsePtBR(cell);
+            fail(cell);
+        } catch (ParseException e)
+        {
+            // as NumberFormat
+        }
+        try
+        {
+            PT_BR.parse(cell);
+            fail(cell);
+        } catch (ParseException e)
+        {
+            // not a number for NumberFormat either
+        }
+    }
+
+    @Test
+    public void decimalsAreParsedAsByNumberFormat() throws Exception
+    {
+        String[] ptBR = { "7", "-20,27638884", "0,05", ",5", "1.234,5", "12.345.678", "1,5E3", "2,5E-4",
+                "123456789012345678901234", "0,000000000000000000000001", "-0", "7,5 mg/L", "3,2,1" };
+        for (String cell : ptBR)
+            assertEquals(cell, PT_BR.parse(cell).floatValue(), ValueCodec.parsePtBR(cell), 0);
+
+        String[] us = { "7", "0.05", "-41.2", "1,234.5", "6.02E23", "1E-3", "7.5 mg/L" };
+        for (String cell : us)
+            assertEquals(cell, US.parse(cell).floatValue(), ValueCodec.parseUS(cell), 0);
+        // the decimal comma is a grouping separator in the US format
+        assertEquals(1234f, ValueCodec.parseUS("1,234"), 0);
+        assertEquals(1.234f, ValueCodec.parsePtBR("1,234"), 0);
+    }
+
+    @Test
+    public void invalidCellsAreRejected()
+    {
+        for (String cell : new String[] { "", "-", "abc", "ND", "<0,5", ">1600", " 7", "E3" })
+            assertRejected(cell);
+    }
+
+    @Test
+    public void valuesOutsideTheDetectionLimitsAreMarked() throws Exception
+    {
+        assertEquals(7.5f, ValueCodec.parseMeasuredPtBR("7,5"), 0);
+        // below the limit: not known
+        assertEquals(0f, ValueCodec.parseMeasuredPtBR("<0,05"), 0);
+        assertEquals(0f, ValueCodec.parseMeasuredPtBR("<LD"), 0);
+        // above the limit: the limit
+        assertEquals(1600f, ValueCodec.parseMeasuredPtBR(">1.600"), 0);
+        try
+        {
+            ValueCodec.parseMeasuredPtBR(">");
+            fail();
+        } catch (ParseException e)
+        {
+            // no limit
+        }
+    }
+
+    @Test
+    public void datesAreParsedAsBySimpleDateFormat() throws Exception
+    {
+        SimpleDateFormat longYear = new SimpleDateFormat("dd/MM/yyyyHH:mm");
+        longYear.setTimeZone(ValueCodec.SOURCE_TIME_ZONE);
+        SimpleDateFormat shortYear = new SimpleDateFormat("dd/MM/yyHH:mm");
+        shortYear.setTimeZone(ValueCodec.SOURCE_TIME_ZONE);
+        String[][] cells = { { "04/10/2022", "09:49" }, { "4/1/2022", "9:05" }, { "31/12/1999", "23:59" },
+                // lenient, as SimpleDateFormat
+                { "32/01/2022", "25:00" } };
+        for (String[] cell : cells)
+        {
+            assertEquals(cell[0], longYear.parse(cell[0] + cell[1]),
+                    ValueCodec.parseDateTime(cell[0], cell[1], false));
+        }
+        for (String date : new String[] { "17/08/17", "01/01/99", "01/01/00", "1/2/45" })
+        {
+            assertEquals(date, shortYear.parse(date + "12:00"), ValueCodec.parseDateTime(date, "12:00", true));
+        }
+        for (String date : new String[] { "sem data", "2022-10-04", "" })
+        {
+            try
+            {
+                ValueCodec.parseDateTime(date, "12:00", false);
+                fail(date);
+            } catch (ParseException e)
+            {
+                // not a date
+            }
+        }
+    }
+
+    @Test
+    public void whitespaceIsHyphenated()
+    {
+        assertEquals("RD-01-A", ValueCodec.hyphenate("RD 01\tA"));
+        assertEquals("--", ValueCodec.hyphenate("\r\n"));
+        String code = "RCA-01";
+        assertSame(code, ValueCodec.hyphenate(code));
+        assertEquals(code.replaceAll("\\s", "-"), ValueCodec.hyphenate(code));
+    }
+
+    @Test
+    public void datesDoNotDependOnTheHostTimeZone() throws Exception
+    {
+        TimeZone host = TimeZone.getDefault();
+        try
+        {
+            TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+            long utc = ValueCodec.parseDateTime("04/10/2022", "09:49", false).getTime();
+            TimeZone.setDefault(TimeZone.getTimeZone("Asia/Tokyo"));
+            // a different date first, as the last one parsed is reused
+            ValueCodec.parseDateTime("05/10/2022", "09:49", false);
+            long tokyo = ValueCodec.parseDateTime("04/10/2022", "09:49", false).getTime();
+            assertEquals(utc, tokyo);
+            assertEquals("2022-10-04T09:49:00-0300", ValueCodec.formatDateTimeStamp(tokyo));
+        } finally
+        {
+            TimeZone.setDefault(host);
+        }
+    }
+}